@@ -61,6 +61,9 @@
 // public void close();
 // public void syncIndex();
 // public void syncAll();
+// public void setCapacity(int capacity) throws IOException;
+// public int getLookupCount();
+// public int getHitCount();
 // public static void deleteFiles(String path);
 //
 package com.android.gallery3d.common;
@@ -115,6 +118,13 @@ public class BlobCache implements Closeable {
     private int mActiveEntries;
     private int mActiveBytes;
     private int mVersion;
+    // The number of data bytes a region grows to before the regions are
+    // flipped. It is at most mMaxBytes, and it is not kept in the index file.
+    private int mCapacity;
+
+    // The lookups since the cache is opened, and the ones which are found.
+    private int mLookupCount;
+    private int mHitCount;
 
     private RandomAccessFile mActiveDataFile;
     private RandomAccessFile mInactiveDataFile;
@@ -214,6 +224,7 @@ public class BlobCache implements Closeable {
             mActiveRegion = readInt(buf, IH_ACTIVE_REGION);
             mActiveEntries = readInt(buf, IH_ACTIVE_ENTRIES);
             mActiveBytes = readInt(buf, IH_ACTIVE_BYTES);
+            mCapacity = mMaxBytes;
 
             int sum = readInt(buf, IH_CHECKSUM);
             if (checkSum(buf, 0, IH_CHECKSUM) != sum) {
@@ -364,7 +375,7 @@ public class BlobCache implements Closeable {
             throw new RuntimeException("blob is too large!");
         }
 
-        if (mActiveBytes + BLOB_HEADER_SIZE + data.length > mMaxBytes
+        if (mActiveBytes + BLOB_HEADER_SIZE + data.length > mCapacity
                 || mActiveEntries * 2 >= mMaxEntries) {
             flipRegion();
         }
@@ -440,6 +451,15 @@ public class BlobCache implements Closeable {
     // This method tries not to throw IOException even if the data file is
     // corrupted, but it can still throw IOException if things get strange.
     public boolean lookup(LookupRequest req) throws IOException {
+        mLookupCount++;
+        if (lookupBlob(req)) {
+            mHitCount++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean lookupBlob(LookupRequest req) throws IOException {
         // Look up in the active region first.
         if (lookupInternal(req.key, mActiveHashStart)) {
             if (getBlob(mActiveDataFile, mFileOffset, req)) {
@@ -457,7 +477,7 @@ public class BlobCache implements Closeable {
             if (getBlob(mInactiveDataFile, mFileOffset, req)) {
                 // If we don't have enough space to insert this blob into
                 // the active file, just return it.
-                if (mActiveBytes + BLOB_HEADER_SIZE + req.length > mMaxBytes
+                if (mActiveBytes + BLOB_HEADER_SIZE + req.length > mCapacity
                     || mActiveEntries * 2 >= mMaxEntries) {
                     return true;
                 }
@@ -479,6 +499,22 @@ public class BlobCache implements Closeable {
     }
 
 
+    public int getLookupCount() {
+        return mLookupCount;
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    // Sets the number of data bytes a region may grow to, at most the maxBytes
+    // of the index file. If the active region is already larger, the regions
+    // are flipped, so the larger region is dropped at the next flip.
+    public void setCapacity(int capacity) throws IOException {
+        mCapacity = Math.max(DATA_HEADER_SIZE, Math.min(capacity, mMaxBytes));
+        if (mActiveBytes > mCapacity) flipRegion();
+    }
+
     // Copies the blob for the specified offset in the specified file to
     // req.buffer. If req.buffer is null or too small, allocate a buffer and
     // assign it to req.buffer.
@@ -170,6 +170,21 @@ public class Utils {
         return result;
     }
 
+    // Returns true if the buffer starts with the bytes of the prefix. The disk
+    // caches store the key in front of the data to check the crc64 matches.
+    public static boolean startsWith(byte[] buffer, byte[] prefix) {
+        int n = prefix.length;
+        if (buffer.length < n) {
+            return false;
+        }
+        for (int i = 0; i < n; ++i) {
+            if (prefix[i] != buffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static void closeSilently(Closeable c) {
         if (c == null) return;
         try {
@@ -18,7 +18,6 @@ package com.android.gallery3d.util;
 
 import android.util.Log;
 
-import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -78,7 +77,7 @@ public class ThreadPool {
         }
     }
 
-    private final Executor mExecutor;
+    private final ThreadPoolExecutor mExecutor;
 
     public ThreadPool() {
         this(CORE_POOL_SIZE, MAX_POOL_SIZE);
@@ -104,6 +103,12 @@ public class ThreadPool {
         return submit(job, null);
     }
 
+    // Stops the threads once the jobs submitted are done. No job can be
+    // submitted after this is called.
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
     private class Worker<T> implements Runnable, Future<T>, JobContext {
         @SuppressWarnings("hiding")
         private static final String TAG = "Worker";
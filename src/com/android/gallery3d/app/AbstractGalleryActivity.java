@@ -48,6 +48,7 @@ import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.filtershow.cache.ImageLoader;
 import com.android.gallery3d.ui.GLRoot;
 import com.android.gallery3d.ui.GLRootView;
+import com.android.gallery3d.util.CacheManager;
 import com.android.gallery3d.util.MediaSetUtils;
 import com.android.gallery3d.util.PanoramaViewHelper;
 import com.android.gallery3d.util.ThreadPool;
@@ -241,6 +242,7 @@ public class AbstractGalleryActivity extends Activity implements GalleryContext
         }
         GalleryBitmapPool.getInstance().clear();
         MediaItem.getBytesBufferPool().clear();
+        getThreadPool().submit(CacheManager.requestRebalance(this));
     }
 
     @Override
@@ -39,6 +39,7 @@ import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.MediaObject;
 import com.android.gallery3d.data.MediaSet;
 import com.android.gallery3d.data.Path;
+import com.android.gallery3d.data.VideoThumbnailEngine;
 import com.android.gallery3d.filtershow.crop.CropActivity;
 import com.android.gallery3d.filtershow.crop.CropExtras;
 import com.android.gallery3d.glrenderer.FadeTexture;
@@ -104,6 +105,7 @@ public class AlbumPage extends ActivityState implements GalleryActionBar.Cluster
     private boolean mShowDetails;
     private float mUserDistance; // in pixel
     private Future<Integer> mSyncTask = null;
+    private Future<Void> mVideoPrefetchTask = null;
     private boolean mLaunchedFromPhotoPage;
     private boolean mInCameraApp;
     private boolean mInCameraAndWantQuitOnPause;
@@ -433,6 +435,10 @@ public class AlbumPage extends ActivityState implements GalleryActionBar.Cluster
             mSyncTask = mMediaSet.requestSync(this);
         }
         mInCameraAndWantQuitOnPause = mInCameraApp;
+
+        // Fill the cache with the video thumbnails ahead of the grid.
+        mVideoPrefetchTask = mActivity.getThreadPool().submit(
+                VideoThumbnailEngine.requestPrefetch(mMediaSet));
     }
 
     @Override
@@ -457,6 +463,10 @@ public class AlbumPage extends ActivityState implements GalleryActionBar.Cluster
             mSyncTask = null;
             clearLoadingBit(BIT_LOADING_SYNC);
         }
+        if (mVideoPrefetchTask != null) {
+            mVideoPrefetchTask.cancel();
+            mVideoPrefetchTask = null;
+        }
     }
 
     @Override
@@ -190,6 +190,17 @@ public abstract class CommonControllerOverlay extends FrameLayout implements
         mTimeBar.setTime(currentTime, totalTime, trimStartTime, trimEndTime);
     }
 
+    // Lets the time bar preview the frames while scrubbing, instead of
+    // seeking the video on each move.
+    public void setFilmstrip(VideoFilmstrip filmstrip) {
+        mTimeBar.setFilmstrip(filmstrip);
+    }
+
+    // Keeps the room of the preview while the filmstrip is extracted.
+    public void reserveFilmstripSpace() {
+        mTimeBar.reservePreviewSpace();
+    }
+
     public void hide() {
         mPlayPauseReplayView.setVisibility(View.INVISIBLE);
         mLoadingView.setVisibility(View.INVISIBLE);
@@ -339,6 +350,8 @@ public abstract class CommonControllerOverlay extends FrameLayout implements
 
     @Override
     public void onScrubbingMove(int time) {
+        // The time bar previews the frames itself, seek only on release.
+        if (mTimeBar.hasFilmstrip()) return;
         mListener.onSeekMove(time);
     }
 
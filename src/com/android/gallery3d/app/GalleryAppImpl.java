@@ -23,8 +23,10 @@ import android.os.AsyncTask;
 import com.android.gallery3d.data.DataManager;
 import com.android.gallery3d.data.DownloadCache;
 import com.android.gallery3d.data.ImageCacheService;
+import com.android.gallery3d.data.TileCacheService;
 import com.android.gallery3d.gadget.WidgetUtils;
 import com.android.gallery3d.picasasource.PicasaSource;
+import com.android.gallery3d.util.CacheManager;
 import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.LightCycleHelper;
 import com.android.gallery3d.util.ThreadPool;
@@ -39,6 +41,7 @@ public class GalleryAppImpl extends Application implements GalleryApp {
     private static GalleryAppImpl sGalleryAppImpl;
 
     private ImageCacheService mImageCacheService;
+    private TileCacheService mTileCacheService;
     private Object mLock = new Object();
     private DataManager mDataManager;
     private ThreadPool mThreadPool;
@@ -85,6 +88,17 @@ public class GalleryAppImpl extends Application implements GalleryApp {
         }
     }
 
+    @Override
+    public TileCacheService getTileCacheService() {
+        // This method may block on file I/O so a dedicated lock is needed here.
+        synchronized (mLock) {
+            if (mTileCacheService == null) {
+                mTileCacheService = new TileCacheService(getAndroidContext());
+            }
+            return mTileCacheService;
+        }
+    }
+
     @Override
     public synchronized ThreadPool getThreadPool() {
         if (mThreadPool == null) {
@@ -105,6 +119,7 @@ public class GalleryAppImpl extends Application implements GalleryApp {
                         "fail to create: " + cacheDir.getAbsolutePath());
             }
             mDownloadCache = new DownloadCache(this, cacheDir, DOWNLOAD_CAPACITY);
+            CacheManager.register(this, DOWNLOAD_FOLDER, mDownloadCache, DOWNLOAD_CAPACITY);
         }
         return mDownloadCache;
     }
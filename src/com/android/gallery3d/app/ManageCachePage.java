@@ -17,6 +17,7 @@
 package com.android.gallery3d.app;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.res.Configuration;
 import android.os.Bundle;
 import android.os.Handler;
@@ -44,6 +45,7 @@ import com.android.gallery3d.ui.MenuExecutor;
 import com.android.gallery3d.ui.SelectionManager;
 import com.android.gallery3d.ui.SlotView;
 import com.android.gallery3d.ui.SynchronizedHandler;
+import com.android.gallery3d.util.CacheManager.CacheUsage;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.ThreadPool.Job;
@@ -386,6 +388,51 @@ public class ManageCachePage extends ActivityState implements
                     Formatter.formatFileSize(activity, freeBytes));
             status.setText(label);
         }
+        refreshCacheUsages();
+    }
+
+    // Shows the usage and the hit rate of each disk cache of the app.
+    private void refreshCacheUsages() {
+        TextView usageView = (TextView) mFooterContent.findViewById(R.id.cache_usage);
+        ArrayList<CacheUsage> usages = mCacheStorageInfo.getCacheUsages();
+        if (usages.isEmpty()) {
+            usageView.setVisibility(View.GONE);
+            return;
+        }
+        Activity activity = mActivity;
+        StringBuilder text = new StringBuilder();
+        for (CacheUsage usage : usages) {
+            if (text.length() > 0) text.append('\n');
+            text.append(activity.getString(R.string.cache_usage_format,
+                    getCacheLabel(activity, usage.name),
+                    Formatter.formatFileSize(activity, usage.usedBytes),
+                    Formatter.formatFileSize(activity, usage.capacity),
+                    Math.round(usage.getHitRate() * 100)));
+        }
+        usageView.setText(text);
+        usageView.setVisibility(View.VISIBLE);
+    }
+
+    // Returns the name of a cache shown to the user. The caches are
+    // registered with the names of their files.
+    private static String getCacheLabel(Context context, String name) {
+        int labelId;
+        if ("imgcache".equals(name)) {
+            labelId = R.string.cache_name_thumbnails;
+        } else if ("tilecache".equals(name)) {
+            labelId = R.string.cache_name_tiles;
+        } else if ("rev_geocoding".equals(name)) {
+            labelId = R.string.cache_name_places;
+        } else if ("download".equals(name)) {
+            labelId = R.string.cache_name_downloads;
+        } else if ("filmstrip".equals(name)) {
+            labelId = R.string.cache_name_video_frames;
+        } else if ("bookmark".equals(name)) {
+            labelId = R.string.cache_name_video_bookmarks;
+        } else {
+            return name;
+        }
+        return context.getString(labelId);
     }
 
     @Override
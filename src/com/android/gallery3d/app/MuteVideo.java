@@ -18,6 +18,7 @@ package com.android.gallery3d.app;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Handler;
@@ -25,6 +26,7 @@ import android.provider.MediaStore;
 import android.widget.Toast;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.common.ApiHelper;
 import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.util.SaveVideoFileInfo;
 import com.android.gallery3d.util.SaveVideoFileUtils;
@@ -40,6 +42,7 @@ public class MuteVideo {
     private Uri mUri = null;
     private SaveVideoFileInfo mDstFileInfo = null;
     private Activity mActivity = null;
+    private volatile boolean mMuteCancelled;
 	private final int VIDEO_MUTE_ERROR = -1;
 	private final int VIDEO_SAVE = -2;
     private final Handler mHandler = new Handler() {
@@ -69,6 +72,25 @@ public class MuteVideo {
 
     final String TIME_STAMP_NAME = "'MUTE'_yyyyMMdd_HHmmss";
 
+    private final VideoRemuxer.Listener mMuteListener = new VideoRemuxer.Listener() {
+        @Override
+        public void onProgress(final long bytesWritten, final long bytesTotal) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mMuteProgress != null && bytesTotal > 0) {
+                        mMuteProgress.setProgress((int) (bytesWritten * 100 / bytesTotal));
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mMuteCancelled;
+        }
+    };
+
     public MuteVideo(String filePath, Uri uri, Activity activity) {
         mUri = uri;
         mFilePath = filePath;
@@ -80,12 +102,17 @@ public class MuteVideo {
                 mActivity.getContentResolver(), mUri,
                 mActivity.getString(R.string.folder_download));
 
+        mMuteCancelled = false;
         showProgressDialog();
         new Thread(new Runnable() {
                 @Override
             public void run() {
                 try {
-                    VideoUtils.startMute(mFilePath, mDstFileInfo);
+                    if (!VideoUtils.startMute(mFilePath, mDstFileInfo, mMuteListener)) {
+                        // Cancelled, the dialog is already dismissed.
+                        mDstFileInfo.mFile.delete();
+                        return;
+                    }
                     SaveVideoFileUtils.insertContent(
                             mDstFileInfo, mActivity.getContentResolver(), mUri);
                 } catch (Exception e) {
@@ -122,6 +149,21 @@ public class MuteVideo {
         mMuteProgress = new ProgressDialog(mActivity);
         mMuteProgress.setTitle(mActivity.getString(R.string.muting));
         mMuteProgress.setMessage(mActivity.getString(R.string.please_wait));
+        if (ApiHelper.HAS_MEDIA_MUXER) {
+            mMuteProgress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mMuteProgress.setProgressNumberFormat(null);
+            mMuteProgress.setMax(100);
+            // Only the remuxing with MediaMuxer can be cancelled.
+            mMuteProgress.setButton(DialogInterface.BUTTON_NEGATIVE,
+                    mActivity.getString(R.string.cancel),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            mMuteCancelled = true;
+                            mMuteProgress = null;
+                        }
+                    });
+        }
         mMuteProgress.setCancelable(false);
         mMuteProgress.setCanceledOnTouchOutside(false);
         mMuteProgress.show();
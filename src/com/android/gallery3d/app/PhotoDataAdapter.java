@@ -20,6 +20,7 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapRegionDecoder;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 
 import com.android.gallery3d.common.BitmapUtils;
 import com.android.gallery3d.common.Utils;
@@ -29,9 +30,13 @@ import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.MediaObject;
 import com.android.gallery3d.data.MediaSet;
 import com.android.gallery3d.data.Path;
+import com.android.gallery3d.data.TileCacheService;
 import com.android.gallery3d.glrenderer.TiledTexture;
+import com.android.gallery3d.ui.GLRoot;
+import com.android.gallery3d.ui.GifScreenNail;
 import com.android.gallery3d.ui.PhotoView;
 import com.android.gallery3d.ui.ScreenNail;
+import com.android.gallery3d.ui.ScreenNailCache;
 import com.android.gallery3d.ui.SynchronizedHandler;
 import com.android.gallery3d.ui.TileImageViewAdapter;
 import com.android.gallery3d.ui.TiledScreenNail;
@@ -64,40 +69,22 @@ public class PhotoDataAdapter implements PhotoPage.Model {
     private static final int SCREEN_NAIL_MAX = PhotoView.SCREEN_NAIL_MAX;
     private static final int IMAGE_CACHE_SIZE = 2 * SCREEN_NAIL_MAX + 1;
 
+    // When the user swipes quickly, we prefetch up to PREFETCH_MAX_AHEAD
+    // screennails in the direction of travel, enough for PREFETCH_TIME ms of
+    // swiping. Swipes further apart than SLOW_SWIPE_INTERVAL ms are not
+    // considered as a fast swiping.
+    private static final int PREFETCH_MAX_AHEAD = 8;
+    private static final int MAX_ACTIVE_SIZE = SCREEN_NAIL_MAX + PREFETCH_MAX_AHEAD + 1;
+    private static final long PREFETCH_TIME = 3000;
+    private static final long SLOW_SWIPE_INTERVAL = 1000;
+    // The delay we expect before the user turns back.
+    private static final long REVERSE_DELAY = 2000;
+    // The window shrinks when less than this part of the heap is free.
+    private static final float LOW_MEMORY_RATIO = 0.25f;
+
     private static final int BIT_SCREEN_NAIL = 1;
     private static final int BIT_FULL_IMAGE = 2;
 
-    // sImageFetchSeq is the fetching sequence for images.
-    // We want to fetch the current screennail first (offset = 0), the next
-    // screennail (offset = +1), then the previous screennail (offset = -1) etc.
-    // After all the screennail are fetched, we fetch the full images (only some
-    // of them because of we don't want to use too much memory).
-    private static ImageFetch[] sImageFetchSeq;
-
-    private static class ImageFetch {
-        int indexOffset;
-        int imageBit;
-        public ImageFetch(int offset, int bit) {
-            indexOffset = offset;
-            imageBit = bit;
-        }
-    }
-
-    static {
-        int k = 0;
-        sImageFetchSeq = new ImageFetch[1 + (IMAGE_CACHE_SIZE - 1) * 2 + 3];
-        sImageFetchSeq[k++] = new ImageFetch(0, BIT_SCREEN_NAIL);
-
-        for (int i = 1; i < IMAGE_CACHE_SIZE; ++i) {
-            sImageFetchSeq[k++] = new ImageFetch(i, BIT_SCREEN_NAIL);
-            sImageFetchSeq[k++] = new ImageFetch(-i, BIT_SCREEN_NAIL);
-        }
-
-        sImageFetchSeq[k++] = new ImageFetch(0, BIT_FULL_IMAGE);
-        sImageFetchSeq[k++] = new ImageFetch(1, BIT_FULL_IMAGE);
-        sImageFetchSeq[k++] = new ImageFetch(-1, BIT_FULL_IMAGE);
-    }
-
     private final TileImageViewAdapter mTileProvider = new TileImageViewAdapter();
 
     // PhotoDataAdapter caches MediaItems (data) and ImageEntries (image).
@@ -117,7 +104,7 @@ public class PhotoDataAdapter implements PhotoPage.Model {
 
     // The ImageCache is a Path-to-ImageEntry map. It only holds the
     // ImageEntries in the range of [mActiveStart, mActiveEnd).  We also keep
-    // mActiveEnd - mActiveStart <= IMAGE_CACHE_SIZE.  Besides, the
+    // mActiveEnd - mActiveStart <= MAX_ACTIVE_SIZE.  Besides, the
     // [mActiveStart, mActiveEnd) range must be contained within
     // the [mContentStart, mContentEnd) range.
     private HashMap<Path, ImageEntry> mImageCache =
@@ -125,6 +112,18 @@ public class PhotoDataAdapter implements PhotoPage.Model {
     private int mActiveStart = 0;
     private int mActiveEnd = 0;
 
+    // The direction (-1, 0 or 1) and the average interval of the last swipes.
+    // They decide the range of [mActiveStart, mActiveEnd) and mFetchOrder.
+    private int mSwipeDirection = 0;
+    private long mSwipeInterval = SLOW_SWIPE_INTERVAL;
+    private long mLastSwipeTime;
+
+    // mFetchOrder holds the offsets of the active images, sorted by the
+    // expected time until they are displayed. We fetch the screennails in
+    // this order, then the full images (only the ones next to the current
+    // image, because we don't want to use too much memory).
+    private int[] mFetchOrder = new int[0];
+
     // mCurrentIndex is the "center" image the user is viewing. The change of
     // mCurrentIndex triggers the data loading and image loading.
     private int mCurrentIndex;
@@ -139,6 +138,7 @@ public class PhotoDataAdapter implements PhotoPage.Model {
 
     private final Handler mMainHandler;
     private final ThreadPool mThreadPool;
+    private final GLRoot mGLRoot;
 
     private final PhotoView mPhotoView;
     private final MediaSet mSource;
@@ -180,6 +180,8 @@ public class PhotoDataAdapter implements PhotoPage.Model {
         mIsPanorama = isPanorama;
         mIsStaticCamera = isStaticCamera;
         mThreadPool = activity.getThreadPool();
+        mGLRoot = activity.getGLRoot();
+        mTileProvider.enableTileCache((GalleryApp) activity.getApplication());
         mNeedFullImage = true;
 
         Arrays.fill(mChanges, MediaObject.INVALID_DATA_VERSION);
@@ -314,6 +316,9 @@ public class PhotoDataAdapter implements PhotoPage.Model {
         } else {
             entry.failToLoad = false;
             entry.screenNail = screenNail;
+            if (screenNail instanceof GifScreenNail) {
+                ((GifScreenNail) screenNail).setCurrent(path == mItemPath);
+            }
         }
 
         for (int i = -SCREEN_NAIL_MAX; i <= SCREEN_NAIL_MAX; ++i) {
@@ -394,6 +399,7 @@ public class PhotoDataAdapter implements PhotoPage.Model {
 
     private void updateCurrentIndex(int index) {
         if (mCurrentIndex == index) return;
+        updateSwipeSpeed(index - mCurrentIndex);
         mCurrentIndex = index;
         updateSlidingWindow();
 
@@ -424,16 +430,21 @@ public class PhotoDataAdapter implements PhotoPage.Model {
         ScreenNail s = e.screenNail;
         if (s instanceof TiledScreenNail) {
             TiledTexture t = ((TiledScreenNail) s).getTexture();
-            if (t != null && !t.isReady()) mUploader.addTexture(t);
+            if (t != null && !t.isReady()) {
+                // The neighbors are uploaded after the current picture.
+                if (offset == 0) {
+                    mUploader.addTexture(t);
+                } else {
+                    mUploader.addBgTexture(t);
+                }
+            }
         }
     }
 
     private void updateScreenNailUploadQueue() {
         mUploader.clear();
-        uploadScreenNail(0);
-        for (int i = 1; i < IMAGE_CACHE_SIZE; ++i) {
-            uploadScreenNail(i);
-            uploadScreenNail(-i);
+        for (int offset : mFetchOrder) {
+            uploadScreenNail(offset);
         }
     }
 
@@ -514,8 +525,7 @@ public class PhotoDataAdapter implements PhotoPage.Model {
     @Override
     public boolean isGif(int offset) {
         MediaItem item = getItem(mCurrentIndex + offset);
-        return (item != null) &&
-                MediaItem.MIME_TYPE_GIF.equalsIgnoreCase(item.getMimeType());
+        return (item != null) && isGif(item);
     }
 
     @Override
@@ -584,6 +594,8 @@ public class PhotoDataAdapter implements PhotoPage.Model {
         if (mItemPath == path) return;
         mItemPath = path;
         mCurrentIndex = indexHint;
+        mSwipeDirection = 0;
+        mSwipeInterval = SLOW_SWIPE_INTERVAL;
         updateSlidingWindow();
         updateImageCache();
         fireDataChange();
@@ -621,7 +633,8 @@ public class PhotoDataAdapter implements PhotoPage.Model {
             if (fullImage != null) {
                 mTileProvider.setScreenNail(screenNail,
                         fullImage.getWidth(), fullImage.getHeight());
-                mTileProvider.setRegionDecoder(fullImage);
+                mTileProvider.setRegionDecoder(fullImage,
+                        entry.fullImageSource, entry.fullImageCacheKey);
             } else {
                 int width = screenNail.getWidth();
                 int height = screenNail.getHeight();
@@ -632,16 +645,88 @@ public class PhotoDataAdapter implements PhotoPage.Model {
         }
     }
 
-    private void updateSlidingWindow() {
-        // 1. Update the image window
-        int start = Utils.clamp(mCurrentIndex - IMAGE_CACHE_SIZE / 2,
-                0, Math.max(0, mSize - IMAGE_CACHE_SIZE));
-        int end = Math.min(mSize, start + IMAGE_CACHE_SIZE);
+    private void updateSwipeSpeed(int step) {
+        long now = SystemClock.uptimeMillis();
+        long interval = now - mLastSwipeTime;
+        mLastSwipeTime = now;
+
+        int direction = Integer.signum(step);
+        if (Math.abs(step) != 1 || direction != mSwipeDirection
+                || interval >= SLOW_SWIPE_INTERVAL) {
+            // A jump, a turn or a pause: start over.
+            mSwipeDirection = (Math.abs(step) == 1) ? direction : 0;
+            mSwipeInterval = SLOW_SWIPE_INTERVAL;
+        } else {
+            mSwipeInterval = (mSwipeInterval + interval) / 2;
+        }
+    }
 
-        if (mActiveStart == start && mActiveEnd == end) return;
+    private static boolean isMemoryLow() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return runtime.maxMemory() - used < runtime.maxMemory() * LOW_MEMORY_RATIO;
+    }
+
+    // Returns the expected time (in ms) until the image at the given offset
+    // is displayed.
+    private long getTimeToDisplay(int offset) {
+        long time = Math.abs(offset) * mSwipeInterval;
+        if (mSwipeDirection != 0 && Integer.signum(offset) == -mSwipeDirection) {
+            time += REVERSE_DELAY;
+        }
+        return time;
+    }
+
+    private void updateFetchOrder() {
+        int n = mActiveEnd - mActiveStart;
+        int[] order = new int[n];
+        long[] times = new long[n];
+        // Insertion sort; for the same time, the next image comes first.
+        for (int i = 0; i < n; ++i) {
+            int offset = mActiveStart + i - mCurrentIndex;
+            long time = getTimeToDisplay(offset);
+            int j = i;
+            while (j > 0 && (times[j - 1] > time
+                    || (times[j - 1] == time && order[j - 1] < offset))) {
+                order[j] = order[j - 1];
+                times[j] = times[j - 1];
+                --j;
+            }
+            order[j] = offset;
+            times[j] = time;
+        }
+        mFetchOrder = order;
+    }
+
+    private void updateSlidingWindow() {
+        // 1. Update the image window. It is larger in the direction of
+        // travel when the user swipes quickly, and smaller when the memory
+        // is low.
+        int ahead = SCREEN_NAIL_MAX;
+        int behind = SCREEN_NAIL_MAX;
+        if (mSwipeDirection != 0 && mSwipeInterval < SLOW_SWIPE_INTERVAL) {
+            ahead = Utils.clamp((int) (PREFETCH_TIME / Math.max(1, mSwipeInterval)),
+                    SCREEN_NAIL_MAX, PREFETCH_MAX_AHEAD);
+            behind = 1;
+        }
+        if (isMemoryLow()) {
+            ahead = Math.min(ahead, SCREEN_NAIL_MAX) / 2 + 1;
+            behind = 1;
+        }
+        int before = (mSwipeDirection < 0) ? ahead : behind;
+        int after = (mSwipeDirection < 0) ? behind : ahead;
+        int start = Utils.clamp(mCurrentIndex - before, 0, Math.max(0, mSize - 1));
+        int end = Utils.clamp(mCurrentIndex + after + 1, start,
+                Math.min(mSize, start + MAX_ACTIVE_SIZE));
+
+        if (mActiveStart == start && mActiveEnd == end) {
+            updateFetchOrder();
+            return;
+        }
 
         mActiveStart = start;
         mActiveEnd = end;
+        updateFetchOrder();
 
         // 2. Update the data window
         start = Utils.clamp(mCurrentIndex - DATA_CACHE_SIZE / 2,
@@ -672,13 +757,17 @@ public class PhotoDataAdapter implements PhotoPage.Model {
 
         // 1. Find the most wanted request and start it (if not already started).
         Future<?> task = null;
-        for (int i = 0; i < sImageFetchSeq.length; i++) {
-            int offset = sImageFetchSeq[i].indexOffset;
-            int bit = sImageFetchSeq[i].imageBit;
-            if (bit == BIT_FULL_IMAGE && !mNeedFullImage) continue;
-            task = startTaskIfNeeded(currentIndex + offset, bit);
+        for (int offset : mFetchOrder) {
+            task = startTaskIfNeeded(currentIndex + offset, BIT_SCREEN_NAIL);
             if (task != null) break;
         }
+        if (task == null && mNeedFullImage) {
+            for (int offset : mFetchOrder) {
+                if (Math.abs(offset) > 1) continue;
+                task = startTaskIfNeeded(currentIndex + offset, BIT_FULL_IMAGE);
+                if (task != null) break;
+            }
+        }
 
         // 2. Cancel everything else.
         for (ImageEntry entry : mImageCache.values()) {
@@ -715,16 +804,35 @@ public class PhotoDataAdapter implements PhotoPage.Model {
                 return newPlaceholderScreenNail(mItem);
             }
 
-            Bitmap bitmap = mItem.requestImage(MediaItem.TYPE_THUMBNAIL).run(jc);
-            if (jc.isCancelled()) return null;
+            ScreenNailCache cache = ScreenNailCache.getInstance();
+            Bitmap bitmap = cache.requestImage(
+                    mItem, MediaItem.TYPE_THUMBNAIL).run(jc);
+            if (jc.isCancelled()) {
+                cache.release(bitmap);
+                return null;
+            }
             if (bitmap != null) {
-                bitmap = BitmapUtils.rotateBitmap(bitmap,
-                    mItem.getRotation() - mItem.getFullImageRotation(), true);
+                // The cached bitmap is shared, rotate a copy of it.
+                Bitmap rotated = BitmapUtils.rotateBitmap(bitmap,
+                    mItem.getRotation() - mItem.getFullImageRotation(), false);
+                if (rotated != bitmap) {
+                    cache.release(bitmap);
+                    bitmap = rotated;
+                }
+            }
+            if (bitmap == null) return null;
+            if (isGif(mItem)) {
+                // Play the GIF in place, from its first frame.
+                return new GifScreenNail(bitmap, mItem.getContentUri(), mGLRoot);
             }
-            return bitmap == null ? null : new TiledScreenNail(bitmap);
+            return new TiledScreenNail(bitmap);
         }
     }
 
+    private static boolean isGif(MediaItem item) {
+        return MediaItem.MIME_TYPE_GIF.equalsIgnoreCase(item.getMimeType());
+    }
+
     private class FullImageJob implements Job<BitmapRegionDecoder> {
         private MediaItem mItem;
 
@@ -803,6 +911,8 @@ public class PhotoDataAdapter implements PhotoPage.Model {
                 && (item.getSupportedOperations()
                 & MediaItem.SUPPORT_FULL_IMAGE) != 0) {
             entry.requestedFullImage = version;
+            entry.fullImageSource = item.requestLargeImage();
+            entry.fullImageCacheKey = TileCacheService.getImageKey(item);
             entry.fullImageTask = mThreadPool.submit(
                     new FullImageJob(item),
                     new FullImageListener(item));
@@ -821,12 +931,17 @@ public class PhotoDataAdapter implements PhotoPage.Model {
             ImageEntry entry = mImageCache.get(path);
             toBeRemoved.remove(path);
             if (entry != null) {
+                if (entry.screenNail instanceof GifScreenNail) {
+                    ((GifScreenNail) entry.screenNail).setCurrent(i == mCurrentIndex);
+                }
                 if (Math.abs(i - mCurrentIndex) > 1) {
                     if (entry.fullImageTask != null) {
                         entry.fullImageTask.cancel();
                         entry.fullImageTask = null;
                     }
                     entry.fullImage = null;
+                    entry.fullImageSource = null;
+                    entry.fullImageCacheKey = null;
                     entry.requestedFullImage = MediaObject.INVALID_DATA_VERSION;
                 }
                 if (entry.requestedScreenNail != item.getDataVersion()) {
@@ -901,6 +1016,9 @@ public class PhotoDataAdapter implements PhotoPage.Model {
 
     private static class ImageEntry {
         public BitmapRegionDecoder fullImage;
+        // Opens more decoders on the full image for the tile decoders
+        public Job<BitmapRegionDecoder> fullImageSource;
+        public String fullImageCacheKey;
         public ScreenNail screenNail;
         public Future<ScreenNail> screenNailTask;
         public Future<BitmapRegionDecoder> fullImageTask;
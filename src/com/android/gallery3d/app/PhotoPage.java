@@ -74,7 +74,6 @@ import com.android.gallery3d.ui.SelectionManager;
 import com.android.gallery3d.ui.SynchronizedHandler;
 import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.UsageStatistics;
-import com.android.gallery3d.util.ViewGifImage;
 
 public abstract class PhotoPage extends ActivityState implements
         PhotoView.Listener, AppBridge.Server, ShareActionProvider.OnShareTargetSelectedListener,
@@ -1161,10 +1160,6 @@ public abstract class PhotoPage extends ActivityState implements
             // item is not ready or it is camera preview, ignore
             return;
         }
-        if (item.getMimeType().equals(MediaItem.MIME_TYPE_GIF)) {
-            viewAnimateGif((Activity) mActivity, item.getContentUri());
-            return;
-        }
 
         int supported = item.getSupportedOperations();
         boolean playVideo = ((supported & MediaItem.SUPPORT_PLAY) != 0);
@@ -1561,10 +1556,4 @@ public abstract class PhotoPage extends ActivityState implements
             return "Unknown:" + item.getMediaType();
         }
     }
-
-    private static void viewAnimateGif(Activity activity, Uri uri) {
-        Intent intent = new Intent(ViewGifImage.VIEW_GIF_ACTION);
-        intent.setDataAndType(uri, MediaItem.MIME_TYPE_GIF);
-        activity.startActivity(intent);
-    }
 }
@@ -27,9 +27,11 @@ import com.android.gallery3d.common.BitmapUtils;
 import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.Path;
+import com.android.gallery3d.data.TileCacheService;
 import com.android.gallery3d.ui.BitmapScreenNail;
 import com.android.gallery3d.ui.PhotoView;
 import com.android.gallery3d.ui.ScreenNail;
+import com.android.gallery3d.ui.ScreenNailCache;
 import com.android.gallery3d.ui.SynchronizedHandler;
 import com.android.gallery3d.ui.TileImageViewAdapter;
 import com.android.gallery3d.util.Future;
@@ -72,6 +74,7 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
             }
         };
         mThreadPool = activity.getThreadPool();
+        enableTileCache((GalleryApp) activity.getApplication());
     }
 
     private static class ImageBundle {
@@ -131,7 +134,8 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
         try {
             setScreenNail(bundle.backupImage,
                     bundle.decoder.getWidth(), bundle.decoder.getHeight());
-            setRegionDecoder(bundle.decoder);
+            setRegionDecoder(bundle.decoder, mItem.requestLargeImage(),
+                    TileCacheService.getImageKey(mItem));
             mPhotoView.notifyImageChange(0);
         } catch (Throwable t) {
             Log.w(TAG, "fail to decode large", t);
@@ -162,7 +166,8 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
                         mItem.requestLargeImage(), mLargeListener);
             } else {
                 mTask = mThreadPool.submit(
-                        mItem.requestImage(MediaItem.TYPE_THUMBNAIL),
+                        ScreenNailCache.getInstance().requestImage(
+                                mItem, MediaItem.TYPE_THUMBNAIL),
                         mThumbListener);
             }
         }
@@ -179,6 +184,13 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
         if (mBitmapScreenNail != null) {
             mBitmapScreenNail.recycle();
             mBitmapScreenNail = null;
+            if (!mHasFullImage) {
+                // The thumbnail is given back to the ScreenNailCache, which
+                // may reuse its bitmap for another image. Detach it, and
+                // request it again when resumed.
+                clear();
+                mTask = null;
+            }
         }
     }
 
@@ -23,6 +23,7 @@ import com.android.gallery3d.data.ContentListener;
 import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.MediaObject;
 import com.android.gallery3d.data.Path;
+import com.android.gallery3d.ui.ScreenNailCache;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
 import com.android.gallery3d.util.ThreadPool;
@@ -36,6 +37,7 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
     @SuppressWarnings("unused")
     private static final String TAG = "SlideshowDataAdapter";
 
+    // The slides decoded ahead. They are decoded in parallel.
     private static final int IMAGE_QUEUE_CAPACITY = 3;
 
     public interface SlideshowSource {
@@ -55,7 +57,45 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
     private boolean mDataReady;
     private Path mInitialPath;
 
-    private final LinkedList<Slide> mImageQueue = new LinkedList<Slide>();
+    // A slide being decoded, or decoded and not shown yet.
+    private class PendingSlide implements FutureListener<Bitmap> {
+        public final MediaItem item;
+        public final int index;
+        public Future<Bitmap> future;
+        private boolean mDiscarded;
+        private boolean mReleased;
+
+        public PendingSlide(MediaItem item, int index) {
+            this.item = item;
+            this.index = index;
+        }
+
+        @Override
+        public void onFutureDone(Future<Bitmap> future) {
+            synchronized (SlideshowDataAdapter.this) {
+                if (mDiscarded) {
+                    releaseBitmap();
+                } else {
+                    SlideshowDataAdapter.this.notifyAll();
+                }
+            }
+        }
+
+        // Called with the lock of the adapter held.
+        public void discard() {
+            mDiscarded = true;
+            future.cancel();
+            if (future.isDone()) releaseBitmap();
+        }
+
+        private void releaseBitmap() {
+            if (mReleased) return;
+            mReleased = true;
+            ScreenNailCache.getInstance().release(future.get());
+        }
+    }
+
+    private final LinkedList<PendingSlide> mImageQueue = new LinkedList<PendingSlide>();
 
     private Future<Void> mReloadTask;
     private final ThreadPool mThreadPool;
@@ -113,6 +153,9 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
 
                 if (mNeedReset) {
                     synchronized (SlideshowDataAdapter.this) {
+                        for (PendingSlide slide : mImageQueue) {
+                            slide.discard();
+                        }
                         mImageQueue.clear();
                         mLoadIndex = mNextOutput;
                     }
@@ -127,18 +170,13 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
                     continue;
                 }
 
-                Bitmap bitmap = item
-                        .requestImage(MediaItem.TYPE_THUMBNAIL)
-                        .run(jc);
-
-                if (bitmap != null) {
-                    synchronized (SlideshowDataAdapter.this) {
-                        mImageQueue.addLast(
-                                new Slide(item, mLoadIndex, bitmap));
-                        if (mImageQueue.size() == 1) {
-                            SlideshowDataAdapter.this.notifyAll();
-                        }
-                    }
+                // Only the items are loaded here, the slides are decoded by
+                // the thread pool while the next items are loaded.
+                PendingSlide slide = new PendingSlide(item, mLoadIndex);
+                synchronized (SlideshowDataAdapter.this) {
+                    slide.future = mThreadPool.submit(ScreenNailCache.getInstance()
+                            .requestImage(item, MediaItem.TYPE_THUMBNAIL), slide);
+                    mImageQueue.addLast(slide);
                 }
                 ++mLoadIndex;
             }
@@ -157,17 +195,25 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
     }
 
     private synchronized Slide innerNextBitmap() {
-        while (mIsActive && mDataReady && mImageQueue.isEmpty()) {
-            try {
-                wait();
-            } catch (InterruptedException t) {
-                throw new AssertionError();
+        while (true) {
+            // Wait for the first slide to be decoded, or for more items if
+            // there is no slide.
+            while (mIsActive && (mImageQueue.isEmpty()
+                    ? mDataReady : !mImageQueue.getFirst().future.isDone())) {
+                try {
+                    wait();
+                } catch (InterruptedException t) {
+                    throw new AssertionError();
+                }
             }
+            if (!mIsActive || mImageQueue.isEmpty()) return null;
+            PendingSlide slide = mImageQueue.removeFirst();
+            mNextOutput++;
+            this.notifyAll();
+            // Skip the slides which cannot be decoded.
+            Bitmap bitmap = slide.future.get();
+            if (bitmap != null) return new Slide(slide.item, slide.index, bitmap);
         }
-        if (mImageQueue.isEmpty()) return null;
-        mNextOutput++;
-        this.notifyAll();
-        return mImageQueue.removeFirst();
     }
 
     @Override
@@ -191,6 +237,16 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
         mReloadTask.cancel();
         mReloadTask.waitDone();
         mReloadTask = null;
+
+        // The slides not taken yet hold references in the ScreenNailCache;
+        // they are decoded again on resume.
+        synchronized (this) {
+            for (PendingSlide slide : mImageQueue) {
+                slide.discard();
+            }
+            mImageQueue.clear();
+            mLoadIndex = mNextOutput;
+        }
     }
 
     @Override
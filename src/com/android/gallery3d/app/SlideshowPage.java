@@ -27,18 +27,23 @@ import android.view.MotionEvent;
 import com.android.gallery3d.R;
 import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.data.ContentListener;
+import com.android.gallery3d.data.DataManager;
 import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.MediaObject;
 import com.android.gallery3d.data.MediaSet;
 import com.android.gallery3d.data.Path;
 import com.android.gallery3d.glrenderer.GLCanvas;
 import com.android.gallery3d.ui.GLView;
+import com.android.gallery3d.ui.ScreenNailCache;
 import com.android.gallery3d.ui.SlideshowView;
 import com.android.gallery3d.ui.SynchronizedHandler;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
+import com.android.photos.data.GalleryBitmapPool;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Random;
 
 public class SlideshowPage extends ActivityState {
@@ -74,6 +79,14 @@ public class SlideshowPage extends ActivityState {
             this.item = item;
             this.index = index;
         }
+
+        // Gives the bitmap back if the slide is dropped without being shown.
+        // Once shown, the bitmap is released by the SlideshowView.
+        public void release() {
+            if (!ScreenNailCache.getInstance().release(bitmap)) {
+                GalleryBitmapPool.getInstance().put(bitmap);
+            }
+        }
     }
 
     private Handler mHandler;
@@ -160,7 +173,10 @@ public class SlideshowPage extends ActivityState {
             }
             return;
         }
+        // The slide is shown on resume.
+        if (!mIsActive) return;
 
+        mPendingSlide = null;
         mSlideshowView.next(slide.bitmap, slide.item.getRotation());
 
         setStateResult(Activity.RESULT_OK, mResultIntent
@@ -193,6 +209,15 @@ public class SlideshowPage extends ActivityState {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mPendingSlide != null) {
+            mPendingSlide.release();
+            mPendingSlide = null;
+        }
+    }
+
     private void initializeData(Bundle data) {
         boolean random = data.getBoolean(KEY_RANDOM_ORDER, false);
 
@@ -204,7 +229,8 @@ public class SlideshowPage extends ActivityState {
         if (random) {
             boolean repeat = data.getBoolean(KEY_REPEAT);
             mModel = new SlideshowDataAdapter(mActivity,
-                    new ShuffleSource(mediaSet, repeat), 0, null);
+                    new ShuffleSource(mActivity.getDataManager(), mediaSet, repeat),
+                    0, null);
             setStateResult(Activity.RESULT_OK, mResultIntent.putExtra(KEY_PHOTO_INDEX, 0));
         } else {
             int index = data.getInt(KEY_PHOTO_INDEX);
@@ -223,29 +249,28 @@ public class SlideshowPage extends ActivityState {
         setContentPane(mRootPane);
     }
 
-    private static MediaItem findMediaItem(MediaSet mediaSet, int index) {
-        for (int i = 0, n = mediaSet.getSubMediaSetCount(); i < n; ++i) {
-            MediaSet subset = mediaSet.getSubMediaSet(i);
-            int count = subset.getTotalMediaItemCount();
-            if (index < count) {
-                return findMediaItem(subset, index);
-            }
-            index -= count;
-        }
-        ArrayList<MediaItem> list = mediaSet.getMediaItem(index, 1);
-        return list.isEmpty() ? null : list.get(0);
-    }
-
+    // ShuffleSource shows the items in a random order. The paths of all the
+    // items are read once, in batches, and shuffled. The items are then
+    // looked up by path a batch at a time, instead of walking the sets for
+    // each random index.
     private static class ShuffleSource implements SlideshowDataAdapter.SlideshowSource {
         private static final int RETRY_COUNT = 5;
+        private static final int BATCH_SIZE = 32;
+        private final DataManager mDataManager;
         private final MediaSet mMediaSet;
         private final Random mRandom = new Random();
-        private int mOrder[] = new int[0];
+        private final ArrayList<Path> mOrder = new ArrayList<Path>();
         private final boolean mRepeat;
         private long mSourceVersion = MediaSet.INVALID_DATA_VERSION;
-        private int mLastIndex = -1;
+        private Path mLastPath;
+
+        // The items of the paths in mOrder from mBatchStart to mBatchEnd.
+        private final MediaItem[] mBatch = new MediaItem[BATCH_SIZE];
+        private int mBatchStart;
+        private int mBatchEnd;
 
-        public ShuffleSource(MediaSet mediaSet, boolean repeat) {
+        public ShuffleSource(DataManager dataManager, MediaSet mediaSet, boolean repeat) {
+            mDataManager = dataManager;
             mMediaSet = Utils.checkNotNull(mediaSet);
             mRepeat = repeat;
         }
@@ -257,16 +282,34 @@ public class SlideshowPage extends ActivityState {
 
         @Override
         public MediaItem getMediaItem(int index) {
-            if (!mRepeat && index >= mOrder.length) return null;
-            if (mOrder.length == 0) return null;
-            mLastIndex = mOrder[index % mOrder.length];
-            MediaItem item = findMediaItem(mMediaSet, mLastIndex);
-            for (int i = 0; i < RETRY_COUNT && item == null; ++i) {
-                Log.w(TAG, "fail to find image: " + mLastIndex);
-                mLastIndex = mRandom.nextInt(mOrder.length);
-                item = findMediaItem(mMediaSet, mLastIndex);
+            if (!mRepeat && index >= mOrder.size()) return null;
+            if (mOrder.isEmpty()) return null;
+            int position = index % mOrder.size();
+            if (position < mBatchStart || position >= mBatchEnd) loadBatch(position);
+
+            // Skip the items which have been deleted since the reload.
+            for (int i = position; i < mBatchEnd && i < position + RETRY_COUNT; ++i) {
+                MediaItem item = mBatch[i - mBatchStart];
+                if (item != null) {
+                    mLastPath = item.getPath();
+                    return item;
+                }
+                Log.w(TAG, "fail to find image: " + mOrder.get(i));
             }
-            return item;
+            return null;
+        }
+
+        private void loadBatch(int position) {
+            mBatchStart = position;
+            mBatchEnd = Math.min(position + BATCH_SIZE, mOrder.size());
+            Arrays.fill(mBatch, null);
+            ArrayList<Path> paths = new ArrayList<Path>(mOrder.subList(mBatchStart, mBatchEnd));
+            mDataManager.mapMediaItems(paths, new MediaSet.ItemConsumer() {
+                @Override
+                public void consume(int index, MediaItem item) {
+                    mBatch[index] = item;
+                }
+            }, 0);
         }
 
         @Override
@@ -274,24 +317,25 @@ public class SlideshowPage extends ActivityState {
             long version = mMediaSet.reload();
             if (version != mSourceVersion) {
                 mSourceVersion = version;
-                int count = mMediaSet.getTotalMediaItemCount();
-                if (count != mOrder.length) generateOrderArray(count);
+                generateOrder();
             }
             return version;
         }
 
-        private void generateOrderArray(int totalCount) {
-            if (mOrder.length != totalCount) {
-                mOrder = new int[totalCount];
-                for (int i = 0; i < totalCount; ++i) {
-                    mOrder[i] = i;
+        private void generateOrder() {
+            mOrder.clear();
+            mBatchStart = 0;
+            mBatchEnd = 0;
+            mMediaSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
+                @Override
+                public void consume(int index, MediaItem item) {
+                    mOrder.add(item.getPath());
                 }
-            }
-            for (int i = totalCount - 1; i > 0; --i) {
-                Utils.swap(mOrder, i, mRandom.nextInt(i + 1));
-            }
-            if (mOrder[0] == mLastIndex && totalCount > 1) {
-                Utils.swap(mOrder, 0, mRandom.nextInt(totalCount - 1) + 1);
+            });
+            Collections.shuffle(mOrder, mRandom);
+            int totalCount = mOrder.size();
+            if (totalCount > 1 && mOrder.get(0) == mLastPath) {
+                Collections.swap(mOrder, 0, mRandom.nextInt(totalCount - 1) + 1);
             }
         }
 
@@ -52,6 +52,10 @@ public class TimeBar extends View {
 
     private static final int TEXT_SIZE_IN_DP = 14;
 
+    // The height of the frame previewed above the bar while scrubbing
+    private static final int PREVIEW_HEIGHT_IN_DP = 72;
+    private static final int PREVIEW_MARGIN_IN_DP = 8;
+
     private static final String TAG = "Gallery3D/TimeBar";
     private static final boolean LOG = false;
     public static final int UNKNOWN = -1;
@@ -86,6 +90,15 @@ public class TimeBar extends View {
     protected int mVPaddingInPx;
     private int mLastShowTime = UNKNOWN;
 
+    // The frames previewed while scrubbing, instead of seeking the video
+    protected VideoFilmstrip mFilmstrip;
+    private boolean mReservePreviewSpace;
+    private final Paint mPreviewPaint;
+    private final Rect mPreviewSource = new Rect();
+    private final Rect mPreviewTarget = new Rect();
+    private final int mPreviewHeight;
+    private final int mPreviewMargin;
+
     private ITimeBarSecondaryProgressExt mSecondaryProgressExt = new TimeBarSecondaryProgressExtImpl();
     private ITimeBarInfoExt mInfoExt = new TimeBarInfoExtImpl();
     private ITimeBarLayoutExt mLayoutExt = new TimeBarLayoutExtImpl();
@@ -119,6 +132,9 @@ public class TimeBar extends View {
         mScrubberPadding = (int) (metrics.density * SCRUBBER_PADDING_IN_DP);
 
         mVPaddingInPx = (int) (metrics.density * V_PADDING_IN_DP);
+        mPreviewPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mPreviewHeight = (int) (metrics.density * PREVIEW_HEIGHT_IN_DP);
+        mPreviewMargin = (int) (metrics.density * PREVIEW_MARGIN_IN_DP);
         mLayoutExt.init(mScrubberPadding, mVPaddingInPx);
         mInfoExt.init(textSizeInPx);
         mSecondaryProgressExt.init();
@@ -156,7 +172,49 @@ public class TimeBar extends View {
      */
     public int getPreferredHeight() {
         int preferredHeight = mTimeBounds.height() + mVPaddingInPx + mScrubberPadding;
-        return mLayoutExt.getPreferredHeight(preferredHeight, mTimeBounds);
+        return mLayoutExt.getPreferredHeight(preferredHeight, mTimeBounds)
+                + getPreviewSpace();
+    }
+
+    /**
+     * Sets the frames to preview while scrubbing. When it is set, the bar
+     * makes room for the preview above it.
+     */
+    public void setFilmstrip(VideoFilmstrip filmstrip) {
+        mFilmstrip = filmstrip;
+        if (!mReservePreviewSpace) requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Makes room for the preview before the filmstrip is set, so the bar
+     * does not move when the frames are ready.
+     */
+    public void reservePreviewSpace() {
+        if (mReservePreviewSpace) return;
+        mReservePreviewSpace = true;
+        requestLayout();
+    }
+
+    public boolean hasFilmstrip() {
+        return mFilmstrip != null;
+    }
+
+    // The height at the top of the view kept for the preview.
+    protected int getPreviewSpace() {
+        return (mFilmstrip == null && !mReservePreviewSpace)
+                ? 0 : mPreviewHeight + mPreviewMargin;
+    }
+
+    // Draws the frame at the time above the bar, centered on x.
+    protected void drawPreview(Canvas canvas, int x, int time) {
+        if (mFilmstrip == null) return;
+        mFilmstrip.getFrameRect(time, mPreviewSource);
+        int width = mPreviewHeight * mFilmstrip.getFrameWidth() / mFilmstrip.getFrameHeight();
+        int left = Utils.clamp(x - width / 2, getPaddingLeft(),
+                Math.max(getPaddingLeft(), getWidth() - getPaddingRight() - width));
+        mPreviewTarget.set(left, 0, left + width, mPreviewHeight);
+        canvas.drawBitmap(mFilmstrip.getBitmap(), mPreviewSource, mPreviewTarget, mPreviewPaint);
     }
 
     /**
@@ -201,17 +259,19 @@ public class TimeBar extends View {
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        int top = getPreviewSpace();
         int w = r - l;
-        int h = b - t;
+        int h = b - t - top;
         if (!mShowTimes && !mShowScrubber) {
-            mProgressBar.set(0, 0, w, h);
+            mProgressBar.set(0, top, w, top + h);
         } else {
             int margin = mScrubber.getWidth() / 3;
             if (mShowTimes) {
                 margin += mTimeBounds.width();
             }
             margin = mLayoutExt.getProgressMargin(margin);
-            int progressY = (h + mScrubberPadding) / 2 + mLayoutExt.getProgressOffset(mTimeBounds);
+            int progressY = top + (h + mScrubberPadding) / 2
+                    + mLayoutExt.getProgressOffset(mTimeBounds);
             mScrubberTop = progressY - mScrubber.getHeight() / 2 + 1;
             mProgressBar.set(
                     getPaddingLeft() + margin, progressY,
@@ -231,19 +291,22 @@ public class TimeBar extends View {
         // draw scrubber and timers
         if (mShowScrubber) {
             canvas.drawBitmap(mScrubber, mScrubberLeft, mScrubberTop, null);
+            if (mScrubbing) {
+                drawPreview(canvas, mScrubberLeft + mScrubber.getWidth() / 2, mCurrentTime);
+            }
         }
         if (mShowTimes) {
+            int textY = getPreviewSpace() + mTimeBounds.height() + mVPaddingInPx / 2
+                    + mScrubberPadding + 1 + mLayoutExt.getTimeOffset();
             canvas.drawText(
                     stringForTime(mCurrentTime),
                     mTimeBounds.width() / 2 + getPaddingLeft(),
-                    mTimeBounds.height() + mVPaddingInPx / 2 + mScrubberPadding + 1
-                            + mLayoutExt.getTimeOffset(),
+                    textY,
                     mTimeTextPaint);
             canvas.drawText(
                     stringForTime(mTotalTime),
                     getWidth() - getPaddingRight() - mTimeBounds.width() / 2,
-                    mTimeBounds.height() + mVPaddingInPx / 2 + mScrubberPadding + 1
-                            + mLayoutExt.getTimeOffset(),
+                    textY,
                     mTimeTextPaint);
         }
         mInfoExt.draw(canvas, mLayoutExt.getInfoBounds(this, mTimeBounds));
@@ -263,6 +326,8 @@ public class TimeBar extends View {
 
             switch (event.getAction()) {
                 case MotionEvent.ACTION_DOWN: {
+                    // Leave the touches over the preview space to the video.
+                    if (y < getPreviewSpace()) return false;
                     mScrubberCorrection = inScrubber(x, y)
                             ? x - mScrubberLeft
                             : mScrubber.getWidth() / 2;
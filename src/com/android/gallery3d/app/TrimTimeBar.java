@@ -165,16 +165,17 @@ public class TrimTimeBar extends TimeBar {
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        int top = getPreviewSpace();
         int w = r - l;
-        int h = b - t;
+        int h = b - t - top;
         if (!mShowTimes && !mShowScrubber) {
-            mProgressBar.set(0, 0, w, h);
+            mProgressBar.set(0, top, w, top + h);
         } else {
             int margin = mScrubber.getWidth() / 3;
             if (mShowTimes) {
                 margin += mTimeBounds.width();
             }
-            int progressY = h / 4;
+            int progressY = top + h / 4;
             int scrubberY = progressY - mScrubber.getHeight() / 2 + 1;
             mScrubberTop = scrubberY;
             mTrimStartScrubberTop = progressY;
@@ -212,6 +213,24 @@ public class TrimTimeBar extends TimeBar {
                     mTrimStartScrubberTop, null);
             canvas.drawBitmap(mTrimEndScrubber, mTrimEndScrubberLeft,
                     mTrimEndScrubberTop, null);
+            if (mScrubbing) drawPressedThumbPreview(canvas);
+        }
+    }
+
+    private void drawPressedThumbPreview(Canvas canvas) {
+        switch (mPressedThumb) {
+            case SCRUBBER_CURRENT:
+                drawPreview(canvas, mScrubberLeft + mScrubber.getWidth() / 2,
+                        mCurrentTime);
+                break;
+            case SCRUBBER_START:
+                drawPreview(canvas, mTrimStartScrubberLeft + trimStartScrubberTipOffset(),
+                        mTrimStartTime);
+                break;
+            case SCRUBBER_END:
+                drawPreview(canvas, mTrimEndScrubberLeft + trimEndScrubberTipOffset(),
+                        mTrimEndTime);
+                break;
         }
     }
 
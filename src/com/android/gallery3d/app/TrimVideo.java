@@ -20,6 +20,7 @@ import android.app.ActionBar;
 import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.media.MediaPlayer;
 import android.net.Uri;
@@ -34,6 +35,9 @@ import android.widget.Toast;
 import android.widget.VideoView;
 
 import com.android.gallery3d.R;
+import com.android.gallery3d.common.ApiHelper;
+import com.android.gallery3d.util.Future;
+import com.android.gallery3d.util.FutureListener;
 import com.android.gallery3d.util.SaveVideoFileInfo;
 import com.android.gallery3d.util.SaveVideoFileUtils;
 
@@ -67,6 +71,45 @@ public class TrimVideo extends Activity implements
     private String mSrcVideoPath = null;
     private static final String TIME_STAMP_NAME = "'TRIM'_yyyyMMdd_HHmmss";
     private SaveVideoFileInfo mDstFileInfo = null;
+    private volatile boolean mTrimCancelled;
+    private Future<VideoFilmstrip> mFilmstripTask;
+
+    private final VideoRemuxer.Listener mTrimListener = new VideoRemuxer.Listener() {
+        @Override
+        public void onProgress(final long bytesWritten, final long bytesTotal) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mProgress != null && bytesTotal > 0) {
+                        mProgress.setProgress((int) (bytesWritten * 100 / bytesTotal));
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mTrimCancelled;
+        }
+    };
+
+    private final FutureListener<VideoFilmstrip> mFilmstripListener =
+            new FutureListener<VideoFilmstrip>() {
+        @Override
+        public void onFutureDone(Future<VideoFilmstrip> future) {
+            mHandler.post(mFilmstripUpdater);
+        }
+    };
+
+    // Also posted on resume, as pausing removes the pending callbacks.
+    private final Runnable mFilmstripUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (mFilmstripTask == null || !mFilmstripTask.isDone()) return;
+            VideoFilmstrip filmstrip = mFilmstripTask.get();
+            if (filmstrip != null) mController.setFilmstrip(filmstrip);
+        }
+    };
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -109,6 +152,13 @@ public class TrimVideo extends Activity implements
         mVideoView.setOnCompletionListener(this);
         mVideoView.setVideoURI(mUri);
 
+        if (mSrcVideoPath != null) {
+            mController.reserveFilmstripSpace();
+            mFilmstripTask = ((GalleryApp) getApplication()).getThreadPool().submit(
+                    VideoFilmstrip.requestFilmstrip(mContext, mSrcVideoPath),
+                    mFilmstripListener);
+        }
+
         playVideo();
     }
 
@@ -121,6 +171,7 @@ public class TrimVideo extends Activity implements
             mHasPaused = false;
         }
         mHandler.post(mProgressChecker);
+        mHandler.post(mFilmstripUpdater);
     }
 
     @Override
@@ -143,6 +194,10 @@ public class TrimVideo extends Activity implements
 
     @Override
     public void onDestroy() {
+        if (mFilmstripTask != null) {
+            mFilmstripTask.cancel();
+            mFilmstripTask = null;
+        }
         mVideoView.stopPlayback();
         super.onDestroy();
     }
@@ -235,6 +290,7 @@ public class TrimVideo extends Activity implements
                 getContentResolver(), mUri, getString(R.string.folder_download));
         final File mSrcFile = new File(mSrcVideoPath);
 
+        mTrimCancelled = false;
         showProgressDialog();
 
         new Thread(new Runnable() {
@@ -242,8 +298,12 @@ public class TrimVideo extends Activity implements
             public void run() {
                 boolean hasError = false;
                 try {
-                    VideoUtils.startTrim(mSrcFile, mDstFileInfo.mFile,
-                            mTrimStartTime, mTrimEndTime);
+                    if (!VideoUtils.startTrim(mSrcFile, mDstFileInfo.mFile,
+                            mTrimStartTime, mTrimEndTime, mTrimListener)) {
+                        // Cancelled, the dialog is already dismissed.
+                        mDstFileInfo.mFile.delete();
+                        return;
+                    }
                     // Update the database for adding a new video file.
                     SaveVideoFileUtils.insertContent(mDstFileInfo,
                             getContentResolver(), mUri);
@@ -303,7 +363,20 @@ public class TrimVideo extends Activity implements
         mProgress = new ProgressDialog(this);
         mProgress.setTitle(getString(R.string.trimming));
         mProgress.setMessage(getString(R.string.please_wait));
-        // TODO: make this cancelable.
+        if (ApiHelper.HAS_MEDIA_MUXER) {
+            mProgress.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mProgress.setProgressNumberFormat(null);
+            mProgress.setMax(100);
+            // Only the remuxing with MediaMuxer can be cancelled.
+            mProgress.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.cancel),
+                    new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialog, int which) {
+                            mTrimCancelled = true;
+                            mProgress = null;
+                        }
+                    });
+        }
         mProgress.setCancelable(false);
         mProgress.setCanceledOnTouchOutside(false);
         mProgress.show();
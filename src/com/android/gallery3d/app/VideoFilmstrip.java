@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.util.Log;
+
+import com.android.gallery3d.common.BitmapUtils;
+import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.util.CacheManager;
+import com.android.gallery3d.util.GalleryUtils;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A strip of low resolution frames of a video, sampled at regular times, which
+ * the time bars draw to preview the position while scrubbing.
+ *
+ * The frames are the sync frames nearest to the sample times, so no frame is
+ * decoded from a sync frame on. They are put side by side in one bitmap, which
+ * is kept in a disk cache keyed by the path and the modification time of the
+ * video.
+ */
+public class VideoFilmstrip {
+    private static final String TAG = "VideoFilmstrip";
+
+    private static final int FRAME_COUNT = 20;
+    private static final int FRAME_HEIGHT = 96;
+
+    private static final String CACHE_FILE = "filmstrip";
+    private static final int CACHE_MAX_ENTRIES = 100;
+    private static final int CACHE_MAX_BYTES = 10 * 1024 * 1024;
+    private static final int CACHE_VERSION = 1;
+    private static final int HEADER_LENGTH = 8; // frame count and duration
+
+    private final Bitmap mStrip;
+    private final int mFrameCount;
+    private final int mDuration;
+
+    private VideoFilmstrip(Bitmap strip, int frameCount, int duration) {
+        mStrip = strip;
+        mFrameCount = frameCount;
+        mDuration = duration;
+    }
+
+    public Bitmap getBitmap() {
+        return mStrip;
+    }
+
+    public int getFrameWidth() {
+        return mStrip.getWidth() / mFrameCount;
+    }
+
+    public int getFrameHeight() {
+        return mStrip.getHeight();
+    }
+
+    /**
+     * Sets the rectangle of the strip holding the frame nearest to the time.
+     *
+     * @param time the time in milliseconds.
+     */
+    public void getFrameRect(int time, Rect rect) {
+        int index = (mDuration <= 0) ? 0
+                : (int) ((long) time * mFrameCount / mDuration);
+        index = Utils.clamp(index, 0, mFrameCount - 1);
+        int width = getFrameWidth();
+        rect.set(index * width, 0, (index + 1) * width, mStrip.getHeight());
+    }
+
+    /**
+     * Returns a job which gives the filmstrip of the video from the cache, or
+     * extracts it and adds it to the cache. The job gives null if the frames
+     * cannot be extracted.
+     */
+    public static Job<VideoFilmstrip> requestFilmstrip(
+            final Context context, final String filePath) {
+        return new Job<VideoFilmstrip>() {
+            @Override
+            public VideoFilmstrip run(JobContext jc) {
+                byte[] key = GalleryUtils.getBytes(
+                        filePath + "+" + new File(filePath).lastModified());
+                BlobCache cache = CacheManager.getCache(context, CACHE_FILE,
+                        CACHE_MAX_ENTRIES, CACHE_MAX_BYTES, CACHE_VERSION);
+
+                VideoFilmstrip filmstrip = lookup(cache, key);
+                if (filmstrip != null || jc.isCancelled()) return filmstrip;
+
+                filmstrip = extract(jc, filePath);
+                if (filmstrip == null || jc.isCancelled()) return filmstrip;
+                insert(cache, key, filmstrip);
+                return filmstrip;
+            }
+        };
+    }
+
+    private static VideoFilmstrip extract(JobContext jc, String filePath) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        Bitmap strip = null;
+        try {
+            retriever.setDataSource(filePath);
+            String durationString = retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_DURATION);
+            int duration = (durationString == null) ? 0 : Integer.parseInt(durationString);
+            if (duration <= 0) return null;
+
+            Canvas canvas = null;
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            Rect target = new Rect();
+            int frameWidth = 0;
+            for (int i = 0; i < FRAME_COUNT; i++) {
+                if (jc.isCancelled()) return null;
+                // Sample the middle of the part of the video the frame shows.
+                long timeUs = (2L * i + 1) * duration * 1000 / (2 * FRAME_COUNT);
+                Bitmap frame = retriever.getFrameAtTime(
+                        timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+                if (frame == null) continue;
+                if (strip == null) {
+                    frameWidth = Math.max(1,
+                            frame.getWidth() * FRAME_HEIGHT / frame.getHeight());
+                    strip = Bitmap.createBitmap(frameWidth * FRAME_COUNT,
+                            FRAME_HEIGHT, Bitmap.Config.RGB_565);
+                    canvas = new Canvas(strip);
+                }
+                target.set(i * frameWidth, 0, (i + 1) * frameWidth, FRAME_HEIGHT);
+                canvas.drawBitmap(frame, null, target, paint);
+                frame.recycle();
+            }
+            if (strip == null) return null;
+            return new VideoFilmstrip(strip, FRAME_COUNT, duration);
+        } catch (RuntimeException e) {
+            // Assume this is a corrupt video file.
+            Log.w(TAG, "cannot extract the frames of " + filePath, e);
+            if (strip != null) strip.recycle();
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    // The entry is the key, the header, and the strip compressed as JPEG.
+    private static VideoFilmstrip lookup(BlobCache cache, byte[] key) {
+        if (cache == null) return null;
+        byte[] data;
+        try {
+            synchronized (cache) {
+                data = cache.lookup(Utils.crc64Long(key));
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (data == null || !Utils.startsWith(data, key)
+                || data.length <= key.length + HEADER_LENGTH) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(data, key.length, HEADER_LENGTH);
+        int frameCount = header.getInt();
+        int duration = header.getInt();
+        int offset = key.length + HEADER_LENGTH;
+        Bitmap strip = BitmapFactory.decodeByteArray(data, offset, data.length - offset);
+        if (strip == null || frameCount <= 0) return null;
+        return new VideoFilmstrip(strip, frameCount, duration);
+    }
+
+    private static void insert(BlobCache cache, byte[] key, VideoFilmstrip filmstrip) {
+        if (cache == null) return;
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bos);
+            out.write(key);
+            out.writeInt(filmstrip.mFrameCount);
+            out.writeInt(filmstrip.mDuration);
+            out.write(BitmapUtils.compressToBytes(filmstrip.mStrip));
+            out.flush();
+            synchronized (cache) {
+                cache.insert(Utils.crc64Long(key), bos.toByteArray());
+            }
+        } catch (IOException e) {
+            // ignore.
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.app;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec.BufferInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import com.android.gallery3d.common.ApiHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// VideoRemuxer copies the samples of a video file into a new MPEG-4 file
+// without decoding them. It can drop the audio or the video track, and keep
+// only a time range of the source.
+//
+// The samples are read by MediaExtractor on a reader thread into a few direct
+// buffers, which are reused, and written by MediaMuxer on the calling thread,
+// so the reads and the writes overlap. The progress is the number of bytes
+// written, out of the bytes expected from the file size and the time range.
+@TargetApi(ApiHelper.VERSION_CODES.JELLY_BEAN_MR2)
+public class VideoRemuxer {
+    private static final String TAG = "VideoRemuxer";
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 * 1024 * 1024;
+    private static final int BUFFER_COUNT = 4;
+    // The progress is reported each time this part of the total is written.
+    private static final int PROGRESS_STEPS = 100;
+
+    public interface Listener {
+        // Called on the remuxing thread.
+        public void onProgress(long bytesWritten, long bytesTotal);
+
+        // Polled while remuxing, to stop as soon as possible.
+        public boolean isCancelled();
+    }
+
+    private static class Sample {
+        public final ByteBuffer buffer;
+        public final BufferInfo info = new BufferInfo();
+        public int track; // the track in the muxer
+
+        public Sample(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    // Put in the queue of read samples after the last one.
+    private static final Sample END_OF_STREAM = new Sample(null);
+
+    private final String mSrcPath;
+    private final String mDstPath;
+    private final long mStartUs;
+    private final long mEndUs;
+    private final boolean mUseAudio;
+    private final boolean mUseVideo;
+    private final Listener mListener;
+
+    private final ArrayBlockingQueue<Sample> mFreeSamples =
+            new ArrayBlockingQueue<Sample>(BUFFER_COUNT);
+    private final ArrayBlockingQueue<Sample> mReadSamples =
+            new ArrayBlockingQueue<Sample>(BUFFER_COUNT + 1);
+    private MediaExtractor mExtractor;
+    // The track in the muxer for each track of the extractor, or -1.
+    private int[] mTrackMap;
+    private long mDurationUs;
+    private volatile RuntimeException mReadError;
+
+    /**
+     * @param srcPath the path of source video file.
+     * @param dstPath the path of destination video file.
+     * @param startMs starting time in milliseconds for trimming. Set to
+     *            negative if starting from beginning.
+     * @param endMs end time for trimming in milliseconds. Set to negative if
+     *            no trimming at the end.
+     * @param useAudio true if keep the audio track from the source.
+     * @param useVideo true if keep the video track from the source.
+     * @param listener the listener of the progress, or null.
+     */
+    public VideoRemuxer(String srcPath, String dstPath, int startMs, int endMs,
+            boolean useAudio, boolean useVideo, Listener listener) {
+        mSrcPath = srcPath;
+        mDstPath = dstPath;
+        mStartUs = startMs > 0 ? startMs * 1000L : 0;
+        mEndUs = endMs > 0 ? endMs * 1000L : -1;
+        mUseAudio = useAudio;
+        mUseVideo = useVideo;
+        mListener = listener;
+    }
+
+    /**
+     * Writes the destination file. Returns false if it is cancelled, the
+     * destination file is incomplete then.
+     */
+    public boolean run() throws IOException {
+        mExtractor = new MediaExtractor();
+        MediaMuxer muxer = null;
+        Thread reader = null;
+        try {
+            mExtractor.setDataSource(mSrcPath);
+            muxer = new MediaMuxer(mDstPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            int bufferSize = addTracks(muxer);
+            setOrientationHint(muxer);
+            if (mStartUs > 0) {
+                mExtractor.seekTo(mStartUs, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            }
+            long bytesTotal = getExpectedBytes();
+
+            for (int i = 0; i < BUFFER_COUNT; i++) {
+                mFreeSamples.add(new Sample(ByteBuffer.allocateDirect(bufferSize)));
+            }
+            reader = new Thread(mReadSamplesTask, TAG);
+            reader.start();
+
+            muxer.start();
+            boolean completed = writeSamples(muxer, bytesTotal);
+            if (!completed) return false;
+            muxer.stop();
+            if (mReadError != null) throw mReadError;
+            return true;
+        } catch (IllegalStateException e) {
+            // Swallow the exception due to malformed source.
+            Log.w(TAG, "The source video file is malformed", e);
+            return true;
+        } finally {
+            // The extractor is used by the reader until it ends.
+            if (reader != null) {
+                reader.interrupt();
+                joinUninterruptibly(reader);
+            }
+            mExtractor.release();
+            if (muxer != null) releaseMuxer(muxer);
+            mFreeSamples.clear();
+            mReadSamples.clear();
+        }
+    }
+
+    // release() throws if the muxer is started and not stopped, as when the
+    // remuxing is cancelled. That must not replace the result.
+    private static void releaseMuxer(MediaMuxer muxer) {
+        try {
+            muxer.release();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "fail to release the muxer", e);
+        }
+    }
+
+    private boolean isCancelled() {
+        return mListener != null && mListener.isCancelled();
+    }
+
+    // Selects the tracks to keep, and returns the size of the buffers needed
+    // for their samples.
+    private int addTracks(MediaMuxer muxer) {
+        int trackCount = mExtractor.getTrackCount();
+        mTrackMap = new int[trackCount];
+        Arrays.fill(mTrackMap, -1);
+        int bufferSize = -1;
+        for (int i = 0; i < trackCount; i++) {
+            MediaFormat format = mExtractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (!(mime.startsWith("audio/") && mUseAudio)
+                    && !(mime.startsWith("video/") && mUseVideo)) {
+                continue;
+            }
+            mExtractor.selectTrack(i);
+            mTrackMap[i] = muxer.addTrack(format);
+            if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                bufferSize = Math.max(bufferSize,
+                        format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE));
+            }
+            if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                mDurationUs = Math.max(mDurationUs,
+                        format.getLong(MediaFormat.KEY_DURATION));
+            }
+        }
+        return bufferSize < 0 ? DEFAULT_BUFFER_SIZE : bufferSize;
+    }
+
+    private void setOrientationHint(MediaMuxer muxer) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(mSrcPath);
+            String degreesString = retriever.extractMetadata(
+                    MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+            if (degreesString != null) {
+                int degrees = Integer.parseInt(degreesString);
+                if (degrees >= 0) {
+                    muxer.setOrientationHint(degrees);
+                }
+            }
+        } finally {
+            retriever.release();
+        }
+    }
+
+    // The part of the file in the time range, from where the extractor is.
+    private long getExpectedBytes() {
+        long bytes = new File(mSrcPath).length();
+        if (mDurationUs <= 0) return bytes;
+        long startUs = Math.max(0, mExtractor.getSampleTime());
+        long endUs = (mEndUs < 0) ? mDurationUs : Math.min(mEndUs, mDurationUs);
+        if (endUs <= startUs) return bytes;
+        return (long) ((double) bytes * (endUs - startUs) / mDurationUs);
+    }
+
+    // Writes the samples given by the reader. Returns false if cancelled.
+    private boolean writeSamples(MediaMuxer muxer, long bytesTotal) {
+        long bytesWritten = 0;
+        long nextReport = 0;
+        long reportStep = Math.max(1, bytesTotal / PROGRESS_STEPS);
+        try {
+            while (true) {
+                if (isCancelled()) return false;
+                Sample sample = mReadSamples.take();
+                if (sample == END_OF_STREAM) break;
+                muxer.writeSampleData(sample.track, sample.buffer, sample.info);
+                bytesWritten += sample.info.size;
+                mFreeSamples.add(sample);
+                if (mListener != null && bytesWritten >= nextReport) {
+                    mListener.onProgress(bytesWritten, Math.max(bytesWritten, bytesTotal));
+                    nextReport = bytesWritten + reportStep;
+                }
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        // Nothing is written if no sample is in the time range.
+        if (mListener != null && bytesWritten > 0) {
+            mListener.onProgress(bytesWritten, bytesWritten);
+        }
+        return true;
+    }
+
+    // Reads the samples in the time range until the end of the source, or
+    // until it is interrupted.
+    private final Runnable mReadSamplesTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                while (!isCancelled()) {
+                    Sample sample = mFreeSamples.take();
+                    sample.buffer.clear();
+                    int size = mExtractor.readSampleData(sample.buffer, 0);
+                    if (size < 0) {
+                        Log.d(TAG, "Saw input EOS.");
+                        break;
+                    }
+                    long timeUs = mExtractor.getSampleTime();
+                    if (mEndUs >= 0 && timeUs > mEndUs) {
+                        Log.d(TAG, "The current sample is over the trim end time.");
+                        break;
+                    }
+                    sample.info.set(0, size, timeUs, mExtractor.getSampleFlags());
+                    sample.track = mTrackMap[mExtractor.getSampleTrackIndex()];
+                    mReadSamples.add(sample);
+                    mExtractor.advance();
+                }
+            } catch (InterruptedException e) {
+                // The writer has stopped.
+            } catch (RuntimeException e) {
+                mReadError = e;
+            } finally {
+                // There is always room for it, the queue can hold all the
+                // samples and this one.
+                mReadSamples.add(END_OF_STREAM);
+            }
+        }
+    };
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
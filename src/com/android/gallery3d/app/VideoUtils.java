@@ -19,13 +19,6 @@
 
 package com.android.gallery3d.app;
 
-import android.media.MediaCodec.BufferInfo;
-import android.media.MediaExtractor;
-import android.media.MediaFormat;
-import android.media.MediaMetadataRetriever;
-import android.media.MediaMuxer;
-import android.util.Log;
-
 import com.android.gallery3d.common.ApiHelper;
 import com.android.gallery3d.util.SaveVideoFileInfo;
 import com.coremedia.iso.IsoFile;
@@ -41,40 +34,43 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
 public class VideoUtils {
-    private static final String LOGTAG = "VideoUtils";
-    private static final int DEFAULT_BUFFER_SIZE = 1 * 1024 * 1024;
-
     /**
-     * Remove the sound track.
+     * Remove the sound track. Returns false if it is cancelled.
+     *
+     * @param listener the listener of the progress, or null. The progress is
+     *            only reported when MediaMuxer is used.
      */
-    public static void startMute(String filePath, SaveVideoFileInfo dstFileInfo)
-            throws IOException {
+    public static boolean startMute(String filePath, SaveVideoFileInfo dstFileInfo,
+            VideoRemuxer.Listener listener) throws IOException {
         if (ApiHelper.HAS_MEDIA_MUXER) {
-            genVideoUsingMuxer(filePath, dstFileInfo.mFile.getPath(), -1, -1,
-                    false, true);
+            return new VideoRemuxer(filePath, dstFileInfo.mFile.getPath(), -1, -1,
+                    false, true, listener).run();
         } else {
             startMuteUsingMp4Parser(filePath, dstFileInfo);
+            return true;
         }
     }
 
     /**
-     * Shortens/Crops tracks
+     * Shortens/Crops tracks. Returns false if it is cancelled.
+     *
+     * @param listener the listener of the progress, or null. The progress is
+     *            only reported when MediaMuxer is used.
      */
-    public static void startTrim(File src, File dst, int startMs, int endMs)
-            throws IOException {
+    public static boolean startTrim(File src, File dst, int startMs, int endMs,
+            VideoRemuxer.Listener listener) throws IOException {
         if (ApiHelper.HAS_MEDIA_MUXER) {
-            genVideoUsingMuxer(src.getPath(), dst.getPath(), startMs, endMs,
-                    true, true);
+            return new VideoRemuxer(src.getPath(), dst.getPath(), startMs, endMs,
+                    true, true, listener).run();
         } else {
             trimUsingMp4Parser(src, dst, startMs, endMs);
+            return true;
         }
     }
 
@@ -113,120 +109,6 @@ public class VideoUtils {
         fos.close();
     }
 
-    /**
-     * @param srcPath the path of source video file.
-     * @param dstPath the path of destination video file.
-     * @param startMs starting time in milliseconds for trimming. Set to
-     *            negative if starting from beginning.
-     * @param endMs end time for trimming in milliseconds. Set to negative if
-     *            no trimming at the end.
-     * @param useAudio true if keep the audio track from the source.
-     * @param useVideo true if keep the video track from the source.
-     * @throws IOException
-     */
-    private static void genVideoUsingMuxer(String srcPath, String dstPath,
-            int startMs, int endMs, boolean useAudio, boolean useVideo)
-            throws IOException {
-        // Set up MediaExtractor to read from the source.
-        MediaExtractor extractor = new MediaExtractor();
-        extractor.setDataSource(srcPath);
-
-        int trackCount = extractor.getTrackCount();
-
-        // Set up MediaMuxer for the destination.
-        MediaMuxer muxer;
-        muxer = new MediaMuxer(dstPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-
-        // Set up the tracks and retrieve the max buffer size for selected
-        // tracks.
-        HashMap<Integer, Integer> indexMap = new HashMap<Integer,
-                Integer>(trackCount);
-        int bufferSize = -1;
-        for (int i = 0; i < trackCount; i++) {
-            MediaFormat format = extractor.getTrackFormat(i);
-            String mime = format.getString(MediaFormat.KEY_MIME);
-
-            boolean selectCurrentTrack = false;
-
-            if (mime.startsWith("audio/") && useAudio) {
-                selectCurrentTrack = true;
-            } else if (mime.startsWith("video/") && useVideo) {
-                selectCurrentTrack = true;
-            }
-
-            if (selectCurrentTrack) {
-                extractor.selectTrack(i);
-                int dstIndex = muxer.addTrack(format);
-                indexMap.put(i, dstIndex);
-                if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
-                    int newSize = format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
-                    bufferSize = newSize > bufferSize ? newSize : bufferSize;
-                }
-            }
-        }
-
-        if (bufferSize < 0) {
-            bufferSize = DEFAULT_BUFFER_SIZE;
-        }
-
-        // Set up the orientation and starting time for extractor.
-        MediaMetadataRetriever retrieverSrc = new MediaMetadataRetriever();
-        retrieverSrc.setDataSource(srcPath);
-        String degreesString = retrieverSrc.extractMetadata(
-                MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
-        if (degreesString != null) {
-            int degrees = Integer.parseInt(degreesString);
-            if (degrees >= 0) {
-                muxer.setOrientationHint(degrees);
-            }
-        }
-
-        if (startMs > 0) {
-            extractor.seekTo(startMs * 1000, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
-        }
-
-        // Copy the samples from MediaExtractor to MediaMuxer. We will loop
-        // for copying each sample and stop when we get to the end of the source
-        // file or exceed the end time of the trimming.
-        int offset = 0;
-        int trackIndex = -1;
-        ByteBuffer dstBuf = ByteBuffer.allocate(bufferSize);
-        BufferInfo bufferInfo = new BufferInfo();
-        try {
-            muxer.start();
-            while (true) {
-                bufferInfo.offset = offset;
-                bufferInfo.size = extractor.readSampleData(dstBuf, offset);
-                if (bufferInfo.size < 0) {
-                    Log.d(LOGTAG, "Saw input EOS.");
-                    bufferInfo.size = 0;
-                    break;
-                } else {
-                    bufferInfo.presentationTimeUs = extractor.getSampleTime();
-                    if (endMs > 0 && bufferInfo.presentationTimeUs > (endMs * 1000)) {
-                        Log.d(LOGTAG, "The current sample is over the trim end time.");
-                        break;
-                    } else {
-                        bufferInfo.flags = extractor.getSampleFlags();
-                        trackIndex = extractor.getSampleTrackIndex();
-
-                        muxer.writeSampleData(indexMap.get(trackIndex), dstBuf,
-                                bufferInfo);
-                        extractor.advance();
-                    }
-                }
-            }
-
-            muxer.stop();
-        } catch (IllegalStateException e) {
-            // Swallow the exception due to malformed source.
-            Log.w(LOGTAG, "The source video file is malformed");
-        } finally {
-            muxer.release();
-        }
-        return;
-    }
-
     private static void trimUsingMp4Parser(File src, File dst, int startMs, int endMs)
             throws FileNotFoundException, IOException {
         RandomAccessFile randomAccessFile = new RandomAccessFile(src, "r");
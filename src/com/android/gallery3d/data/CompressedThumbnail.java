@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.opengl.ETC1Util;
+import android.opengl.ETC1Util.ETC1Texture;
+
+import com.android.gallery3d.common.Utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// CompressedThumbnail is a thumbnail encoded as ETC1 blocks, which can be
+// given to glCompressedTexImage2D without being decoded.
+//
+// The image is padded to a power of 2 on each side, so it has the size of the
+// texture; width and height are the size of the thumbnail in it.
+public class CompressedThumbnail {
+    private static final String TAG = "CompressedThumbnail";
+
+    private static final int BYTES_PER_PIXEL = 2; // RGB_565
+
+    public final int width;
+    public final int height;
+    public final ETC1Texture texture;
+
+    private CompressedThumbnail(int width, int height, ETC1Texture texture) {
+        this.width = width;
+        this.height = height;
+        this.texture = texture;
+    }
+
+    public static CompressedThumbnail encode(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int textureWidth = Utils.nextPowerOf2(width);
+        int textureHeight = Utils.nextPowerOf2(height);
+
+        Bitmap padded = Bitmap.createBitmap(textureWidth, textureHeight, Config.RGB_565);
+        new Canvas(padded).drawBitmap(bitmap, 0, 0, null);
+        ByteBuffer pixels = ByteBuffer.allocateDirect(
+                textureWidth * textureHeight * BYTES_PER_PIXEL)
+                .order(ByteOrder.nativeOrder());
+        padded.copyPixelsToBuffer(pixels);
+        padded.recycle();
+        pixels.position(0);
+
+        ETC1Texture texture = ETC1Util.compressTexture(pixels, textureWidth,
+                textureHeight, BYTES_PER_PIXEL, textureWidth * BYTES_PER_PIXEL);
+        return new CompressedThumbnail(width, height, texture);
+    }
+
+    // The format is the size of the thumbnail followed by a PKM file.
+    public byte[] toBytes() {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(
+                texture.getData().capacity() + 64);
+        try {
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeShort(width);
+            out.writeShort(height);
+            out.flush();
+            ETC1Util.writeTexture(texture, bos);
+        } catch (IOException e) {
+            throw new AssertionError(e); // cannot happen on a byte array
+        }
+        return bos.toByteArray();
+    }
+
+    // Returns null if the data is not a valid compressed thumbnail.
+    public static CompressedThumbnail fromBytes(byte[] data, int offset, int length) {
+        try {
+            ByteArrayInputStream bis = new ByteArrayInputStream(data, offset, length);
+            DataInputStream in = new DataInputStream(bis);
+            int width = in.readUnsignedShort();
+            int height = in.readUnsignedShort();
+            ETC1Texture texture = ETC1Util.createTexture(bis);
+            if (width > texture.getWidth() || height > texture.getHeight()) return null;
+            return new CompressedThumbnail(width, height, texture);
+        } catch (IOException e) {
+            Log.w(TAG, "invalid data", e);
+            return null;
+        }
+    }
+}
@@ -253,7 +253,9 @@ public class DecodeUtils {
             int length, BitmapFactory.Options options) {
         if (options == null) options = new BitmapFactory.Options();
         if (options.inSampleSize < 1) options.inSampleSize = 1;
-        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        if (options.inPreferredConfig != Bitmap.Config.RGB_565) {
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        }
         options.inBitmap = (options.inSampleSize == 1)
                 ? findCachedBitmap(jc, data, offset, length, options) : null;
         try {
@@ -280,7 +282,9 @@ public class DecodeUtils {
             FileDescriptor fileDescriptor, Options options) {
         if (options == null) options = new BitmapFactory.Options();
         if (options.inSampleSize < 1) options.inSampleSize = 1;
-        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        if (options.inPreferredConfig != Bitmap.Config.RGB_565) {
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        }
         options.inBitmap = (options.inSampleSize == 1)
                 ? findCachedBitmap(jc, fileDescriptor, options) : null;
         try {
@@ -303,13 +307,15 @@ public class DecodeUtils {
     private static Bitmap findCachedBitmap(JobContext jc, byte[] data,
             int offset, int length, Options options) {
         decodeBounds(jc, data, offset, length, options);
-        return GalleryBitmapPool.getInstance().get(options.outWidth, options.outHeight);
+        return GalleryBitmapPool.getInstance().get(
+                options.outWidth, options.outHeight, options.inPreferredConfig);
     }
 
     private static Bitmap findCachedBitmap(JobContext jc, FileDescriptor fileDescriptor,
             Options options) {
         decodeBounds(jc, fileDescriptor, options);
-        return GalleryBitmapPool.getInstance().get(options.outWidth, options.outHeight);
+        return GalleryBitmapPool.getInstance().get(
+                options.outWidth, options.outHeight, options.inPreferredConfig);
     }
 
     public static Bitmap decodeBitmap(Resources res, int resId, int reqWidth, int reqHeight) {
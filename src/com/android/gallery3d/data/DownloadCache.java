@@ -20,12 +20,13 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.android.gallery3d.app.GalleryApp;
-import com.android.gallery3d.common.LruCache;
 import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.data.DownloadEntry.Columns;
+import com.android.gallery3d.util.CacheManager;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
 import com.android.gallery3d.util.ThreadPool;
@@ -35,48 +36,52 @@ import com.android.gallery3d.util.ThreadPool.JobContext;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class DownloadCache {
+public class DownloadCache implements CacheManager.BudgetedCache {
     private static final String TAG = "DownloadCache";
-    private static final int MAX_DELETE_COUNT = 16;
-    private static final int LRU_CAPACITY = 4;
+    // The most recently used files are not evicted, they may still be read
+    // by the users of their entries.
+    private static final int PROTECTED_COUNT = 4;
 
     private static final String TABLE_NAME = DownloadEntry.SCHEMA.getTableName();
 
-    private static final String QUERY_PROJECTION[] = {Columns.ID, Columns.DATA};
+    private static final String INDEX_PROJECTION[] = {
+            Columns.DATA, Columns.CONTENT_URL, Columns.CONTENT_SIZE, Columns.LAST_ACCESS};
+    private static final int INDEX_INDEX_DATA = 0;
+    private static final int INDEX_INDEX_CONTENT_URL = 1;
+    private static final int INDEX_INDEX_CONTENT_SIZE = 2;
+    private static final int INDEX_INDEX_LAST_ACCESS = 3;
+
     private static final String WHERE_HASH_AND_URL = String.format(
             "%s = ? AND %s = ?", Columns.HASH_CODE, Columns.CONTENT_URL);
-    private static final int QUERY_INDEX_ID = 0;
-    private static final int QUERY_INDEX_DATA = 1;
-
-    private static final String FREESPACE_PROJECTION[] = {
-            Columns.ID, Columns.DATA, Columns.CONTENT_URL, Columns.CONTENT_SIZE};
-    private static final String FREESPACE_ORDER_BY =
-            String.format("%s ASC", Columns.LAST_ACCESS);
-    private static final int FREESPACE_IDNEX_ID = 0;
-    private static final int FREESPACE_IDNEX_DATA = 1;
-    private static final int FREESPACE_INDEX_CONTENT_URL = 2;
-    private static final int FREESPACE_INDEX_CONTENT_SIZE = 3;
-
-    private static final String ID_WHERE = Columns.ID + " = ?";
-
-    private static final String SUM_PROJECTION[] =
-            {String.format("sum(%s)", Columns.CONTENT_SIZE)};
-    private static final int SUM_INDEX_SUM = 0;
-
-    private final LruCache<String, Entry> mEntryMap =
-            new LruCache<String, Entry>(LRU_CAPACITY);
+
+    // The entries of all the cached files, loaded from the database when the
+    // cache is first used. The map locks its segments separately, so the
+    // lookups of the parallel downloads do not contend.
+    private final ConcurrentHashMap<String, Entry> mEntryMap =
+            new ConcurrentHashMap<String, Entry>();
     private final HashMap<String, DownloadTask> mTaskMap =
             new HashMap<String, DownloadTask>();
     private final File mRoot;
     private final GalleryApp mApplication;
     private final SQLiteDatabase mDatabase;
-    private final long mCapacity;
+    private final DatabaseWriter mWriter = new DatabaseWriter();
+    // Set by the CacheManager, which shares the disk budget among the caches.
+    private volatile long mCapacity;
 
-    private long mTotalBytes = 0;
-    private boolean mInitialized = false;
+    private final AtomicLong mTotalBytes = new AtomicLong();
+    private final AtomicLong mLookupCount = new AtomicLong();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicBoolean mEvicting = new AtomicBoolean(false);
+    private volatile boolean mInitialized = false;
 
     public DownloadCache(GalleryApp application, File root, long capacity) {
         mRoot = Utils.checkNotNull(root);
@@ -86,51 +91,27 @@ public class DownloadCache {
                 .getWritableDatabase();
     }
 
-    private Entry findEntryInDatabase(String stringUrl) {
-        long hash = Utils.crc64Long(stringUrl);
-        String whereArgs[] = {String.valueOf(hash), stringUrl};
-        Cursor cursor = mDatabase.query(TABLE_NAME, QUERY_PROJECTION,
-                WHERE_HASH_AND_URL, whereArgs, null, null, null);
-        try {
-            if (cursor.moveToNext()) {
-                File file = new File(cursor.getString(QUERY_INDEX_DATA));
-                long id = cursor.getInt(QUERY_INDEX_ID);
-                Entry entry = null;
-                synchronized (mEntryMap) {
-                    entry = mEntryMap.get(stringUrl);
-                    if (entry == null) {
-                        entry = new Entry(id, file);
-                        mEntryMap.put(stringUrl, entry);
-                    }
-                }
-                return entry;
-            }
-        } finally {
-            cursor.close();
-        }
-        return null;
-    }
-
     public Entry download(JobContext jc, URL url) {
         if (!mInitialized) initialize();
 
         String stringUrl = url.toString();
-
-        // First find in the entry-pool
-        synchronized (mEntryMap) {
-            Entry entry = mEntryMap.get(stringUrl);
-            if (entry != null) {
-                updateLastAccess(entry.mId);
-                return entry;
-            }
+        mLookupCount.incrementAndGet();
+
+        // First find it in the index
+        Entry entry = mEntryMap.get(stringUrl);
+        if (entry != null) {
+            mHitCount.incrementAndGet();
+            updateLastAccess(entry);
+            return entry;
         }
 
-        // Then, find it in database
         TaskProxy proxy = new TaskProxy();
         synchronized (mTaskMap) {
-            Entry entry = findEntryInDatabase(stringUrl);
+            // Find it again, the download may have just been completed
+            entry = mEntryMap.get(stringUrl);
             if (entry != null) {
-                updateLastAccess(entry.mId);
+                mHitCount.incrementAndGet();
+                updateLastAccess(entry);
                 return entry;
             }
 
@@ -148,76 +129,225 @@ public class DownloadCache {
         return proxy.get(jc);
     }
 
-    private void updateLastAccess(long id) {
-        ContentValues values = new ContentValues();
-        values.put(Columns.LAST_ACCESS, System.currentTimeMillis());
-        mDatabase.update(TABLE_NAME, values,
-                ID_WHERE, new String[] {String.valueOf(id)});
+    @Override
+    public long getUsedBytes() {
+        return mTotalBytes.get();
     }
 
-    private synchronized void freeSomeSpaceIfNeed(int maxDeleteFileCount) {
-        if (mTotalBytes <= mCapacity) return;
-        Cursor cursor = mDatabase.query(TABLE_NAME,
-                FREESPACE_PROJECTION, null, null, null, null, FREESPACE_ORDER_BY);
-        try {
-            while (maxDeleteFileCount > 0
-                    && mTotalBytes > mCapacity && cursor.moveToNext()) {
-                long id = cursor.getLong(FREESPACE_IDNEX_ID);
-                String url = cursor.getString(FREESPACE_INDEX_CONTENT_URL);
-                long size = cursor.getLong(FREESPACE_INDEX_CONTENT_SIZE);
-                String path = cursor.getString(FREESPACE_IDNEX_DATA);
-                boolean containsKey;
-                synchronized (mEntryMap) {
-                    containsKey = mEntryMap.containsKey(url);
-                }
-                if (!containsKey) {
-                    --maxDeleteFileCount;
-                    mTotalBytes -= size;
-                    new File(path).delete();
-                    mDatabase.delete(TABLE_NAME,
-                            ID_WHERE, new String[]{String.valueOf(id)});
-                } else {
-                    // skip delete, since it is being used
+    @Override
+    public long getLookupCount() {
+        return mLookupCount.get();
+    }
+
+    @Override
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    @Override
+    public void setCapacity(long capacity) {
+        mCapacity = capacity;
+        if (mInitialized) freeSomeSpaceIfNeed();
+    }
+
+    private void updateLastAccess(Entry entry) {
+        entry.mLastAccess = System.currentTimeMillis();
+        mWriter.updateLastAccess(entry.mUrl, entry.mLastAccess);
+    }
+
+    private void addEntry(Entry entry) {
+        Entry old = mEntryMap.put(entry.mUrl, entry);
+        mTotalBytes.addAndGet(entry.mSize);
+        mWriter.insert(entry);
+        if (old != null) {
+            // The url has been downloaded again after a cancelled download.
+            mTotalBytes.addAndGet(-old.mSize);
+            if (!old.cacheFile.equals(entry.cacheFile)) old.cacheFile.delete();
+        }
+        freeSomeSpaceIfNeed();
+    }
+
+    // The files are deleted by a background job, not by the downloads.
+    private void freeSomeSpaceIfNeed() {
+        if (mTotalBytes.get() <= mCapacity) return;
+        if (!mEvicting.compareAndSet(false, true)) return;
+        mApplication.getThreadPool().submit(new Job<Void>() {
+            @Override
+            public Void run(JobContext jc) {
+                try {
+                    evict();
+                } finally {
+                    mEvicting.set(false);
                 }
+                return null;
             }
-        } finally {
-            cursor.close();
-        }
+        });
     }
 
-    private synchronized long insertEntry(String url, File file) {
-        long size = file.length();
-        mTotalBytes += size;
-
-        ContentValues values = new ContentValues();
-        String hashCode = String.valueOf(Utils.crc64Long(url));
-        values.put(Columns.DATA, file.getAbsolutePath());
-        values.put(Columns.HASH_CODE, hashCode);
-        values.put(Columns.CONTENT_URL, url);
-        values.put(Columns.CONTENT_SIZE, size);
-        values.put(Columns.LAST_UPDATED, System.currentTimeMillis());
-        return mDatabase.insert(TABLE_NAME, "", values);
+    // Deletes the least recently used files until the cache fits in its
+    // capacity.
+    private void evict() {
+        ArrayList<Candidate> candidates = new ArrayList<Candidate>(mEntryMap.size());
+        for (Entry entry : mEntryMap.values()) {
+            candidates.add(new Candidate(entry));
+        }
+        Collections.sort(candidates);
+        for (int i = 0, n = candidates.size() - PROTECTED_COUNT;
+                i < n && mTotalBytes.get() > mCapacity; ++i) {
+            Candidate candidate = candidates.get(i);
+            Entry entry = candidate.entry;
+            // Skip the entries used since they were sorted.
+            if (entry.mLastAccess != candidate.lastAccess) continue;
+            if (!mEntryMap.remove(entry.mUrl, entry)) continue;
+            mTotalBytes.addAndGet(-entry.mSize);
+            entry.cacheFile.delete();
+            mWriter.delete(entry.mUrl);
+        }
     }
 
     private synchronized void initialize() {
         if (mInitialized) return;
-        mInitialized = true;
         if (!mRoot.isDirectory()) mRoot.mkdirs();
         if (!mRoot.isDirectory()) {
             throw new RuntimeException("cannot create " + mRoot.getAbsolutePath());
         }
 
         Cursor cursor = mDatabase.query(
-                TABLE_NAME, SUM_PROJECTION, null, null, null, null, null);
-        mTotalBytes = 0;
+                TABLE_NAME, INDEX_PROJECTION, null, null, null, null, null);
+        long totalBytes = 0;
         try {
-            if (cursor.moveToNext()) {
-                mTotalBytes = cursor.getLong(SUM_INDEX_SUM);
+            while (cursor.moveToNext()) {
+                Entry entry = new Entry(cursor.getString(INDEX_INDEX_CONTENT_URL),
+                        new File(cursor.getString(INDEX_INDEX_DATA)),
+                        cursor.getLong(INDEX_INDEX_CONTENT_SIZE),
+                        cursor.getLong(INDEX_INDEX_LAST_ACCESS));
+                mEntryMap.put(entry.mUrl, entry);
+                totalBytes += entry.mSize;
             }
         } finally {
             cursor.close();
         }
-        if (mTotalBytes > mCapacity) freeSomeSpaceIfNeed(MAX_DELETE_COUNT);
+        mTotalBytes.set(totalBytes);
+        mInitialized = true;
+        freeSomeSpaceIfNeed();
+    }
+
+    private static String[] getWhereArgs(String url) {
+        return new String[] {String.valueOf(Utils.crc64Long(url)), url};
+    }
+
+    // DatabaseWriter keeps the changes of the entries and writes them to the
+    // database in a background job, in one transaction. The changes of an url
+    // not written yet are merged.
+    private class DatabaseWriter implements Job<Void> {
+        private HashSet<String> mDeletes = new HashSet<String>();
+        private HashMap<String, ContentValues> mInserts =
+                new HashMap<String, ContentValues>();
+        private HashMap<String, Long> mAccesses = new HashMap<String, Long>();
+        private boolean mScheduled = false;
+
+        public synchronized void insert(Entry entry) {
+            ContentValues values = new ContentValues();
+            values.put(Columns.DATA, entry.cacheFile.getAbsolutePath());
+            values.put(Columns.HASH_CODE, String.valueOf(Utils.crc64Long(entry.mUrl)));
+            values.put(Columns.CONTENT_URL, entry.mUrl);
+            values.put(Columns.CONTENT_SIZE, entry.mSize);
+            values.put(Columns.LAST_ACCESS, entry.mLastAccess);
+            values.put(Columns.LAST_UPDATED, entry.mLastAccess);
+            // Replace the row of an earlier download of the url, if any.
+            mDeletes.add(entry.mUrl);
+            mInserts.put(entry.mUrl, values);
+            mAccesses.remove(entry.mUrl);
+            schedule();
+        }
+
+        public synchronized void updateLastAccess(String url, long time) {
+            ContentValues values = mInserts.get(url);
+            if (values != null) {
+                values.put(Columns.LAST_ACCESS, time);
+            } else {
+                mAccesses.put(url, time);
+            }
+            schedule();
+        }
+
+        public synchronized void delete(String url) {
+            mInserts.remove(url);
+            mAccesses.remove(url);
+            mDeletes.add(url);
+            schedule();
+        }
+
+        private void schedule() {
+            if (mScheduled) return;
+            mScheduled = true;
+            mApplication.getThreadPool().submit(this);
+        }
+
+        // Only one job runs at a time, so the changes are written in order.
+        @Override
+        public Void run(JobContext jc) {
+            while (true) {
+                HashSet<String> deletes;
+                HashMap<String, ContentValues> inserts;
+                HashMap<String, Long> accesses;
+                synchronized (this) {
+                    if (mDeletes.isEmpty() && mInserts.isEmpty() && mAccesses.isEmpty()) {
+                        mScheduled = false;
+                        return null;
+                    }
+                    deletes = mDeletes;
+                    inserts = mInserts;
+                    accesses = mAccesses;
+                    mDeletes = new HashSet<String>();
+                    mInserts = new HashMap<String, ContentValues>();
+                    mAccesses = new HashMap<String, Long>();
+                }
+                write(deletes, inserts, accesses);
+            }
+        }
+
+        private void write(HashSet<String> deletes, HashMap<String, ContentValues> inserts,
+                HashMap<String, Long> accesses) {
+            mDatabase.beginTransaction();
+            try {
+                // The deletes go first, a deleted url may have been added again.
+                for (String url : deletes) {
+                    mDatabase.delete(TABLE_NAME, WHERE_HASH_AND_URL, getWhereArgs(url));
+                }
+                for (ContentValues values : inserts.values()) {
+                    mDatabase.insert(TABLE_NAME, "", values);
+                }
+                ContentValues values = new ContentValues();
+                for (Map.Entry<String, Long> access : accesses.entrySet()) {
+                    values.put(Columns.LAST_ACCESS, access.getValue());
+                    mDatabase.update(TABLE_NAME, values,
+                            WHERE_HASH_AND_URL, getWhereArgs(access.getKey()));
+                }
+                mDatabase.setTransactionSuccessful();
+            } catch (SQLiteException e) {
+                Log.w(TAG, "fail to update the download database", e);
+            } finally {
+                mDatabase.endTransaction();
+            }
+        }
+    }
+
+    // An entry and its last access time when the eviction started.
+    private static class Candidate implements Comparable<Candidate> {
+        public final Entry entry;
+        public final long lastAccess;
+
+        public Candidate(Entry entry) {
+            this.entry = entry;
+            this.lastAccess = entry.mLastAccess;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return lastAccess < other.lastAccess ? -1
+                    : lastAccess == other.lastAccess ? 0 : 1;
+        }
     }
 
     private final class DatabaseHelper extends SQLiteOpenHelper {
@@ -249,11 +379,15 @@ public class DownloadCache {
 
     public class Entry {
         public File cacheFile;
-        protected long mId;
+        final String mUrl;
+        final long mSize;
+        volatile long mLastAccess;
 
-        Entry(long id, File cacheFile) {
-            mId = id;
+        Entry(String url, File cacheFile, long size, long lastAccess) {
+            mUrl = url;
             this.cacheFile = Utils.checkNotNull(cacheFile);
+            mSize = size;
+            mLastAccess = lastAccess;
         }
     }
 
@@ -285,29 +419,24 @@ public class DownloadCache {
         @Override
         public void onFutureDone(Future<File> future) {
             File file = future.get();
-            long id = 0;
-            if (file != null) { // insert to database
-                id = insertEntry(mUrl, file);
+            Entry entry = null;
+            if (file != null) {
+                entry = new Entry(mUrl, file, file.length(), System.currentTimeMillis());
             }
 
             if (future.isCancelled()) {
                 Utils.assertTrue(mProxySet.isEmpty());
+                // Keep the file for the next download of the url.
+                if (entry != null) addEntry(entry);
                 return;
             }
 
             synchronized (mTaskMap) {
-                Entry entry = null;
-                synchronized (mEntryMap) {
-                    if (file != null) {
-                        entry = new Entry(id, file);
-                        Utils.assertTrue(mEntryMap.put(mUrl, entry) == null);
-                    }
-                }
+                if (entry != null) addEntry(entry);
                 for (TaskProxy proxy : mProxySet) {
                     proxy.setResult(entry);
                 }
                 mTaskMap.remove(mUrl);
-                freeSomeSpaceIfNeed(MAX_DELETE_COUNT);
             }
         }
 
@@ -24,10 +24,14 @@ import com.android.gallery3d.common.BitmapUtils;
 import com.android.gallery3d.data.BytesBufferPool.BytesBuffer;
 import com.android.gallery3d.util.ThreadPool.Job;
 import com.android.gallery3d.util.ThreadPool.JobContext;
+import com.android.photos.data.GalleryBitmapPool;
 
 abstract class ImageCacheRequest implements Job<Bitmap> {
     private static final String TAG = "ImageCacheRequest";
 
+    // Added to the type of the cache entries holding a CompressedThumbnail.
+    private static final int TYPE_COMPRESSED = 0x100;
+
     protected GalleryApp mApplication;
     private Path mPath;
     private int mType;
@@ -59,7 +63,7 @@ abstract class ImageCacheRequest implements Job<Bitmap> {
             if (jc.isCancelled()) return null;
             if (found) {
                 BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                options.inPreferredConfig = getConfig();
                 Bitmap bitmap;
                 if (mType == MediaItem.TYPE_MICROTHUMBNAIL) {
                     bitmap = DecodeUtils.decodeUsingPool(jc,
@@ -76,6 +80,81 @@ abstract class ImageCacheRequest implements Job<Bitmap> {
         } finally {
             MediaItem.getBytesBufferPool().recycle(buffer);
         }
+        Bitmap bitmap = decodeOriginal(jc);
+        if (bitmap == null) return null;
+
+        byte[] array = BitmapUtils.compressToBytes(bitmap);
+        if (jc.isCancelled()) return null;
+
+        cacheService.putImageData(mPath, mTimeModified, mType, array);
+        return bitmap;
+    }
+
+    // Puts the image into the cache if it is not there yet. Unlike run(), it
+    // does not decode the cached image. Returns false if it fails.
+    boolean prefetch(JobContext jc) {
+        ImageCacheService cacheService = mApplication.getImageCacheService();
+
+        BytesBuffer buffer = MediaItem.getBytesBufferPool().get();
+        try {
+            if (cacheService.getImageData(mPath, mTimeModified, mType, buffer)) {
+                return true;
+            }
+            if (jc.isCancelled()) return false;
+        } finally {
+            MediaItem.getBytesBufferPool().recycle(buffer);
+        }
+        Bitmap bitmap = decodeOriginal(jc);
+        if (bitmap == null) return false;
+
+        byte[] array = BitmapUtils.compressToBytes(bitmap);
+        GalleryBitmapPool.getInstance().put(bitmap);
+        if (jc.isCancelled()) return false;
+
+        cacheService.putImageData(mPath, mTimeModified, mType, array);
+        return true;
+    }
+
+    // Returns a job which gives the image as a CompressedThumbnail. It is
+    // cached in the same way as the bitmap, in entries of its own type.
+    public Job<CompressedThumbnail> asCompressedJob() {
+        return new Job<CompressedThumbnail>() {
+            @Override
+            public CompressedThumbnail run(JobContext jc) {
+                return runCompressed(jc);
+            }
+        };
+    }
+
+    private CompressedThumbnail runCompressed(JobContext jc) {
+        ImageCacheService cacheService = mApplication.getImageCacheService();
+        int type = mType | TYPE_COMPRESSED;
+
+        BytesBuffer buffer = MediaItem.getBytesBufferPool().get();
+        try {
+            boolean found = cacheService.getImageData(mPath, mTimeModified, type, buffer);
+            if (jc.isCancelled()) return null;
+            if (found) {
+                CompressedThumbnail thumbnail = CompressedThumbnail.fromBytes(
+                        buffer.data, buffer.offset, buffer.length);
+                if (thumbnail != null) return thumbnail;
+                Log.w(TAG, "decode cached compressed failed " + debugTag());
+            }
+        } finally {
+            MediaItem.getBytesBufferPool().recycle(buffer);
+        }
+        Bitmap bitmap = decodeOriginal(jc);
+        if (bitmap == null) return null;
+
+        CompressedThumbnail thumbnail = CompressedThumbnail.encode(bitmap);
+        GalleryBitmapPool.getInstance().put(bitmap);
+        if (jc.isCancelled()) return null;
+
+        cacheService.putImageData(mPath, mTimeModified, type, thumbnail.toBytes());
+        return thumbnail;
+    }
+
+    private Bitmap decodeOriginal(JobContext jc) {
         Bitmap bitmap = onDecodeOriginal(jc, mType);
         if (jc.isCancelled()) return null;
 
@@ -91,12 +170,22 @@ abstract class ImageCacheRequest implements Job<Bitmap> {
         }
         if (jc.isCancelled()) return null;
 
-        byte[] array = BitmapUtils.compressToBytes(bitmap);
-        if (jc.isCancelled()) return null;
-
-        cacheService.putImageData(mPath, mTimeModified, mType, array);
+        Bitmap.Config config = getConfig();
+        if (bitmap.getConfig() != config) {
+            Bitmap converted = bitmap.copy(config, false);
+            if (converted != null) {
+                GalleryBitmapPool.getInstance().put(bitmap);
+                bitmap = converted;
+            }
+        }
         return bitmap;
     }
 
+    private Bitmap.Config getConfig() {
+        return (mType == MediaItem.TYPE_MICROTHUMBNAIL)
+                ? MediaItem.getMicrothumbnailConfig()
+                : Bitmap.Config.ARGB_8888;
+    }
+
     public abstract Bitmap onDecodeOriginal(JobContext jc, int targetSize);
 }
@@ -65,7 +65,7 @@ public class ImageCacheService {
             synchronized (mCache) {
                 if (!mCache.lookup(request)) return false;
             }
-            if (isSameKey(key, request.buffer)) {
+            if (Utils.startsWith(request.buffer, key)) {
                 buffer.data = request.buffer;
                 buffer.offset = key.length;
                 buffer.length = request.length - buffer.offset;
@@ -107,17 +107,4 @@ public class ImageCacheService {
     private static byte[] makeKey(Path path, long timeModified, int type) {
         return GalleryUtils.getBytes(path.toString() + "+" + timeModified + "+" + type);
     }
-
-    private static boolean isSameKey(byte[] key, byte[] buffer) {
-        int n = key.length;
-        if (buffer.length < n) {
-            return false;
-        }
-        for (int i = 0; i < n; ++i) {
-            if (key[i] != buffer[i]) {
-                return false;
-            }
-        }
-        return true;
-    }
 }
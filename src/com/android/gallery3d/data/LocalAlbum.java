@@ -98,6 +98,11 @@ public class LocalAlbum extends MediaSet {
         return mBucketId == MediaSetUtils.getCameraBucketId();
     }
 
+    @Override
+    public boolean mayHaveVideos() {
+        return !mIsImage && getMediaItemCount() > 0;
+    }
+
     @Override
     public Uri getContentUri() {
         if (mIsImage) {
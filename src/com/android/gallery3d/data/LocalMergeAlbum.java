@@ -69,6 +69,14 @@ public class LocalMergeAlbum extends MediaSet implements ContentListener {
         return true;
     }
 
+    @Override
+    public boolean mayHaveVideos() {
+        for (MediaSet set : mSources) {
+            if (set.mayHaveVideos()) return true;
+        }
+        return false;
+    }
+
     private void updateData() {
         ArrayList<MediaSet> matches = new ArrayList<MediaSet>();
         int supported = mSources.length == 0 ? 0 : MediaItem.SUPPORT_ALL;
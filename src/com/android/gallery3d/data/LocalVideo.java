@@ -25,7 +25,6 @@ import android.provider.MediaStore.Video;
 import android.provider.MediaStore.Video.VideoColumns;
 
 import com.android.gallery3d.app.GalleryApp;
-import com.android.gallery3d.common.BitmapUtils;
 import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.ThreadPool.Job;
 import com.android.gallery3d.util.ThreadPool.JobContext;
@@ -168,7 +167,8 @@ public class LocalVideo extends LocalMediaItem {
 
         @Override
         public Bitmap onDecodeOriginal(JobContext jc, int type) {
-            Bitmap bitmap = BitmapUtils.createVideoThumbnail(mLocalFilePath);
+            Bitmap bitmap = VideoThumbnailEngine.extractThumbnail(
+                    jc, mLocalFilePath, type);
             if (bitmap == null || jc.isCancelled()) return null;
             return bitmap;
         }
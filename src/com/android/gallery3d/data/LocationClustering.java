@@ -116,12 +116,20 @@ class LocationClustering extends Clustering {
             }
         }
 
-        ReverseGeocoder geocoder = new ReverseGeocoder(mContext);
+        // Name all the clusters at once.
+        ArrayList<ReverseGeocoder.SetLatLong> sets =
+                new ArrayList<ReverseGeocoder.SetLatLong>(clusters.size());
+        for (ArrayList<SmallItem> cluster : clusters) {
+            sets.add(getLatLongSet(cluster));
+        }
+        String[] names = new ReverseGeocoder(mContext).computeAddresses(sets);
+
         mNames = new ArrayList<String>();
         boolean hasUnresolvedAddress = false;
         mClusters = new ArrayList<ArrayList<SmallItem>>();
-        for (ArrayList<SmallItem> cluster : clusters) {
-            String name = generateName(cluster, geocoder);
+        for (int i = 0, n = clusters.size(); i < n; i++) {
+            ArrayList<SmallItem> cluster = clusters.get(i);
+            String name = names[i];
             if (name != null) {
                 mNames.add(name);
                 mClusters.add(cluster);
@@ -148,8 +156,7 @@ class LocationClustering extends Clustering {
         }
     }
 
-    private static String generateName(ArrayList<SmallItem> items,
-            ReverseGeocoder geocoder) {
+    private static ReverseGeocoder.SetLatLong getLatLongSet(ArrayList<SmallItem> items) {
         ReverseGeocoder.SetLatLong set = new ReverseGeocoder.SetLatLong();
 
         int n = items.size();
@@ -176,7 +183,7 @@ class LocationClustering extends Clustering {
             }
         }
 
-        return geocoder.computeAddress(set);
+        return set;
     }
 
     @Override
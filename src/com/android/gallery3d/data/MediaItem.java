@@ -48,12 +48,25 @@ public abstract class MediaItem extends MediaObject {
 
     private static int sThumbnailTargetSize = 640;
 
+    // The micro thumbnails are opaque, they are decoded to RGB_565 in the
+    // low-memory mode.
+    private static Bitmap.Config sMicrothumbnailConfig = Bitmap.Config.ARGB_8888;
+
     // TODO: fix default value for latlng and change this.
     public static final double INVALID_LATLNG = 0f;
 
     public abstract Job<Bitmap> requestImage(int type);
     public abstract Job<BitmapRegionDecoder> requestLargeImage();
 
+    // Returns a job which gives the image as a CompressedThumbnail, or null
+    // if the item does not support it; requestImage() is used instead then.
+    public Job<CompressedThumbnail> requestCompressedImage(int type) {
+        Job<Bitmap> job = requestImage(type);
+        return (job instanceof ImageCacheRequest)
+                ? ((ImageCacheRequest) job).asCompressedJob()
+                : null;
+    }
+
     public MediaItem(Path path, long version) {
         super(path, version);
     }
@@ -126,6 +139,14 @@ public abstract class MediaItem extends MediaObject {
         return sMicroThumbBufferPool;
     }
 
+    public static Bitmap.Config getMicrothumbnailConfig() {
+        return sMicrothumbnailConfig;
+    }
+
+    public static void setMicrothumbnailConfig(Bitmap.Config config) {
+        sMicrothumbnailConfig = config;
+    }
+
     public static void setThumbnailSizes(int size, int microSize) {
         sThumbnailTargetSize = size;
         if (sMicrothumbnailTargetSize != microSize) {
@@ -99,6 +99,11 @@ public abstract class MediaSet extends MediaObject {
         return false;
     }
 
+    // Returns false if the set is known to hold no videos.
+    public boolean mayHaveVideos() {
+        return true;
+    }
+
     /**
      * Method {@link #reload()} may process the loading task in background, this method tells
      * its client whether the loading is still in process or not.
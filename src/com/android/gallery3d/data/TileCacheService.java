@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+
+import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.BlobCache.LookupRequest;
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.data.BytesBufferPool.BytesBuffer;
+import com.android.gallery3d.util.CacheManager;
+import com.android.gallery3d.util.GalleryUtils;
+import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the tiles of the coarser levels of zoomable images on disk, so that
+ * reopening an image does not need to decode them from the original again.
+ *
+ * Tiles are keyed by an image key (the path and the modification time of the
+ * image) and by their level and position. They are written in the background
+ * after they are decoded for the first time. The cache file is created by
+ * CacheManager and bounded in size; the oldest tiles get evicted first.
+ *
+ * The tiles are stored as PNG, so a cached tile shows the same pixels as the
+ * decoded one, alpha included. A PNG tile takes a few times the bytes of a
+ * JPEG one, so the cache holds fewer tiles.
+ */
+public class TileCacheService {
+    private static final String TAG = "TileCacheService";
+
+    public static final String TILE_CACHE_FILE = "tilecache";
+    private static final int TILE_CACHE_MAX_ENTRIES = 10000;
+    private static final int TILE_CACHE_MAX_BYTES = 100 * 1024 * 1024;
+    private static final int TILE_CACHE_VERSION = 2;
+
+    // Tiles of level 0 are decoded at full resolution straight from the
+    // original; they are cheap to decode and too many to keep.
+    private static final int MIN_CACHED_LEVEL = 1;
+
+    // Tiles waiting to be written are dropped past this count.
+    private static final int MAX_PENDING_WRITES = 8;
+
+    private final BlobCache mCache;
+    private final ThreadPool mWriter = new ThreadPool(1, 1);
+    private final AtomicInteger mPendingWrites = new AtomicInteger();
+
+    public TileCacheService(Context context) {
+        mCache = CacheManager.getCache(context, TILE_CACHE_FILE,
+                TILE_CACHE_MAX_ENTRIES, TILE_CACHE_MAX_BYTES,
+                TILE_CACHE_VERSION);
+    }
+
+    /**
+     * Returns the key of the tiles of a media item, or null if the
+     * tiles of the item should not be cached.
+     */
+    public static String getImageKey(MediaItem item) {
+        if (!(item instanceof LocalMediaItem)) return null;
+        return item.getPath() + "+" + ((LocalMediaItem) item).dateModifiedInSec;
+    }
+
+    /**
+     * Returns the key of the tiles of a local file, or null if the file
+     * cannot be found.
+     */
+    public static String getImageKey(String filePath) {
+        long lastModified = new File(filePath).lastModified();
+        if (lastModified == 0) return null;
+        return filePath + "+" + lastModified;
+    }
+
+    public static boolean isCacheable(int level) {
+        return level >= MIN_CACHED_LEVEL;
+    }
+
+    /**
+     * Decodes the cached tile at the given position, or returns null if it
+     * is not in the cache.
+     *
+     * @param reuse the bitmap to decode into if possible, may be null
+     */
+    public Bitmap getTile(String imageKey, int level, int x, int y,
+            Bitmap reuse) {
+        if (mCache == null) return null;
+        byte[] key = makeKey(imageKey, level, x, y);
+        BytesBuffer buffer = MediaItem.getBytesBufferPool().get();
+        try {
+            if (!getTileData(key, buffer)) return null;
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            options.inMutable = true;
+            options.inBitmap = reuse;
+            try {
+                return BitmapFactory.decodeByteArray(
+                        buffer.data, buffer.offset, buffer.length, options);
+            } catch (IllegalArgumentException e) {
+                // The reused bitmap does not fit, decode a new one.
+                options.inBitmap = null;
+                return BitmapFactory.decodeByteArray(
+                        buffer.data, buffer.offset, buffer.length, options);
+            }
+        } finally {
+            MediaItem.getBytesBufferPool().recycle(buffer);
+        }
+    }
+
+    /**
+     * Schedules the tile to be written. The tile is copied, the caller
+     * keeps the ownership of the bitmap.
+     */
+    public void putTile(final String imageKey, final int level, final int x,
+            final int y, Bitmap tile) {
+        if (mCache == null || tile == null) return;
+        if (mPendingWrites.incrementAndGet() > MAX_PENDING_WRITES) {
+            mPendingWrites.decrementAndGet();
+            return;
+        }
+        final Bitmap copy;
+        try {
+            copy = tile.copy(Bitmap.Config.ARGB_8888, false);
+        } catch (OutOfMemoryError e) {
+            mPendingWrites.decrementAndGet();
+            return;
+        }
+        if (copy == null) {
+            mPendingWrites.decrementAndGet();
+            return;
+        }
+        mWriter.submit(new Job<Void>() {
+            @Override
+            public Void run(JobContext jc) {
+                try {
+                    byte[] data = compressToPng(copy);
+                    copy.recycle();
+                    putTileData(makeKey(imageKey, level, x, y), data);
+                } finally {
+                    mPendingWrites.decrementAndGet();
+                }
+                return null;
+            }
+        });
+    }
+
+    private static byte[] compressToPng(Bitmap bitmap) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(65536);
+        bitmap.compress(CompressFormat.PNG, 100, out); // the quality is ignored
+        return out.toByteArray();
+    }
+
+    private boolean getTileData(byte[] key, BytesBuffer buffer) {
+        long cacheKey = Utils.crc64Long(key);
+        try {
+            LookupRequest request = new LookupRequest();
+            request.key = cacheKey;
+            request.buffer = buffer.data;
+            synchronized (mCache) {
+                if (!mCache.lookup(request)) return false;
+            }
+            if (Utils.startsWith(request.buffer, key)) {
+                buffer.data = request.buffer;
+                buffer.offset = key.length;
+                buffer.length = request.length - buffer.offset;
+                return true;
+            }
+        } catch (IOException ex) {
+            // ignore.
+        }
+        return false;
+    }
+
+    private void putTileData(byte[] key, byte[] value) {
+        long cacheKey = Utils.crc64Long(key);
+        ByteBuffer buffer = ByteBuffer.allocate(key.length + value.length);
+        buffer.put(key);
+        buffer.put(value);
+        synchronized (mCache) {
+            try {
+                mCache.insert(cacheKey, buffer.array());
+            } catch (IOException ex) {
+                Log.w(TAG, "cannot write tile", ex);
+            }
+        }
+    }
+
+    private static byte[] makeKey(String imageKey, int level, int x, int y) {
+        return GalleryUtils.getBytes(
+                imageKey + "+" + level + "+" + x + "+" + y);
+    }
+}
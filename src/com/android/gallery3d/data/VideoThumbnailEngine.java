@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+
+import com.android.gallery3d.common.BitmapUtils;
+import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
+
+import java.util.ArrayList;
+
+// VideoThumbnailEngine extracts the thumbnails of local videos.
+//
+// The MediaMetadataRetrievers are kept in a small pool and given a new data
+// source for each video, instead of being created and released each time.
+// Only the sync frame nearest to the representative time is decoded (not the
+// exact frame, which would need decoding from the sync frame on), and it is
+// scaled down to the requested size right away.
+//
+// It also fills the ImageCacheService with the micro thumbnails of the videos
+// of an album in the background, so the album grid finds them in the cache.
+public class VideoThumbnailEngine {
+    private static final String TAG = "VideoThumbnailEngine";
+
+    private static final int MAX_IDLE_RETRIEVERS = 2;
+    private static final int PREFETCH_BATCH_SIZE = 64;
+
+    private static final ArrayList<MediaMetadataRetriever> sIdleRetrievers =
+            new ArrayList<MediaMetadataRetriever>(MAX_IDLE_RETRIEVERS);
+
+    private VideoThumbnailEngine() {
+    }
+
+    // Returns the thumbnail of the given type (TYPE_THUMBNAIL or
+    // TYPE_MICROTHUMBNAIL) of the video, or null if it cannot be extracted.
+    // The bitmap may be larger than the target size, but not twice larger.
+    public static Bitmap extractThumbnail(JobContext jc, String filePath, int type) {
+        MediaMetadataRetriever retriever = acquireRetriever();
+        boolean reusable = false;
+        try {
+            retriever.setDataSource(filePath);
+            if (jc.isCancelled()) return null;
+            int targetSize = MediaItem.getTargetSize(type);
+
+            byte[] data = retriever.getEmbeddedPicture();
+            if (data != null) {
+                Bitmap bitmap = decodeEmbeddedPicture(jc, data, targetSize, type);
+                if (bitmap != null || jc.isCancelled()) {
+                    reusable = true;
+                    return bitmap;
+                }
+            }
+
+            Bitmap bitmap = retriever.getFrameAtTime(-1,
+                    MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            reusable = true;
+            if (bitmap == null || jc.isCancelled()) return null;
+            return scaleDown(bitmap, targetSize, type);
+        } catch (IllegalArgumentException ex) {
+            // Assume this is a corrupt video file
+        } catch (RuntimeException ex) {
+            // Assume this is a corrupt video file.
+            Log.w(TAG, "cannot extract a thumbnail of " + filePath, ex);
+        } finally {
+            // A retriever which failed may be in a bad state, do not reuse it.
+            if (reusable) {
+                recycleRetriever(retriever);
+            } else {
+                retriever.release();
+            }
+        }
+        return null;
+    }
+
+    private static Bitmap decodeEmbeddedPicture(
+            JobContext jc, byte[] data, int targetSize, int type) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        DecodeUtils.decodeBounds(jc, data, 0, data.length, options);
+        if (jc.isCancelled() || options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = BitmapUtils.computeSampleSizeLarger(
+                getScale(options.outWidth, options.outHeight, targetSize, type));
+        Bitmap bitmap = DecodeUtils.decode(jc, data, 0, data.length, options);
+        if (bitmap == null) return null;
+        return scaleDown(bitmap, targetSize, type);
+    }
+
+    // The micro thumbnails are center-cropped, so their shorter side should be
+    // at least the target size. For the others, it is the longer side.
+    private static float getScale(int width, int height, int targetSize, int type) {
+        return (float) targetSize / (type == MediaItem.TYPE_MICROTHUMBNAIL
+                ? Math.min(width, height)
+                : Math.max(width, height));
+    }
+
+    private static Bitmap scaleDown(Bitmap bitmap, int targetSize, int type) {
+        float scale = getScale(bitmap.getWidth(), bitmap.getHeight(), targetSize, type);
+        if (scale <= 0.5f) bitmap = BitmapUtils.resizeBitmapByScale(bitmap, scale, true);
+        return bitmap;
+    }
+
+    private static MediaMetadataRetriever acquireRetriever() {
+        synchronized (sIdleRetrievers) {
+            int n = sIdleRetrievers.size();
+            if (n > 0) return sIdleRetrievers.remove(n - 1);
+        }
+        return new MediaMetadataRetriever();
+    }
+
+    private static void recycleRetriever(MediaMetadataRetriever retriever) {
+        synchronized (sIdleRetrievers) {
+            if (sIdleRetrievers.size() < MAX_IDLE_RETRIEVERS) {
+                sIdleRetrievers.add(retriever);
+                return;
+            }
+        }
+        retriever.release();
+    }
+
+    // Releases the retrievers kept for reuse, with the video files they have
+    // opened.
+    public static void releaseIdleRetrievers() {
+        ArrayList<MediaMetadataRetriever> retrievers;
+        synchronized (sIdleRetrievers) {
+            retrievers = new ArrayList<MediaMetadataRetriever>(sIdleRetrievers);
+            sIdleRetrievers.clear();
+        }
+        for (MediaMetadataRetriever retriever : retrievers) {
+            retriever.release();
+        }
+    }
+
+    // Returns a job which puts the micro thumbnails of the local videos in the
+    // set into the ImageCacheService. The items are read in batches, and the
+    // ones already cached are skipped. A CPU slot of the pool is taken only
+    // while a video is prefetched, so the grid decodes are not held up.
+    public static Job<Void> requestPrefetch(final MediaSet set) {
+        return new Job<Void>() {
+            @Override
+            public Void run(JobContext jc) {
+                jc.setMode(ThreadPool.MODE_NONE);
+                if (!set.mayHaveVideos()) return null;
+                try {
+                    int total = set.getMediaItemCount();
+                    for (int start = 0; start < total && !jc.isCancelled();
+                            start += PREFETCH_BATCH_SIZE) {
+                        prefetch(jc, set.getMediaItem(start, PREFETCH_BATCH_SIZE));
+                    }
+                } finally {
+                    releaseIdleRetrievers();
+                }
+                return null;
+            }
+        };
+    }
+
+    private static void prefetch(JobContext jc, ArrayList<MediaItem> items) {
+        for (MediaItem item : items) {
+            if (jc.isCancelled()) return;
+            if (!(item instanceof LocalVideo)) continue;
+            Job<Bitmap> request = item.requestImage(MediaItem.TYPE_MICROTHUMBNAIL);
+            if (!(request instanceof ImageCacheRequest)) continue;
+            if (!jc.setMode(ThreadPool.MODE_CPU)) return;
+            try {
+                ((ImageCacheRequest) request).prefetch(jc);
+            } finally {
+                jc.setMode(ThreadPool.MODE_NONE);
+            }
+        }
+    }
+}
@@ -36,7 +36,10 @@ import com.android.gallery3d.filtershow.controller.ParameterOpacity;
 import com.android.gallery3d.filtershow.controller.ParameterSaturation;
 import com.android.gallery3d.filtershow.editors.EditorDraw;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Vector;
@@ -123,6 +126,25 @@ public class FilterDrawRepresentation extends FilterRepresentation {
             return mPath.equals(sd.mPath);
         }
 
+        // Compares the points instead of the paths, which equals() does not
+        // compare by content.
+        public boolean isSameStroke(StrokeData other) {
+            if (other == this) {
+                return true;
+            }
+            if (other == null || mType != other.mType || mRadius != other.mRadius
+                    || mColor != other.mColor || noPoints != other.noPoints) {
+                return false;
+            }
+            int count = noPoints * 2;
+            for (int i = 0; i < count; i++) {
+                if (mPoints[i] != other.mPoints[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         @Override
         public String toString() {
             return "stroke(" + mType + ", path(" + (mPath) + "), " + mRadius + " , "
@@ -393,4 +415,51 @@ public class FilterDrawRepresentation extends FilterRepresentation {
 
         sreader.endObject();
     }
+
+    @Override
+    public void serializeRepresentation(DataOutputStream out) throws IOException {
+        int len = mDrawing.size();
+        out.writeInt(len);
+        for (int i = 0; i < len; i++) {
+            StrokeData mark = mDrawing.get(i);
+            out.writeInt(mark.mColor);
+            out.writeFloat(mark.mRadius);
+            out.writeByte(mark.mType);
+            out.writeInt(mark.noPoints);
+            // Points are written in one go rather than float by float
+            int npoints = mark.noPoints * 2;
+            ByteBuffer points = ByteBuffer.allocate(npoints * 4);
+            points.asFloatBuffer().put(mark.mPoints, 0, npoints);
+            out.write(points.array());
+        }
+    }
+
+    @Override
+    public void deSerializeRepresentation(DataInputStream in) throws IOException {
+        Vector<StrokeData> strokes = new Vector<StrokeData>();
+        int len = in.readInt();
+        for (int i = 0; i < len; i++) {
+            StrokeData stroke = new StrokeData();
+            stroke.mColor = in.readInt();
+            stroke.mRadius = in.readFloat();
+            stroke.mType = in.readByte();
+            stroke.noPoints = in.readInt();
+            int count = stroke.noPoints * 2;
+            if (count > stroke.mPoints.length) {
+                stroke.mPoints = new float[count];
+            }
+            byte[] points = new byte[count * 4];
+            in.readFully(points);
+            ByteBuffer.wrap(points).asFloatBuffer().get(stroke.mPoints, 0, count);
+            stroke.mPath = new Path();
+            if (count > 0) {
+                stroke.mPath.moveTo(stroke.mPoints[0], stroke.mPoints[1]);
+            }
+            for (int j = 0; j < count; j += 2) {
+                stroke.mPath.lineTo(stroke.mPoints[j], stroke.mPoints[j + 1]);
+            }
+            strokes.add(stroke);
+        }
+        mDrawing = strokes;
+    }
 }
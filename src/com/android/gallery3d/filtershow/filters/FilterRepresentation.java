@@ -22,7 +22,11 @@ import android.util.Log;
 
 import com.android.gallery3d.filtershow.editors.BasicEditor;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 
 public class FilterRepresentation {
@@ -265,6 +269,31 @@ public class FilterRepresentation {
         }
     }
 
+    /**
+     * Writes the representation in the binary preset format. By default
+     * this stores the JSON serialization of the representation; filters
+     * with large parameters (e.g. strokes) override it with a compact form.
+     * @param out
+     * @throws IOException
+     */
+    public void serializeRepresentation(DataOutputStream out) throws IOException {
+        StringWriter swriter = new StringWriter();
+        JsonWriter writer = new JsonWriter(swriter);
+        serializeRepresentation(writer);
+        writer.close();
+        byte[] json = swriter.toString().getBytes("UTF-8");
+        out.writeInt(json.length);
+        out.write(json);
+    }
+
+    public void deSerializeRepresentation(DataInputStream in) throws IOException {
+        byte[] json = new byte[in.readInt()];
+        in.readFully(json);
+        JsonReader reader = new JsonReader(new StringReader(new String(json, "UTF-8")));
+        deSerializeRepresentation(reader);
+        reader.close();
+    }
+
     // Override this in subclasses
     public int getStyle() {
         return -1;
@@ -27,6 +27,7 @@ import android.graphics.Path;
 import android.graphics.PathMeasure;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffColorFilter;
+import android.util.SparseArray;
 
 import com.android.gallery3d.R;
 import com.android.gallery3d.app.Log;
@@ -43,8 +44,10 @@ public class ImageFilterDraw extends ImageFilter {
     public final static byte BRUSH_STYLE_SPATTER = 1;
     public final static byte BRUSH_STYLE_MARKER = 2;
     public final static int NUMBER_OF_STYLES = 3;
-    Bitmap mOverlayBitmap; // this accelerates interaction
-    int mCachedStrokes = -1;
+    // Strokes already rasterized, one layer per preview size as the same
+    // filter is used by the low res and the full preview pipelines.
+    private static final int MAX_STROKE_LAYERS = 2;
+    private Vector<StrokeLayer> mStrokeLayers = new Vector<StrokeLayer>();
     int mCurrentStyle = 0;
 
     FilterDrawRepresentation mParameters = new FilterDrawRepresentation();
@@ -78,6 +81,11 @@ public class ImageFilterDraw extends ImageFilter {
         mParameters = parameters;
     }
 
+    @Override
+    public void freeResources() {
+        mStrokeLayers.clear();
+    }
+
     public void setStyle(byte style) {
         mCurrentStyle = style % mDrawingsTypes.length;
     }
@@ -135,9 +143,12 @@ public class ImageFilterDraw extends ImageFilter {
     }
 
     class Brush implements DrawStyle {
+        private static final int MAX_SCALED_BRUSHES = 8;
         int mBrushID;
         Bitmap mBrush;
         byte mType;
+        // scaled brush stamps, keyed by size
+        SparseArray<Bitmap> mScaledBrushes = new SparseArray<Bitmap>();
 
         public Brush(int brushID) {
             mBrushID = brushID;
@@ -170,6 +181,20 @@ public class ImageFilterDraw extends ImageFilter {
                     mCacheTransPath);
         }
 
+        Bitmap getScaledBrush(int size) {
+            Bitmap brush = mScaledBrushes.get(size);
+            if (brush == null) {
+                if (mScaledBrushes.size() >= MAX_SCALED_BRUSHES) {
+                    mScaledBrushes.clear();
+                }
+                // done this way because of a bug in
+                // Bitmap.createScaledBitmap(getBrush(),(int) size,(int) size,true);
+                brush = createScaledBitmap(getBrush(), size, size, true);
+                mScaledBrushes.put(size, brush);
+            }
+            return brush;
+        }
+
         public Bitmap createScaledBitmap(Bitmap src, int dstWidth, int dstHeight, boolean filter)
         {
             Matrix m = new Matrix();
@@ -195,10 +220,7 @@ public class ImageFilterDraw extends ImageFilter {
             paint.setColor(color);
 
             paint.setColorFilter(new PorterDuffColorFilter(color, PorterDuff.Mode.MULTIPLY));
-            Bitmap brush;
-            // done this way because of a bug in
-            // Bitmap.createScaledBitmap(getBrush(),(int) size,(int) size,true);
-            brush = createScaledBitmap(getBrush(), (int) size, (int) size, true);
+            Bitmap brush = getScaledBrush((int) size);
             float len = mPathMeasure.getLength();
             float s2 = size / 2;
             float step = s2 / 8;
@@ -230,8 +252,7 @@ public class ImageFilterDraw extends ImageFilter {
         paint.setStrokeWidth(40);
 
         if (mParameters.getDrawing().isEmpty() && mParameters.getCurrentDrawing() == null) {
-            mOverlayBitmap = null;
-            mCachedStrokes = -1;
+            mStrokeLayers.clear();
             return;
         }
         if (quality == FilterEnvironment.QUALITY_FINAL) {
@@ -242,20 +263,9 @@ public class ImageFilterDraw extends ImageFilter {
             return;
         }
 
-        if (mOverlayBitmap == null ||
-                mOverlayBitmap.getWidth() != canvas.getWidth() ||
-                mOverlayBitmap.getHeight() != canvas.getHeight() ||
-                mParameters.getDrawing().size() < mCachedStrokes) {
-
-            mOverlayBitmap = Bitmap.createBitmap(
-                    canvas.getWidth(), canvas.getHeight(), Bitmap.Config.ARGB_8888);
-            mCachedStrokes = 0;
-        }
-
-        if (mCachedStrokes < mParameters.getDrawing().size()) {
-            fillBuffer(originalRotateToScreen);
-        }
-        canvas.drawBitmap(mOverlayBitmap, 0, 0, paint);
+        StrokeLayer layer = getStrokeLayer(canvas.getWidth(), canvas.getHeight());
+        layer.update(mParameters.getDrawing(), originalRotateToScreen);
+        canvas.drawBitmap(layer.mBitmap, 0, 0, paint);
 
         StrokeData stroke = mParameters.getCurrentDrawing();
         if (stroke != null) {
@@ -263,15 +273,62 @@ public class ImageFilterDraw extends ImageFilter {
         }
     }
 
-    public void fillBuffer(Matrix originalRotateToScreen) {
-        Canvas drawCache = new Canvas(mOverlayBitmap);
-        Vector<FilterDrawRepresentation.StrokeData> v = mParameters.getDrawing();
-        int n = v.size();
+    private StrokeLayer getStrokeLayer(int width, int height) {
+        for (int i = 0; i < mStrokeLayers.size(); i++) {
+            StrokeLayer layer = mStrokeLayers.get(i);
+            if (layer.mBitmap.getWidth() == width && layer.mBitmap.getHeight() == height) {
+                // keep the most recently used layer first
+                mStrokeLayers.remove(i);
+                mStrokeLayers.insertElementAt(layer, 0);
+                return layer;
+            }
+        }
+        if (mStrokeLayers.size() >= MAX_STROKE_LAYERS) {
+            mStrokeLayers.remove(mStrokeLayers.size() - 1);
+        }
+        StrokeLayer layer = new StrokeLayer(width, height);
+        mStrokeLayers.insertElementAt(layer, 0);
+        return layer;
+    }
+
+    /**
+     * Holds the strokes rasterized so far for a given size and geometry,
+     * only the strokes added since the last render get painted.
+     */
+    class StrokeLayer {
+        Bitmap mBitmap;
+        Matrix mMatrix = new Matrix();
+        int mCachedStrokes = 0;
+        // copy of the last rasterized stroke, used to detect that the
+        // drawing was replaced by one with the same number of strokes
+        StrokeData mLastStroke;
+
+        StrokeLayer(int width, int height) {
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
 
-        for (int i = mCachedStrokes; i < n; i++) {
-            paint(v.get(i), drawCache, originalRotateToScreen, FilterEnvironment.QUALITY_PREVIEW);
+        void update(Vector<StrokeData> strokes, Matrix originalRotateToScreen) {
+            int n = strokes.size();
+            if (!mMatrix.equals(originalRotateToScreen)
+                    || n < mCachedStrokes
+                    || (mCachedStrokes > 0
+                        && !strokes.get(mCachedStrokes - 1).isSameStroke(mLastStroke))) {
+                mBitmap.eraseColor(Color.TRANSPARENT);
+                mMatrix.set(originalRotateToScreen);
+                mCachedStrokes = 0;
+                mLastStroke = null;
+            }
+            if (mCachedStrokes == n) {
+                return;
+            }
+            Canvas drawCache = new Canvas(mBitmap);
+            for (int i = mCachedStrokes; i < n; i++) {
+                paint(strokes.get(i), drawCache, originalRotateToScreen,
+                        FilterEnvironment.QUALITY_PREVIEW);
+            }
+            mCachedStrokes = n;
+            mLastStroke = new StrokeData(strokes.get(n - 1));
         }
-        mCachedStrokes = n;
     }
 
     public void draw(Canvas canvas, Matrix originalRotateToScreen) {
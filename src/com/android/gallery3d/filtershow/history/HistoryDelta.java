@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.history;
+
+import com.android.gallery3d.filtershow.filters.FilterDrawRepresentation;
+import com.android.gallery3d.filtershow.filters.FilterDrawRepresentation.StrokeData;
+import com.android.gallery3d.filtershow.filters.FilterRepresentation;
+import com.android.gallery3d.filtershow.pipeline.ImagePreset;
+
+import java.util.Vector;
+
+/**
+ * Describes an ImagePreset as a list of changes against the preset of an
+ * older HistoryItem. Each filter of the preset is either taken unchanged
+ * from the base preset, kept as its own copy, or, for drawings, rebuilt from
+ * the base drawing plus the strokes added since.
+ */
+class HistoryDelta {
+    private final HistoryItem mBase;
+    private final Entry[] mEntries;
+
+    private static class Entry {
+        // index of the representation in the base preset, or -1
+        int baseIndex = -1;
+        // the representation if it is not found in the base preset
+        FilterRepresentation representation;
+        // strokes appended to the base drawing at baseIndex
+        Vector<StrokeData> addedStrokes;
+    }
+
+    private HistoryDelta(HistoryItem base, Entry[] entries) {
+        mBase = base;
+        mEntries = entries;
+    }
+
+    HistoryItem getBase() {
+        return mBase;
+    }
+
+    /**
+     * Computes the delta between a preset and the preset of an older item.
+     * @param preset the preset to describe, not modified afterwards
+     * @param base the item the delta is relative to
+     * @param basePreset the resolved preset of the base item
+     */
+    static HistoryDelta create(ImagePreset preset, HistoryItem base, ImagePreset basePreset) {
+        Vector<FilterRepresentation> filters = preset.getFilters();
+        Vector<FilterRepresentation> baseFilters = basePreset.getFilters();
+        Entry[] entries = new Entry[filters.size()];
+        for (int i = 0; i < filters.size(); i++) {
+            FilterRepresentation representation = filters.elementAt(i);
+            Entry entry = new Entry();
+            for (int j = 0; j < baseFilters.size(); j++) {
+                FilterRepresentation baseRepresentation = baseFilters.elementAt(j);
+                if (!representation.same(baseRepresentation)) {
+                    continue;
+                }
+                if (representation instanceof FilterDrawRepresentation) {
+                    Vector<StrokeData> added = getAddedStrokes(
+                            (FilterDrawRepresentation) representation,
+                            (FilterDrawRepresentation) baseRepresentation);
+                    if (added != null) {
+                        entry.baseIndex = j;
+                        entry.addedStrokes = added;
+                    }
+                } else if (representation.equals(baseRepresentation)) {
+                    entry.baseIndex = j;
+                }
+                break;
+            }
+            if (entry.baseIndex == -1) {
+                entry.representation = representation;
+            }
+            entries[i] = entry;
+        }
+        return new HistoryDelta(base, entries);
+    }
+
+    /**
+     * Rebuilds the preset. Representations shared with the base preset are
+     * not copied, callers are expected to copy the result before changing it.
+     */
+    ImagePreset apply(ImagePreset basePreset) {
+        ImagePreset preset = new ImagePreset();
+        Vector<FilterRepresentation> filters = preset.getFilters();
+        Vector<FilterRepresentation> baseFilters = basePreset.getFilters();
+        for (Entry entry : mEntries) {
+            if (entry.baseIndex == -1) {
+                filters.add(entry.representation);
+            } else if (entry.addedStrokes != null) {
+                FilterDrawRepresentation drawing = (FilterDrawRepresentation)
+                        baseFilters.elementAt(entry.baseIndex).copy();
+                drawing.getDrawing().addAll(entry.addedStrokes);
+                filters.add(drawing);
+            } else {
+                filters.add(baseFilters.elementAt(entry.baseIndex));
+            }
+        }
+        return preset;
+    }
+
+    // Returns the strokes of drawing that come after the strokes of base,
+    // or null if the strokes of base are not a prefix of those of drawing.
+    private static Vector<StrokeData> getAddedStrokes(FilterDrawRepresentation drawing,
+            FilterDrawRepresentation base) {
+        Vector<StrokeData> strokes = drawing.getDrawing();
+        Vector<StrokeData> baseStrokes = base.getDrawing();
+        if (strokes == null || baseStrokes == null
+                || drawing.getCurrentDrawing() != null
+                || strokes.size() < baseStrokes.size()) {
+            return null;
+        }
+        for (int i = 0; i < baseStrokes.size(); i++) {
+            if (!strokes.elementAt(i).isSameStroke(baseStrokes.elementAt(i))) {
+                return null;
+            }
+        }
+        return new Vector<StrokeData>(strokes.subList(baseStrokes.size(), strokes.size()));
+    }
+}
@@ -16,16 +16,19 @@
 
 package com.android.gallery3d.filtershow.history;
 
-import android.graphics.Bitmap;
-import android.util.Log;
 import com.android.gallery3d.filtershow.filters.FilterRepresentation;
 import com.android.gallery3d.filtershow.pipeline.ImagePreset;
 
 public class HistoryItem {
     private static final String LOGTAG = "HistoryItem";
+    // Full preset, only kept for the current item and for keyframes
     private ImagePreset mImagePreset;
+    // Changes against an older item, once this item became a delta
+    private HistoryDelta mDelta;
+    // Number of deltas to resolve before reaching a keyframe
+    private int mDepth = 0;
+    private boolean mFrozen = false;
     private FilterRepresentation mFilterRepresentation;
-    private Bitmap mPreviewImage;
 
     public HistoryItem(ImagePreset preset, FilterRepresentation representation) {
         mImagePreset = preset; // just keep a pointer to the current preset
@@ -34,20 +37,48 @@ public class HistoryItem {
         }
     }
 
+    /**
+     * Returns the preset of this item. For items stored as deltas the preset
+     * is rebuilt and may share representations with other items, so it must
+     * be copied before being modified.
+     */
     public ImagePreset getImagePreset() {
-        return mImagePreset;
+        if (mDelta == null) {
+            return mImagePreset;
+        }
+        return mDelta.apply(mDelta.getBase().getImagePreset());
     }
 
     public FilterRepresentation getFilterRepresentation() {
         return mFilterRepresentation;
     }
 
-    public Bitmap getPreviewImage() {
-        return mPreviewImage;
+    int getDepth() {
+        return mDepth;
+    }
+
+    boolean isFrozen() {
+        return mFrozen;
     }
 
-    public void setPreviewImage(Bitmap previewImage) {
-        mPreviewImage = previewImage;
+    /**
+     * Called once the preset of this item is not the current one anymore,
+     * keeps the full preset.
+     */
+    void storeAsKeyframe() {
+        mFrozen = true;
     }
 
+    /**
+     * Called once the preset of this item is not the current one anymore,
+     * replaces the full preset by its changes against an older item.
+     * @param base the older item
+     * @param basePreset the resolved preset of base
+     */
+    void storeAsDelta(HistoryItem base, ImagePreset basePreset) {
+        mDelta = HistoryDelta.create(mImagePreset, base, basePreset);
+        mDepth = base.mDepth + 1;
+        mImagePreset = null;
+        mFrozen = true;
+    }
 }
@@ -19,12 +19,23 @@ package com.android.gallery3d.filtershow.history;
 import android.graphics.drawable.Drawable;
 import android.view.MenuItem;
 
+import com.android.gallery3d.filtershow.pipeline.ImagePreset;
+
 import java.util.Vector;
 
 public class HistoryManager {
     private static final String LOGTAG = "HistoryManager";
 
+    // Past items are stored as deltas against the item before them; every
+    // KEYFRAME_INTERVAL items one keeps its full preset, which bounds the
+    // work needed to rebuild any item.
+    private static final int KEYFRAME_INTERVAL = 8;
+
     private Vector<HistoryItem> mHistoryItems = new Vector<HistoryItem>();
+    // The last item stored as a delta and its full preset, used as the
+    // base of the next delta without having to rebuild it.
+    private HistoryItem mLastFrozenItem = null;
+    private ImagePreset mLastFrozenPreset = null;
     private int mCurrentPresetPosition = 0;
     private MenuItem mUndoMenuItem = null;
     private MenuItem mRedoMenuItem = null;
@@ -50,6 +61,8 @@ public class HistoryManager {
 
     private void clear() {
         mHistoryItems.clear();
+        mLastFrozenItem = null;
+        mLastFrozenPreset = null;
     }
 
     private void add(HistoryItem item) {
@@ -127,10 +140,32 @@ public class HistoryManager {
     }
 
     public void addHistoryItem(HistoryItem preset) {
+        HistoryItem previous = getCurrent();
         insert(preset, 0);
+        if (previous != null) {
+            freeze(previous);
+        }
         updateMenuItems();
     }
 
+    private void freeze(HistoryItem item) {
+        if (item.isFrozen()) {
+            return;
+        }
+        int position = mHistoryItems.indexOf(item);
+        HistoryItem base = getItem(position + 1);
+        ImagePreset preset = item.getImagePreset();
+        if (base == null || base.getDepth() + 1 >= KEYFRAME_INTERVAL) {
+            item.storeAsKeyframe();
+        } else {
+            ImagePreset basePreset = (base == mLastFrozenItem)
+                    ? mLastFrozenPreset : base.getImagePreset();
+            item.storeAsDelta(base, basePreset);
+        }
+        mLastFrozenItem = item;
+        mLastFrozenPreset = preset;
+    }
+
     private void insert(HistoryItem preset, int position) {
         if (mCurrentPresetPosition != 0) {
             // in this case, let's discount the presets before the current one
@@ -138,7 +173,7 @@ public class HistoryManager {
             for (int i = mCurrentPresetPosition; i < getCount(); i++) {
                 oldItems.add(getItem(i));
             }
-            clear();
+            mHistoryItems.clear();
             for (int i = 0; i < oldItems.size(); i++) {
                 add(oldItems.elementAt(i));
             }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.pipeline;
+
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.util.Log;
+
+import com.android.gallery3d.filtershow.cache.ImageLoader;
+import com.android.gallery3d.filtershow.tools.SaveImage;
+import com.android.gallery3d.util.Future;
+import com.android.gallery3d.util.FutureListener;
+import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies one ImagePreset to a list of images, outside of the editor.
+ *
+ * Decoding and encoding run on several workers at once; the rendering itself
+ * is serialized by CachingPipeline. The number of workers is bounded by the
+ * number of cores, and a memory budget (in MB) is shared between the workers
+ * so that large images do not get decoded concurrently past what the heap
+ * can hold.
+ */
+public class BatchApplyTask {
+    private static final String LOGTAG = "BatchApplyTask";
+
+    // Fraction of the heap the batch is allowed to use for decoded images
+    private static final int MEMORY_BUDGET_DIVIDER = 3;
+    // Bitmaps alive at once for one image: decoded, rendered and the
+    // temporary copies made by the filters.
+    private static final int BITMAPS_PER_IMAGE = 3;
+    private static final int MEGABYTE = 1024 * 1024;
+    private static final int ACQUIRE_TIMEOUT = 100; // ms
+
+    public interface Listener {
+        void onProgress(int max, int current);
+        void onDone(int succeeded, int failed, boolean cancelled);
+    }
+
+    private final ProcessingService mService;
+    private final Handler mHandler = new Handler();
+    private final ThreadPool mThreadPool;
+    private Semaphore mMemoryBudget;
+    private int mMemoryBudgetMB;
+    private final ArrayList<Future<Uri>> mFutures = new ArrayList<Future<Uri>>();
+    private final HashSet<String> mClaimedFiles = new HashSet<String>();
+
+    private Listener mListener;
+    private int mCount;
+    private int mSucceeded;
+    private int mFailed;
+    private volatile boolean mCancelled;
+
+    public BatchApplyTask(ProcessingService service) {
+        mService = service;
+        int cores = Runtime.getRuntime().availableProcessors();
+        mThreadPool = new ThreadPool(cores, cores);
+    }
+
+    public synchronized boolean isRunning() {
+        return !mFutures.isEmpty();
+    }
+
+    public synchronized void apply(List<Uri> uris, final ImagePreset preset,
+            final int quality, Listener listener) {
+        if (isRunning() || uris.isEmpty()) {
+            return;
+        }
+        mListener = listener;
+        mCount = uris.size();
+        mSucceeded = 0;
+        mFailed = 0;
+        mCancelled = false;
+        mClaimedFiles.clear();
+
+        mMemoryBudgetMB = Math.max(1, (int) (Runtime.getRuntime().maxMemory()
+                / MEMORY_BUDGET_DIVIDER / MEGABYTE));
+        mMemoryBudget = new Semaphore(mMemoryBudgetMB, true);
+
+        FutureListener<Uri> futureListener = new FutureListener<Uri>() {
+            @Override
+            public void onFutureDone(Future<Uri> future) {
+                onImageDone(future);
+            }
+        };
+        for (final Uri uri : uris) {
+            mFutures.add(mThreadPool.submit(new Job<Uri>() {
+                @Override
+                public Uri run(JobContext jc) {
+                    return applyTo(jc, uri, preset, quality);
+                }
+            }, futureListener));
+        }
+        postProgress(0);
+    }
+
+    public synchronized void cancel() {
+        mCancelled = true;
+        for (Future<Uri> future : mFutures) {
+            future.cancel();
+        }
+    }
+
+    // Cancels the batch and stops the workers. The task cannot be used
+    // after this is called.
+    public synchronized void release() {
+        cancel();
+        mThreadPool.shutdown();
+    }
+
+    private Uri applyTo(JobContext jc, Uri uri, ImagePreset preset, int quality) {
+        // Concurrency is bounded by the pool size and the memory budget,
+        // not by the pool's CPU counter.
+        jc.setMode(ThreadPool.MODE_NONE);
+        if (jc.isCancelled()) {
+            return null;
+        }
+        Rect bounds = ImageLoader.loadBitmapBounds(mService, uri);
+        if (bounds.isEmpty()) {
+            Log.w(LOGTAG, "could not read bounds of " + uri);
+            return null;
+        }
+        long bytes = (long) bounds.width() * bounds.height() * 4 * BITMAPS_PER_IMAGE;
+        int permits = (int) Math.min(mMemoryBudgetMB,
+                Math.max(1, (bytes + MEGABYTE - 1) / MEGABYTE));
+        if (!acquire(jc, permits)) {
+            return null;
+        }
+        try {
+            File destination = claimDestination(uri);
+            // We give our own ImagePreset copy to each image, as filters
+            // may update the representations while rendering.
+            SaveImage saveImage = new SaveImage(mService, uri, uri,
+                    destination, null, null);
+            return saveImage.processAndSaveImage(new ImagePreset(preset),
+                    false, quality, 1f, false);
+        } catch (OutOfMemoryError e) {
+            Log.w(LOGTAG, "out of memory while applying preset to " + uri, e);
+            return null;
+        } finally {
+            mMemoryBudget.release(permits);
+        }
+    }
+
+    private boolean acquire(JobContext jc, int permits) {
+        try {
+            while (!mMemoryBudget.tryAcquire(permits, ACQUIRE_TIMEOUT,
+                    TimeUnit.MILLISECONDS)) {
+                if (jc.isCancelled()) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        if (jc.isCancelled()) {
+            mMemoryBudget.release(permits);
+            return false;
+        }
+        return true;
+    }
+
+    // Files are named after the current time, make sure workers
+    // finishing in the same second do not overwrite each other.
+    private synchronized File claimDestination(Uri uri) {
+        File file = SaveImage.getNewFile(mService, uri);
+        String path = file.getPath();
+        int dot = path.lastIndexOf('.');
+        String base = dot > 0 ? path.substring(0, dot) : path;
+        String extension = dot > 0 ? path.substring(dot) : "";
+        int index = 1;
+        while (file.exists() || mClaimedFiles.contains(file.getPath())) {
+            file = new File(base + "_" + index + extension);
+            index++;
+        }
+        mClaimedFiles.add(file.getPath());
+        return file;
+    }
+
+    private void onImageDone(Future<Uri> future) {
+        final int done;
+        final boolean finished;
+        synchronized (this) {
+            if (future.get() != null) {
+                mSucceeded++;
+            } else {
+                mFailed++;
+            }
+            done = mSucceeded + mFailed;
+            finished = done == mCount;
+        }
+        if (!finished) {
+            postProgress(done);
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int succeeded;
+                int failed;
+                synchronized (BatchApplyTask.this) {
+                    mFutures.clear();
+                    succeeded = mSucceeded;
+                    failed = mFailed;
+                }
+                mListener.onDone(succeeded, failed, mCancelled);
+            }
+        });
+    }
+
+    private void postProgress(final int current) {
+        final int max = mCount;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onProgress(max, current);
+            }
+        });
+    }
+}
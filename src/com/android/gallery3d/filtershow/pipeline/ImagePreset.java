@@ -42,6 +42,10 @@ import com.android.gallery3d.filtershow.imageshow.MasterImage;
 import com.android.gallery3d.filtershow.state.State;
 import com.android.gallery3d.filtershow.state.StateAdapter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -54,6 +58,11 @@ public class ImagePreset {
     private static final String LOGTAG = "ImagePreset";
     public static final String JASON_SAVED = "Saved";
 
+    // Binary format: magic, version, then for each filter its serialization
+    // name and the size of its payload, followed by the payload itself.
+    private static final int BINARY_MAGIC = 0x46535042; // "FSPB"
+    private static final int BINARY_VERSION = 1;
+
     private Vector<FilterRepresentation> mFilters = new Vector<FilterRepresentation>();
 
     private boolean mDoApplyGeometry = true;
@@ -711,6 +720,94 @@ public class ImagePreset {
         return true;
     }
 
+    /**
+     * Serializes the preset in the compact binary format. The result can be
+     * read back with readBinary(), and converted to JSON from there.
+     */
+    public byte[] getBinary() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeBinary(out);
+            out.close();
+        } catch (IOException e) {
+            Log.e(LOGTAG, "Error encoding binary preset", e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    public void writeBinary(DataOutputStream out) throws IOException {
+        out.writeInt(BINARY_MAGIC);
+        out.writeShort(BINARY_VERSION);
+        int numFilters = 0;
+        for (FilterRepresentation filter : mFilters) {
+            if (!(filter instanceof FilterUserPresetRepresentation)) {
+                numFilters++;
+            }
+        }
+        out.writeInt(numFilters);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream payloadOut = new DataOutputStream(payload);
+        for (FilterRepresentation filter : mFilters) {
+            if (filter instanceof FilterUserPresetRepresentation) {
+                continue;
+            }
+            payload.reset();
+            filter.serializeRepresentation(payloadOut);
+            payloadOut.flush();
+            out.writeUTF(filter.getSerializationName());
+            out.writeInt(payload.size());
+            payload.writeTo(out);
+        }
+    }
+
+    /**
+     * populates preset from the binary format
+     *
+     * @param data bytes produced by getBinary()
+     * @return true on success if false ImagePreset is undefined
+     */
+    public boolean readBinary(byte[] data) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            boolean ok = readBinary(in);
+            in.close();
+            return ok;
+        } catch (Exception e) {
+            Log.e(LOGTAG, "parsing the binary filter parameters:", e);
+            return false;
+        }
+    }
+
+    public boolean readBinary(DataInputStream in) throws IOException {
+        if (in.readInt() != BINARY_MAGIC) {
+            Log.w(LOGTAG, "not a binary preset");
+            return false;
+        }
+        int version = in.readShort();
+        if (version > BINARY_VERSION) {
+            Log.w(LOGTAG, "unsupported binary preset version " + version);
+            return false;
+        }
+        int numFilters = in.readInt();
+        for (int i = 0; i < numFilters; i++) {
+            String name = in.readUTF();
+            int size = in.readInt();
+            FilterRepresentation filter = creatFilterFromName(name);
+            if (filter == null) {
+                Log.w(LOGTAG, "UNKNOWN FILTER! " + name);
+                return false;
+            }
+            byte[] payload = new byte[size];
+            in.readFully(payload);
+            DataInputStream payloadIn = new DataInputStream(new ByteArrayInputStream(payload));
+            filter.deSerializeRepresentation(payloadIn);
+            addFilter(filter);
+        }
+        return true;
+    }
+
     FilterRepresentation creatFilterFromName(String name) {
         if (FilterRotateRepresentation.SERIALIZATION_NAME.equals(name)) {
             return new FilterRotateRepresentation();
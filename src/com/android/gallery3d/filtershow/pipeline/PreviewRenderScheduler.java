@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.pipeline;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Decides which pass UpdatePreviewTask should render and keeps track of the
+ * latency between a preview request and the frame that answers it.
+ *
+ * Requests arriving closer than SETTLE_DELAY from each other are considered
+ * part of an interactive gesture (e.g. a slider drag) and get rendered with
+ * the low resolution pipeline. Once no request arrived for SETTLE_DELAY the
+ * scheduler asks for a single full resolution pass. Coalescing to the latest
+ * preset itself is done by SharedPreset.
+ */
+public class PreviewRenderScheduler {
+    private static final String LOGTAG = "PreviewRenderScheduler";
+    public static final int SETTLE_DELAY = 150; // ms
+
+    // weight of the newest sample in the moving average
+    private static final float LATENCY_SMOOTHING = 0.2f;
+
+    private long mLastRequestTime = 0;
+    private long mOldestPendingRequestTime = 0;
+    private volatile boolean mInteractive = false;
+    private boolean mSettled = true;
+    private boolean mLastFrameWasLowres = false;
+
+    private long mLastLatency = 0;
+    private float mAverageLatency = 0;
+    private int mGestureRequests = 0;
+    private int mGestureFrames = 0;
+    private long mGestureMaxLatency = 0;
+
+    public synchronized void onRequest() {
+        long now = SystemClock.uptimeMillis();
+        mInteractive = mLastRequestTime != 0
+                && (now - mLastRequestTime) < SETTLE_DELAY;
+        mLastRequestTime = now;
+        mSettled = false;
+        if (mOldestPendingRequestTime == 0) {
+            mOldestPendingRequestTime = now;
+        }
+        mGestureRequests++;
+    }
+
+    /**
+     * Called when no request arrived for SETTLE_DELAY.
+     * @return true if a full resolution pass is needed to replace
+     * the last low resolution frame.
+     */
+    public synchronized boolean onSettled() {
+        mInteractive = false;
+        mSettled = true;
+        if (mGestureFrames > 1) {
+            Log.v(LOGTAG, "gesture: " + mGestureRequests + " requests, "
+                    + mGestureFrames + " frames, average latency "
+                    + (int) mAverageLatency + " ms, max latency "
+                    + mGestureMaxLatency + " ms");
+        }
+        mGestureRequests = 0;
+        mGestureFrames = 0;
+        mGestureMaxLatency = 0;
+        if (mLastFrameWasLowres) {
+            mOldestPendingRequestTime = SystemClock.uptimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean useLowresPass() {
+        return mInteractive;
+    }
+
+    /**
+     * @return true if the frame was a low resolution one that landed after
+     * the input settled, and thus needs to be followed by a full pass.
+     */
+    public synchronized boolean onFrameDisplayed(boolean lowres) {
+        mLastFrameWasLowres = lowres;
+        boolean needsFullPass = lowres && mSettled;
+        if (mOldestPendingRequestTime == 0) {
+            return needsFullPass;
+        }
+        long latency = SystemClock.uptimeMillis() - mOldestPendingRequestTime;
+        mOldestPendingRequestTime = 0;
+        mLastLatency = latency;
+        if (mAverageLatency == 0) {
+            mAverageLatency = latency;
+        } else {
+            mAverageLatency += LATENCY_SMOOTHING * (latency - mAverageLatency);
+        }
+        mGestureFrames++;
+        mGestureMaxLatency = Math.max(mGestureMaxLatency, latency);
+        return needsFullPass;
+    }
+
+    public synchronized long getLastLatency() {
+        return mLastLatency;
+    }
+
+    public synchronized float getAverageLatency() {
+        return mAverageLatency;
+    }
+
+    public synchronized void reset() {
+        mLastRequestTime = 0;
+        mOldestPendingRequestTime = 0;
+        mInteractive = false;
+        mSettled = true;
+        mLastFrameWasLowres = false;
+    }
+}
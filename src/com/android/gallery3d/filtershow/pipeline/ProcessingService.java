@@ -18,6 +18,7 @@ package com.android.gallery3d.filtershow.pipeline;
 
 import android.app.Notification;
 import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
@@ -29,6 +30,7 @@ import android.os.Binder;
 import android.os.IBinder;
 import android.util.Log;
 import com.android.gallery3d.R;
+import com.android.gallery3d.common.ApiHelper;
 import com.android.gallery3d.filtershow.FilterShowActivity;
 import com.android.gallery3d.filtershow.filters.FiltersManager;
 import com.android.gallery3d.filtershow.filters.ImageFilter;
@@ -36,6 +38,7 @@ import com.android.gallery3d.filtershow.imageshow.MasterImage;
 import com.android.gallery3d.filtershow.tools.SaveImage;
 
 import java.io.File;
+import java.util.ArrayList;
 
 public class ProcessingService extends Service {
     private static final String LOGTAG = "ProcessingService";
@@ -43,6 +46,10 @@ public class ProcessingService extends Service {
     private int mNotificationId;
     private NotificationManager mNotifyMgr = null;
     private Notification.Builder mBuilder = null;
+    // The batches have their own notification, so a save running at the
+    // same time keeps its own.
+    private static final int BATCH_NOTIFICATION_ID = 1;
+    private Notification.Builder mBatchBuilder = null;
 
     private static final String PRESET = "preset";
     private static final String QUALITY = "quality";
@@ -53,6 +60,9 @@ public class ProcessingService extends Service {
     private static final String FLATTEN = "flatten";
     private static final String SIZE_FACTOR = "sizeFactor";
     private static final String EXIT = "exit";
+    private static final String BATCH = "batch";
+    private static final String BATCH_URIS = "batchUris";
+    private static final String BATCH_CANCEL = "batchCancel";
 
     private ProcessingTaskController mProcessingTaskController;
     private ImageSavingTask mImageSavingTask;
@@ -60,6 +70,7 @@ public class ProcessingService extends Service {
     private HighresRenderingRequestTask mHighresRenderingRequestTask;
     private FullresRenderingRequestTask mFullresRenderingRequestTask;
     private RenderingRequestTask mRenderingRequestTask;
+    private BatchApplyTask mBatchApplyTask;
 
     private final IBinder mBinder = new LocalBinder();
     private FilterShowActivity mFiltershowActivity;
@@ -125,6 +136,7 @@ public class ProcessingService extends Service {
     }
 
     public void setPreviewScaleFactor(float previewScale) {
+        mUpdatePreviewTask.setPreviewScaleFactor(previewScale);
         mHighresRenderingRequestTask.setPreviewScaleFactor(previewScale);
         mFullresRenderingRequestTask.setPreviewScaleFactor(previewScale);
         mRenderingRequestTask.setPreviewScaleFactor(previewScale);
@@ -153,8 +165,7 @@ public class ProcessingService extends Service {
         if (destination != null) {
             processIntent.putExtra(ProcessingService.DESTINATION_FILE, destination.toString());
         }
-        processIntent.putExtra(ProcessingService.PRESET,
-                preset.getJsonString(ImagePreset.JASON_SAVED));
+        processIntent.putExtra(ProcessingService.PRESET, preset.getBinary());
         processIntent.putExtra(ProcessingService.SAVING, true);
         processIntent.putExtra(ProcessingService.EXIT, needsExit);
         if (doFlatten) {
@@ -163,6 +174,40 @@ public class ProcessingService extends Service {
         return processIntent;
     }
 
+    /**
+     * Returns an intent applying the given preset to all the uris,
+     * each result being saved as an edit of its source image.
+     */
+    public static Intent getBatchIntent(Context context, ImagePreset preset,
+            ArrayList<Uri> uris, int quality) {
+        Intent processIntent = new Intent(context, ProcessingService.class);
+        processIntent.putExtra(ProcessingService.PRESET, preset.getBinary());
+        processIntent.putParcelableArrayListExtra(ProcessingService.BATCH_URIS, uris);
+        processIntent.putExtra(ProcessingService.QUALITY, quality);
+        processIntent.putExtra(ProcessingService.BATCH, true);
+        return processIntent;
+    }
+
+    /**
+     * Same as above, with the preset given in JSON, as the user presets are
+     * stored. The preset is read in the service.
+     */
+    public static Intent getBatchIntent(Context context, String presetJson,
+            ArrayList<Uri> uris, int quality) {
+        Intent processIntent = new Intent(context, ProcessingService.class);
+        processIntent.putExtra(ProcessingService.PRESET, presetJson);
+        processIntent.putParcelableArrayListExtra(ProcessingService.BATCH_URIS, uris);
+        processIntent.putExtra(ProcessingService.QUALITY, quality);
+        processIntent.putExtra(ProcessingService.BATCH, true);
+        return processIntent;
+    }
+
+    public static Intent getBatchCancelIntent(Context context) {
+        Intent cancelIntent = new Intent(context, ProcessingService.class);
+        cancelIntent.putExtra(ProcessingService.BATCH_CANCEL, true);
+        return cancelIntent;
+    }
+
 
     @Override
     public void onCreate() {
@@ -172,6 +217,7 @@ public class ProcessingService extends Service {
         mHighresRenderingRequestTask = new HighresRenderingRequestTask();
         mFullresRenderingRequestTask = new FullresRenderingRequestTask();
         mRenderingRequestTask = new RenderingRequestTask();
+        mBatchApplyTask = new BatchApplyTask(this);
         mProcessingTaskController.add(mImageSavingTask);
         mProcessingTaskController.add(mUpdatePreviewTask);
         mProcessingTaskController.add(mHighresRenderingRequestTask);
@@ -182,17 +228,31 @@ public class ProcessingService extends Service {
 
     @Override
     public void onDestroy() {
+        mBatchApplyTask.release();
+        mUpdatePreviewTask.stop();
         tearDownPipeline();
         mProcessingTaskController.quit();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && intent.getBooleanExtra(BATCH_CANCEL, false)) {
+            mBatchApplyTask.cancel();
+            return START_NOT_STICKY;
+        }
+        if (intent != null && intent.getBooleanExtra(BATCH, false)) {
+            ArrayList<Uri> uris = intent.getParcelableArrayListExtra(BATCH_URIS);
+            int quality = intent.getIntExtra(QUALITY, 100);
+            ImagePreset preset = readPreset(intent);
+            if (uris != null && preset != null) {
+                handleBatchRequest(uris, preset, quality);
+            }
+            return START_NOT_STICKY;
+        }
         mNeedsAlive = true;
         if (intent != null && intent.getBooleanExtra(SAVING, false)) {
             // we save using an intent to keep the service around after the
             // activity has been destroyed.
-            String presetJson = intent.getStringExtra(PRESET);
             String source = intent.getStringExtra(SOURCE_URI);
             String selected = intent.getStringExtra(SELECTED_URI);
             String destination = intent.getStringExtra(DESTINATION_FILE);
@@ -209,8 +269,10 @@ public class ProcessingService extends Service {
             if (destination != null) {
                 destinationFile = new File(destination);
             }
-            ImagePreset preset = new ImagePreset();
-            preset.readJsonFromString(presetJson);
+            ImagePreset preset = readPreset(intent);
+            if (preset == null) {
+                preset = new ImagePreset();
+            }
             mNeedsAlive = false;
             mSaving = true;
             handleSaveRequest(sourceUri, selectedUri, destinationFile, preset,
@@ -220,6 +282,20 @@ public class ProcessingService extends Service {
         return START_REDELIVER_INTENT;
     }
 
+    // The preset is passed in the binary format, but we still accept JSON
+    private static ImagePreset readPreset(Intent intent) {
+        ImagePreset preset = new ImagePreset();
+        byte[] presetBinary = intent.getByteArrayExtra(PRESET);
+        if (presetBinary != null) {
+            return preset.readBinary(presetBinary) ? preset : null;
+        }
+        String presetJson = intent.getStringExtra(PRESET);
+        if (presetJson != null) {
+            return preset.readJsonFromString(presetJson) ? preset : null;
+        }
+        return null;
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return mBinder;
@@ -236,7 +312,7 @@ public class ProcessingService extends Service {
             File destinationFile, ImagePreset preset, Bitmap previewImage,
             boolean flatten, int quality, float sizeFactor, boolean exit) {
         mNotifyMgr = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        mNotifyMgr.cancelAll();
+        mNotifyMgr.cancel(mNotificationId);
 
         mBuilder =
                 new Notification.Builder(this)
@@ -254,6 +330,59 @@ public class ProcessingService extends Service {
                 preset, previewImage, flatten, quality, sizeFactor, exit);
     }
 
+    public void handleBatchRequest(ArrayList<Uri> uris, ImagePreset preset, int quality) {
+        if (mBatchApplyTask.isRunning() || uris.isEmpty()) {
+            return;
+        }
+        mNotifyMgr = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+
+        mBatchBuilder =
+                new Notification.Builder(this)
+                        .setSmallIcon(R.drawable.filtershow_button_fx)
+                        .setContentTitle(getString(R.string.filtershow_notification_batch_label))
+                        .setContentText(getString(R.string.filtershow_notification_message));
+        PendingIntent cancelIntent = PendingIntent.getService(this, 0,
+                getBatchCancelIntent(this), PendingIntent.FLAG_UPDATE_CURRENT);
+        if (ApiHelper.AT_LEAST_16) {
+            mBatchBuilder.addAction(android.R.drawable.ic_menu_close_clear_cancel,
+                    getString(android.R.string.cancel), cancelIntent);
+        } else {
+            mBatchBuilder.setContentIntent(cancelIntent);
+        }
+
+        startForeground(BATCH_NOTIFICATION_ID, mBatchBuilder.build());
+
+        mBatchApplyTask.apply(uris, preset, quality, new BatchApplyTask.Listener() {
+            @Override
+            public void onProgress(int max, int current) {
+                mBatchBuilder.setContentText(getString(
+                        R.string.filtershow_notification_batch_message, current, max));
+                mBatchBuilder.setProgress(max, current, false);
+                mNotifyMgr.notify(BATCH_NOTIFICATION_ID, mBatchBuilder.build());
+            }
+
+            @Override
+            public void onDone(int succeeded, int failed, boolean cancelled) {
+                Log.v(LOGTAG, "batch done, " + succeeded + " saved, " + failed
+                        + " failed" + (cancelled ? " (cancelled)" : ""));
+                completeBatch();
+            }
+        });
+    }
+
+    private void completeBatch() {
+        if (mSaving) {
+            // Keep the service in the foreground for the save.
+            startForeground(mNotificationId, mBuilder.build());
+        } else {
+            stopForeground(true);
+        }
+        mNotifyMgr.cancel(BATCH_NOTIFICATION_ID);
+        if (!mSaving) {
+            stopSelf();
+        }
+    }
+
     public void updateNotificationWithBitmap(Bitmap bitmap) {
         mBuilder.setLargeIcon(bitmap);
         mNotifyMgr.notify(mNotificationId, mBuilder.build());
@@ -277,14 +406,20 @@ public class ProcessingService extends Service {
             viewImage.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             startActivity(viewImage);
         }
-        mNotifyMgr.cancel(mNotificationId);
-        if (!exit) {
+        mSaving = false;
+        if (mBatchApplyTask.isRunning()) {
+            // Keep the service in the foreground for the batch.
+            startForeground(BATCH_NOTIFICATION_ID, mBatchBuilder.build());
+        } else {
             stopForeground(true);
+        }
+        mNotifyMgr.cancel(mNotificationId);
+        if (!mBatchApplyTask.isRunning()) {
             stopSelf();
+        }
+        if (!exit) {
             return;
         }
-        stopForeground(true);
-        stopSelf();
         if (mNeedsAlive) {
             // If the app has been restarted while we were saving...
             mFiltershowActivity.updateUIAfterServiceStarted();
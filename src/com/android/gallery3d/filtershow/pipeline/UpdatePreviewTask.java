@@ -17,36 +17,112 @@
 package com.android.gallery3d.filtershow.pipeline;
 
 import android.graphics.Bitmap;
+import android.os.Handler;
 
 import com.android.gallery3d.filtershow.filters.FiltersManager;
 import com.android.gallery3d.filtershow.imageshow.MasterImage;
 
 public class UpdatePreviewTask extends ProcessingTask {
     private static final String LOGTAG = "UpdatePreviewTask";
+    // Size of the low resolution pass relative to the preview
+    private static final int LOWRES_DOWNSAMPLE = 2;
+    // Below this size (in pixels) the preview is cheap enough to skip the low res pass
+    private static final int LOWRES_MIN_SIZE = 256 * 256;
+
     private CachingPipeline mPreviewPipeline = null;
+    private CachingPipeline mLowresPreviewPipeline = null;
+    private Bitmap mLowresOriginal = null;
+    private volatile boolean mHasLowresOriginal = false;
+    private float mPreviewScaleFactor = 1.0f;
     private boolean mHasUnhandledPreviewRequest = false;
     private boolean mPipelineIsOn = false;
 
+    private PreviewRenderScheduler mScheduler = new PreviewRenderScheduler();
+    private Handler mHandler = new Handler();
+    private Runnable mSettleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mScheduler.onSettled()) {
+                requestRender();
+            }
+        }
+    };
+
+    static class PreviewResult implements Result {
+        boolean lowres;
+    }
+
     public UpdatePreviewTask() {
         mPreviewPipeline = new CachingPipeline(
                 FiltersManager.getPreviewManager(), "Preview");
+        mLowresPreviewPipeline = new CachingPipeline(
+                FiltersManager.getPreviewManager(), "PreviewLowres");
     }
 
     public void setOriginal(Bitmap bitmap) {
         mPreviewPipeline.setOriginal(bitmap);
+        int w = bitmap.getWidth() / LOWRES_DOWNSAMPLE;
+        int h = bitmap.getHeight() / LOWRES_DOWNSAMPLE;
+        if (w * h >= LOWRES_MIN_SIZE) {
+            // The pipeline recycles the previous low res original
+            mLowresOriginal = Bitmap.createScaledBitmap(bitmap, w, h, true);
+            mLowresPreviewPipeline.setOriginal(mLowresOriginal);
+            setPreviewScaleFactor(mPreviewScaleFactor);
+            mHasLowresOriginal = true;
+        } else {
+            releaseLowresOriginal();
+        }
+        mScheduler.reset();
         mPipelineIsOn = true;
     }
 
+    // The low res pass renders a smaller image, so the filters depending on
+    // the scale (stroke widths, sharpening...) must see a smaller scale to
+    // look the same as in the full pass.
+    public void setPreviewScaleFactor(float previewScale) {
+        mPreviewScaleFactor = previewScale;
+        mPreviewPipeline.setPreviewScaleFactor(previewScale);
+        mLowresPreviewPipeline.setPreviewScaleFactor(previewScale / LOWRES_DOWNSAMPLE);
+    }
+
+    public void stop() {
+        mPipelineIsOn = false;
+        mPreviewPipeline.stop();
+        mLowresPreviewPipeline.stop();
+        releaseLowresOriginal();
+    }
+
+    // Frees the low res original and the allocations made for it.
+    private void releaseLowresOriginal() {
+        mHasLowresOriginal = false;
+        mLowresPreviewPipeline.reset();
+        if (mLowresOriginal != null) {
+            mLowresOriginal.recycle();
+            mLowresOriginal = null;
+        }
+    }
+
     public void updatePreview() {
         if (!mPipelineIsOn) {
             return;
         }
+        mScheduler.onRequest();
+        mHandler.removeCallbacks(mSettleRunnable);
+        mHandler.postDelayed(mSettleRunnable, PreviewRenderScheduler.SETTLE_DELAY);
+        requestRender();
+    }
+
+    private void requestRender() {
         mHasUnhandledPreviewRequest = true;
         if (postRequest(null)) {
             mHasUnhandledPreviewRequest = false;
         }
     }
 
+    public PreviewRenderScheduler getScheduler() {
+        return mScheduler;
+    }
+
     @Override
     public boolean isPriorityTask() {
         return true;
@@ -57,21 +133,30 @@ public class UpdatePreviewTask extends ProcessingTask {
         SharedBuffer buffer = MasterImage.getImage().getPreviewBuffer();
         SharedPreset preset = MasterImage.getImage().getPreviewPreset();
         ImagePreset renderingPreset = preset.dequeuePreset();
+        PreviewResult result = new PreviewResult();
         if (renderingPreset != null) {
-            mPreviewPipeline.compute(buffer, renderingPreset, 0);
+            // While the user is still dragging, render a quick low res pass;
+            // the full pass is requested once the input settles.
+            result.lowres = mHasLowresOriginal && mScheduler.useLowresPass();
+            CachingPipeline pipeline = result.lowres ? mLowresPreviewPipeline : mPreviewPipeline;
+            pipeline.compute(buffer, renderingPreset, 0);
             // set the preset we used in the buffer for later inspection UI-side
             buffer.getProducer().setPreset(renderingPreset);
             buffer.getProducer().sync();
             buffer.swapProducer(); // push back the result
         }
-        return null;
+        return result;
     }
 
     @Override
     public void onResult(Result message) {
         MasterImage.getImage().notifyObservers();
+        if (message != null
+                && mScheduler.onFrameDisplayed(((PreviewResult) message).lowres)) {
+            mHasUnhandledPreviewRequest = true;
+        }
         if (mHasUnhandledPreviewRequest) {
-            updatePreview();
+            requestRender();
         }
     }
 
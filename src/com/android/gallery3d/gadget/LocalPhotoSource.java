@@ -17,6 +17,7 @@
 package com.android.gallery3d.gadget;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
@@ -44,7 +45,7 @@ public class LocalPhotoSource implements WidgetSource {
     @SuppressWarnings("unused")
     private static final String TAG = "LocalPhotoSource";
 
-    private static final int MAX_PHOTO_COUNT = 128;
+    static final int MAX_PHOTO_COUNT = 128;
 
     /* Static fields used to query for the correct set of images */
     private static final Uri CONTENT_URI = Media.EXTERNAL_CONTENT_URI;
@@ -61,6 +62,9 @@ public class LocalPhotoSource implements WidgetSource {
     private ContentListener mContentListener;
     private ContentObserver mContentObserver;
     private boolean mContentDirty = true;
+    // The ids of the photos changed since the last reload, or null if a change
+    // is not known to be of a single photo and all the photos must be checked.
+    private HashSet<Long> mChangedIds = new HashSet<Long>();
     private DataManager mDataManager;
     private static final Path LOCAL_IMAGE_ROOT = Path.fromString("/local/image/item");
 
@@ -70,8 +74,13 @@ public class LocalPhotoSource implements WidgetSource {
         mContentObserver = new ContentObserver(new Handler()) {
             @Override
             public void onChange(boolean selfChange) {
-                mContentDirty = true;
-                if (mContentListener != null) mContentListener.onContentDirty();
+                onPhotoChanged(null);
+            }
+
+            // Only called since JB, with the uri of the changed photo.
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onPhotoChanged(uri);
             }
         };
         mContext.getContentResolver()
@@ -101,7 +110,30 @@ public class LocalPhotoSource implements WidgetSource {
                 mDataManager.getMediaObject(LOCAL_IMAGE_ROOT.getChild(id));
         if (image == null) return null;
 
-        return WidgetUtils.createWidgetBitmap(image);
+        return WidgetBitmapCache.getWidgetBitmap(image);
+    }
+
+    private void onPhotoChanged(Uri uri) {
+        long id = getPhotoId(uri);
+        synchronized (this) {
+            mContentDirty = true;
+            if (id < 0) {
+                mChangedIds = null;
+            } else if (mChangedIds != null) {
+                mChangedIds.add(id);
+            }
+        }
+        if (mContentListener != null) mContentListener.onContentDirty();
+    }
+
+    private static long getPhotoId(Uri uri) {
+        if (uri == null) return -1;
+        try {
+            return ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            // A change of the whole table, not of a photo.
+            return -1;
+        }
     }
 
     private int[] getExponentialIndice(int total, int count) {
@@ -132,12 +164,24 @@ public class LocalPhotoSource implements WidgetSource {
         }
     }
 
-    private boolean isContentSound(int totalCount) {
+    // Checks that the chosen photos still exist. Only the ones reported by
+    // the content observer are looked up, unless changedIds is null.
+    private boolean isContentSound(int totalCount, HashSet<Long> changedIds) {
         if (mPhotos.size() < Math.min(totalCount, MAX_PHOTO_COUNT)) return false;
         if (mPhotos.size() == 0) return true; // totalCount is also 0
+        if (changedIds == null) return countPhotos(mPhotos) == mPhotos.size();
+
+        ArrayList<Long> ids = new ArrayList<Long>();
+        for (Long imageId : changedIds) {
+            if (mPhotos.contains(imageId)) ids.add(imageId);
+        }
+        return ids.isEmpty() || countPhotos(ids) == ids.size();
+    }
 
+    // Returns how many of the photos exist.
+    private int countPhotos(ArrayList<Long> ids) {
         StringBuilder builder = new StringBuilder();
-        for (Long imageId : mPhotos) {
+        for (Long imageId : ids) {
             if (builder.length() > 0) builder.append(",");
             builder.append(imageId);
         }
@@ -145,10 +189,10 @@ public class LocalPhotoSource implements WidgetSource {
                 CONTENT_URI, COUNT_PROJECTION,
                 String.format("%s in (%s)", Media._ID, builder.toString()),
                 null, null);
-        if (cursor == null) return false;
+        if (cursor == null) return -1;
         try {
             Utils.assertTrue(cursor.moveToNext());
-            return cursor.getInt(0) == mPhotos.size();
+            return cursor.getInt(0);
         } finally {
             cursor.close();
         }
@@ -156,12 +200,17 @@ public class LocalPhotoSource implements WidgetSource {
 
     @Override
     public void reload() {
-        if (!mContentDirty) return;
-        mContentDirty = false;
+        HashSet<Long> changedIds;
+        synchronized (this) {
+            if (!mContentDirty) return;
+            mContentDirty = false;
+            changedIds = mChangedIds;
+            mChangedIds = new HashSet<Long>();
+        }
 
         ContentResolver resolver = mContext.getContentResolver();
         int photoCount = getPhotoCount(resolver);
-        if (isContentSound(photoCount)) return;
+        if (isContentSound(photoCount, changedIds)) return;
 
         int choosedIds[] = getExponentialIndice(photoCount, MAX_PHOTO_COUNT);
         Arrays.sort(choosedIds);
@@ -169,7 +169,7 @@ public class MediaSetSource implements WidgetSource, ContentListener {
         public synchronized Bitmap getImage(int index) {
             ensureCacheRange(index);
             if (index < mCacheStart || index >= mCacheEnd) return null;
-            return WidgetUtils.createWidgetBitmap(mCache[index - mCacheStart]);
+            return WidgetBitmapCache.getWidgetBitmap(mCache[index - mCacheStart]);
         }
 
         @Override
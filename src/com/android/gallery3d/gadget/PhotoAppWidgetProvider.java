@@ -136,4 +136,10 @@ public class PhotoAppWidgetProvider extends AppWidgetProvider {
         }
         helper.close();
     }
+
+    @Override
+    public void onDisabled(Context context) {
+        // The last widget is removed, the bitmaps will not be asked again.
+        WidgetBitmapCache.clear();
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.gadget;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.android.gallery3d.data.MediaItem;
+
+// WidgetBitmapCache keeps the bitmaps already scaled for the stack widgets, so
+// the launcher asking for the same views again (e.g. each time it resumes)
+// does not decode and scale the thumbnails again. It is shared by the widgets
+// of the process.
+//
+// The cache can hold the bitmaps of all the photos a stack widget shows, but
+// not more than 1/HEAP_FRACTION of the heap.
+public class WidgetBitmapCache {
+    @SuppressWarnings("unused")
+    private static final String TAG = "WidgetBitmapCache";
+
+    private static final int HEAP_FRACTION = 8;
+
+    private static final LruCache<String, Bitmap> sCache =
+            new LruCache<String, Bitmap>(getMaxBytes()) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    private WidgetBitmapCache() {
+    }
+
+    // The sizes of the widget bitmaps are known once the WidgetUtils are
+    // initialized, which is done when the application is created.
+    private static int getMaxBytes() {
+        long bytes = (long) LocalPhotoSource.MAX_PHOTO_COUNT
+                * WidgetUtils.getWidgetBitmapByteCount();
+        return (int) Math.min(bytes, Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+    }
+
+    // Returns the widget bitmap of the item, from the cache or made from the
+    // thumbnail of the item (which is read from the ImageCacheService if it
+    // is there). The returned bitmap is shared and must not be modified.
+    public static Bitmap getWidgetBitmap(MediaItem item) {
+        // A new data version means the image or its rotation has changed.
+        String key = item.getPath() + "+" + item.getDataVersion();
+        Bitmap bitmap = sCache.get(key);
+        if (bitmap != null) return bitmap;
+
+        bitmap = WidgetUtils.createWidgetBitmap(item);
+        if (bitmap != null) sCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    public static void clear() {
+        sCache.evictAll();
+    }
+}
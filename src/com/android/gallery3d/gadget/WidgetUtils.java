@@ -44,6 +44,11 @@ public class WidgetUtils {
         sStackPhotoHeight = r.getDimensionPixelSize(R.dimen.stack_photo_height);
     }
 
+    // The bytes of each bitmap made by createWidgetBitmap().
+    public static int getWidgetBitmapByteCount() {
+        return sStackPhotoWidth * sStackPhotoHeight * 4; // ARGB_8888
+    }
+
     public static Bitmap createWidgetBitmap(MediaItem image) {
         Bitmap bitmap = image.requestImage(MediaItem.TYPE_THUMBNAIL)
                .run(ThreadPool.JOB_CONTEXT_STUB);
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.glrenderer;
+
+import android.opengl.ETC1;
+import android.opengl.ETC1Util;
+import android.opengl.ETC1Util.ETC1Texture;
+
+import junit.framework.Assert;
+
+import java.nio.ByteBuffer;
+
+import javax.microedition.khronos.opengles.GL11;
+
+// CompressedTexture is a texture whose content is given as ETC1 data of the
+// texture size. The data is uploaded as it is, so it must only be used when
+// isETC1Supported() is true; the callers use bitmaps otherwise.
+//
+// The data is kept, so the texture can be uploaded again after it is yielded.
+public class CompressedTexture extends BasicTexture {
+    @SuppressWarnings("unused")
+    private static final String TAG = "CompressedTexture";
+
+    // Set on the GL thread when the surface is created, read on any thread.
+    private static volatile boolean sETC1Supported;
+
+    private final ETC1Texture mData;
+
+    public CompressedTexture(ETC1Texture data, int width, int height) {
+        mData = data;
+        setSize(width, height);
+        Assert.assertTrue(data.getWidth() == getTextureWidth()
+                && data.getHeight() == getTextureHeight());
+    }
+
+    // Must be called on the GL thread, with the GL context current.
+    public static void checkETC1Support() {
+        sETC1Supported = ETC1Util.isETC1Supported();
+    }
+
+    // Returns false until checkETC1Support() is called.
+    public static boolean isETC1Supported() {
+        return sETC1Supported;
+    }
+
+    private void upload(GLCanvas canvas) {
+        mId = canvas.getGLId().generateTexture();
+        canvas.setTextureParameters(this);
+        ByteBuffer data = mData.getData();
+        data.position(0);
+        canvas.initializeCompressedTexture(this, ETC1.ETC1_RGB8_OES, data);
+        setAssociatedCanvas(canvas);
+        mState = STATE_LOADED;
+    }
+
+    @Override
+    protected boolean onBind(GLCanvas canvas) {
+        if (!isLoaded()) upload(canvas);
+        return true;
+    }
+
+    @Override
+    protected int getTarget() {
+        return GL11.GL_TEXTURE_2D;
+    }
+
+    @Override
+    public boolean isOpaque() {
+        return true;
+    }
+}
@@ -24,20 +24,37 @@ public class FadeInTexture extends FadeTexture implements Texture {
     private static final String TAG = "FadeInTexture";
 
     private final int mColor;
-    private final TiledTexture mTexture;
+    private final TextureAtlas.Cell mCell;
+    private final BasicTexture mTexture;
 
-    public FadeInTexture(int color, TiledTexture texture) {
+    public FadeInTexture(int color, TextureAtlas.Cell texture) {
         super(texture.getWidth(), texture.getHeight(), texture.isOpaque());
         mColor = color;
+        mCell = texture;
+        mTexture = null;
+    }
+
+    public FadeInTexture(int color, BasicTexture texture) {
+        super(texture.getWidth(), texture.getHeight(), texture.isOpaque());
+        mColor = color;
+        mCell = null;
         mTexture = texture;
     }
 
     @Override
     public void draw(GLCanvas canvas, int x, int y, int w, int h) {
-        if (isAnimating()) {
-            mTexture.drawMixed(canvas, mColor, getRatio(), x, y, w, h);
+        if (mCell != null) {
+            if (isAnimating()) {
+                mCell.drawMixed(canvas, mColor, getRatio(), x, y, w, h);
+            } else {
+                mCell.draw(canvas, x, y, w, h);
+            }
         } else {
-            mTexture.draw(canvas, x, y, w, h);
+            if (isAnimating()) {
+                canvas.drawMixed(mTexture, mColor, getRatio(), x, y, w, h);
+            } else {
+                mTexture.draw(canvas, x, y, w, h);
+            }
         }
     }
 }
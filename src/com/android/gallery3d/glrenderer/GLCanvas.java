@@ -134,6 +134,10 @@ public interface GLCanvas {
     // Dump statistics information and clear the counters. For debug only.
     public abstract void dumpStatisticsAndClear();
 
+    // Issues the drawing that the canvas may have deferred to draw it in
+    // fewer calls. It is called at the end of each frame.
+    public abstract void flush();
+
     public abstract void beginRenderTarget(RawTexture texture);
 
     public abstract void endRenderTarget();
@@ -165,6 +169,17 @@ public interface GLCanvas {
      */
     public abstract void initializeTexture(BasicTexture texture, Bitmap bitmap);
 
+    /**
+     * Calls glCompressedTexImage2D to upload compressed data of the texture
+     * size to the texture.
+     *
+     * @param texture The target texture to initialize.
+     * @param internalFormat The compressed format of the data.
+     * @param data The compressed data, from its position to its limit.
+     */
+    public abstract void initializeCompressedTexture(BasicTexture texture,
+            int internalFormat, java.nio.Buffer data);
+
     /**
      * Calls glTexSubImage2D to upload a bitmap to the texture.
      *
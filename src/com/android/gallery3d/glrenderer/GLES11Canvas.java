@@ -817,6 +817,11 @@ public class GLES11Canvas implements GLCanvas {
         }
     }
 
+    @Override
+    public void flush() {
+        // Nothing is deferred, we draw each texture right away.
+    }
+
     @Override
     public void dumpStatisticsAndClear() {
         String line = String.format(
@@ -952,6 +957,16 @@ public class GLES11Canvas implements GLCanvas {
         GLUtils.texImage2D(target, 0, bitmap, 0);
     }
 
+    @Override
+    public void initializeCompressedTexture(BasicTexture texture, int internalFormat,
+            Buffer data) {
+        int target = texture.getTarget();
+        mGL.glBindTexture(target, texture.getId());
+        mGL.glCompressedTexImage2D(target, 0, internalFormat,
+                texture.getTextureWidth(), texture.getTextureHeight(), 0,
+                data.remaining(), data);
+    }
+
     @Override
     public void texSubImage2D(BasicTexture texture, int xOffset, int yOffset, Bitmap bitmap,
             int format, int type) {
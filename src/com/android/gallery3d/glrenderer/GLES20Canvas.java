@@ -29,6 +29,7 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -111,6 +112,25 @@ public class GLES20Canvas implements GLCanvas {
             + "  vTextureCoord = " + TEXTURE_COORD_ATTRIBUTE + ";\n"
             + "}\n";
 
+    // The positions of batched quads are already transformed by the
+    // model-view matrix, only the projection is left to the shader.
+    private static final String BATCH_VERTEX_SHADER = ""
+            + "uniform mat4 " + MATRIX_UNIFORM + ";\n"
+            + "attribute vec4 " + POSITION_ATTRIBUTE + ";\n"
+            + "attribute vec2 " + TEXTURE_COORD_ATTRIBUTE + ";\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "void main() {\n"
+            + "  gl_Position = " + MATRIX_UNIFORM + " * " + POSITION_ATTRIBUTE + ";\n"
+            + "  vTextureCoord = " + TEXTURE_COORD_ATTRIBUTE + ";\n"
+            + "}\n";
+
+    private static final String FILL_BATCH_VERTEX_SHADER = ""
+            + "uniform mat4 " + MATRIX_UNIFORM + ";\n"
+            + "attribute vec4 " + POSITION_ATTRIBUTE + ";\n"
+            + "void main() {\n"
+            + "  gl_Position = " + MATRIX_UNIFORM + " * " + POSITION_ATTRIBUTE + ";\n"
+            + "}\n";
+
     private static final String TEXTURE_FRAGMENT_SHADER = ""
             + "precision mediump float;\n"
             + "varying vec2 vTextureCoord;\n"
@@ -135,6 +155,14 @@ public class GLES20Canvas implements GLCanvas {
     private static final int INITIAL_RESTORE_STATE_SIZE = 8;
     private static final int MATRIX_SIZE = 16;
 
+    // Batched quads: 4 vertices of (x, y, z, w, u, v), drawn as 2 triangles.
+    private static final int MAX_BATCH_QUADS = 128;
+    private static final int BATCH_POSITION_SIZE = 4;
+    private static final int BATCH_VERTEX_SIZE = BATCH_POSITION_SIZE + COORDS_PER_VERTEX;
+    private static final int BATCH_VERTEX_STRIDE = BATCH_VERTEX_SIZE * FLOAT_SIZE;
+    private static final int BATCH_QUAD_SIZE = 4 * BATCH_VERTEX_SIZE;
+    private static final int BATCH_QUAD_INDICES = 6;
+
     // Keep track of restore state
     private float[] mMatrices = new float[INITIAL_RESTORE_STATE_SIZE * MATRIX_SIZE];
     private float[] mAlphas = new float[INITIAL_RESTORE_STATE_SIZE];
@@ -159,10 +187,30 @@ public class GLES20Canvas implements GLCanvas {
     private int mTextureProgram;
     private int mOesTextureProgram;
     private int mMeshProgram;
+    private int mBatchProgram;
+    private int mFillBatchProgram;
 
     // GL buffer containing BOX_COORDINATES
     private int mBoxCoordinates;
 
+    // Textured quads and filled rectangles are not drawn right away.
+    // Consecutive quads drawn with the same program and texture (or color)
+    // are collected here, already transformed by the current matrix, and
+    // drawn with a single call by flush(). The batch is flushed before any
+    // other drawing or texture upload, when the texture or the alpha changes
+    // and at the end of a frame.
+    private final float[] mBatchVertices = new float[MAX_BATCH_QUADS * BATCH_QUAD_SIZE];
+    private final FloatBuffer mBatchVertexBuffer = ByteBuffer
+            .allocateDirect(mBatchVertices.length * FLOAT_SIZE)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final ShortBuffer mBatchIndexBuffer = createBatchIndices();
+    private BasicTexture mBatchTexture; // null for filled rectangles
+    private int mBatchTextureId;
+    private float mBatchAlpha;
+    private final float[] mBatchColor = new float[4];
+    private boolean mBatchBlending;
+    private int mBatchQuadCount = 0;
+
     // Handle indices -- common
     private static final int INDEX_POSITION = 0;
     private static final int INDEX_MATRIX = 1;
@@ -239,6 +287,18 @@ public class GLES20Canvas implements GLCanvas {
             new UniformShaderParameter(TEXTURE_SAMPLER_UNIFORM), // INDEX_TEXTURE_SAMPLER
             new UniformShaderParameter(ALPHA_UNIFORM), // INDEX_ALPHA
     };
+    ShaderParameter[] mFillBatchParameters = {
+            new AttributeShaderParameter(POSITION_ATTRIBUTE), // INDEX_POSITION
+            new UniformShaderParameter(MATRIX_UNIFORM), // INDEX_MATRIX
+            new UniformShaderParameter(COLOR_UNIFORM), // INDEX_COLOR
+    };
+    ShaderParameter[] mBatchParameters = {
+            new AttributeShaderParameter(POSITION_ATTRIBUTE), // INDEX_POSITION
+            new UniformShaderParameter(MATRIX_UNIFORM), // INDEX_MATRIX
+            new AttributeShaderParameter(TEXTURE_COORD_ATTRIBUTE), // INDEX_TEXTURE_COORD
+            new UniformShaderParameter(TEXTURE_SAMPLER_UNIFORM), // INDEX_TEXTURE_SAMPLER
+            new UniformShaderParameter(ALPHA_UNIFORM), // INDEX_ALPHA
+    };
 
     private final IntArray mUnboundTextures = new IntArray();
     private final IntArray mDeleteBuffers = new IntArray();
@@ -248,6 +308,7 @@ public class GLES20Canvas implements GLCanvas {
     private int mCountTextureRect = 0;
     private int mCountFillRect = 0;
     private int mCountDrawLine = 0;
+    private int mCountBatch = 0;
 
     // Buffer for framebuffer IDs -- we keep track so we can switch the attached
     // texture.
@@ -278,6 +339,9 @@ public class GLES20Canvas implements GLCanvas {
         int drawVertexShader = loadShader(GLES20.GL_VERTEX_SHADER, DRAW_VERTEX_SHADER);
         int textureVertexShader = loadShader(GLES20.GL_VERTEX_SHADER, TEXTURE_VERTEX_SHADER);
         int meshVertexShader = loadShader(GLES20.GL_VERTEX_SHADER, MESH_VERTEX_SHADER);
+        int batchVertexShader = loadShader(GLES20.GL_VERTEX_SHADER, BATCH_VERTEX_SHADER);
+        int fillBatchVertexShader = loadShader(GLES20.GL_VERTEX_SHADER,
+                FILL_BATCH_VERTEX_SHADER);
         int drawFragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, DRAW_FRAGMENT_SHADER);
         int textureFragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, TEXTURE_FRAGMENT_SHADER);
         int oesTextureFragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER,
@@ -289,6 +353,10 @@ public class GLES20Canvas implements GLCanvas {
         mOesTextureProgram = assembleProgram(textureVertexShader, oesTextureFragmentShader,
                 mOesTextureParameters);
         mMeshProgram = assembleProgram(meshVertexShader, textureFragmentShader, mMeshParameters);
+        mBatchProgram = assembleProgram(batchVertexShader, textureFragmentShader,
+                mBatchParameters);
+        mFillBatchProgram = assembleProgram(fillBatchVertexShader, drawFragmentShader,
+                mFillBatchParameters);
         GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         checkError();
     }
@@ -302,6 +370,23 @@ public class GLES20Canvas implements GLCanvas {
         return buffer;
     }
 
+    private static ShortBuffer createBatchIndices() {
+        short[] indices = new short[MAX_BATCH_QUADS * BATCH_QUAD_INDICES];
+        for (int i = 0, v = 0; i < indices.length; i += BATCH_QUAD_INDICES, v += 4) {
+            // Vertices are top-left, top-right, bottom-left, bottom-right.
+            indices[i] = (short) v;
+            indices[i + 1] = (short) (v + 1);
+            indices[i + 2] = (short) (v + 2);
+            indices[i + 3] = (short) (v + 2);
+            indices[i + 4] = (short) (v + 1);
+            indices[i + 5] = (short) (v + 3);
+        }
+        ShortBuffer buffer = ByteBuffer.allocateDirect(indices.length * Short.SIZE / Byte.SIZE)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        buffer.put(indices, 0, indices.length).position(0);
+        return buffer;
+    }
+
     private int assembleProgram(int vertexShader, int fragmentShader, ShaderParameter[] params) {
         int program = GLES20.glCreateProgram();
         checkError();
@@ -344,6 +429,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void setSize(int width, int height) {
+        flush();
         mWidth = width;
         mHeight = height;
         GLES20.glViewport(0, 0, mWidth, mHeight);
@@ -360,6 +446,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void clearBuffer() {
+        flush();
         GLES20.glClearColor(0f, 0f, 0f, 1f);
         checkError();
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
@@ -368,6 +455,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void clearBuffer(float[] argb) {
+        flush();
         GLES20.glClearColor(argb[1], argb[2], argb[3], argb[0]);
         checkError();
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
@@ -500,6 +588,7 @@ public class GLES20Canvas implements GLCanvas {
     }
 
     private void prepareDraw(int offset, int color, float lineWidth) {
+        flush();
         GLES20.glUseProgram(mDrawProgram);
         checkError();
         if (lineWidth > 0) {
@@ -573,9 +662,8 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void fillRect(float x, float y, float width, float height, int color) {
-        draw(GLES20.GL_TRIANGLE_STRIP, OFFSET_FILL_RECT, COUNT_FILL_VERTEX, x, y, width, height,
-                color, 0f);
-        mCountFillRect++;
+        mTempTargetRect.set(x, y, x + width, y + height);
+        batchFillRect(mTempTargetRect, color);
     }
 
     @Override
@@ -626,6 +714,11 @@ public class GLES20Canvas implements GLCanvas {
     }
 
     private void drawTextureRect(BasicTexture texture, RectF source, RectF target) {
+        // External (OES) textures need another program, they are not batched.
+        if (texture.getTarget() == GLES20.GL_TEXTURE_2D) {
+            batchTextureRect(texture, source, target);
+            return;
+        }
         setTextureMatrix(source);
         drawTextureRect(texture, mTempTextureMatrix, target);
     }
@@ -698,6 +791,7 @@ public class GLES20Canvas implements GLCanvas {
     }
 
     private void prepareTexture(BasicTexture texture, int program, ShaderParameter[] params) {
+        flush();
         GLES20.glUseProgram(program);
         checkError();
         enableBlending(!texture.isOpaque() || getAlpha() < OPAQUE_ALPHA);
@@ -712,6 +806,137 @@ public class GLES20Canvas implements GLCanvas {
         checkError();
     }
 
+    private void batchTextureRect(BasicTexture texture, RectF source, RectF target) {
+        // Binding may upload the texture, which flushes the pending quads.
+        texture.onBind(this);
+        float alpha = getAlpha();
+        if (mBatchQuadCount == MAX_BATCH_QUADS || mBatchTexture != texture
+                || mBatchAlpha != alpha) {
+            flush();
+        }
+        if (mBatchQuadCount == 0) {
+            mBatchTexture = texture;
+            // The texture may be recycled before the batch is drawn.
+            mBatchTextureId = texture.getId();
+            mBatchAlpha = alpha;
+            mBatchBlending = !texture.isOpaque() || alpha < OPAQUE_ALPHA;
+        }
+        float top = source.top;
+        float bottom = source.bottom;
+        if (texture.isFlippedVertically()) {
+            top = source.bottom;
+            bottom = source.top;
+        }
+        putBatchQuad(target, source.left, top, source.right, bottom);
+        mCountTextureRect++;
+    }
+
+    private void batchFillRect(RectF target, int color) {
+        float[] colorArray = getColor(color);
+        float[] batchColor = mBatchColor;
+        if (mBatchQuadCount == MAX_BATCH_QUADS || mBatchTexture != null
+                || !Arrays.equals(batchColor, colorArray)) {
+            flush();
+        }
+        if (mBatchQuadCount == 0) {
+            System.arraycopy(colorArray, 0, batchColor, 0, batchColor.length);
+            mBatchBlending = colorArray[3] < 1f;
+        }
+        putBatchQuad(target, 0, 0, 0, 0);
+        mCountFillRect++;
+    }
+
+    // Adds the target rectangle, transformed by the current matrix, and its
+    // texture coordinates to the batch.
+    private void putBatchQuad(RectF target, float u0, float v0, float u1, float v1) {
+        int offset = mBatchQuadCount * BATCH_QUAD_SIZE;
+        offset = putBatchVertex(offset, target.left, target.top, u0, v0);
+        offset = putBatchVertex(offset, target.right, target.top, u1, v0);
+        offset = putBatchVertex(offset, target.left, target.bottom, u0, v1);
+        putBatchVertex(offset, target.right, target.bottom, u1, v1);
+        mBatchQuadCount++;
+    }
+
+    private int putBatchVertex(int offset, float x, float y, float u, float v) {
+        float[] m = mMatrices;
+        int index = mCurrentMatrixIndex;
+        float[] vertices = mBatchVertices;
+        vertices[offset++] = m[index + 0] * x + m[index + 4] * y + m[index + 12];
+        vertices[offset++] = m[index + 1] * x + m[index + 5] * y + m[index + 13];
+        vertices[offset++] = m[index + 2] * x + m[index + 6] * y + m[index + 14];
+        vertices[offset++] = m[index + 3] * x + m[index + 7] * y + m[index + 15];
+        vertices[offset++] = u;
+        vertices[offset++] = v;
+        return offset;
+    }
+
+    @Override
+    public void flush() {
+        int quadCount = mBatchQuadCount;
+        if (quadCount == 0) return;
+        mBatchQuadCount = 0;
+        BasicTexture texture = mBatchTexture;
+        mBatchTexture = null;
+
+        ShaderParameter[] params;
+        if (texture == null) {
+            params = mFillBatchParameters;
+            GLES20.glUseProgram(mFillBatchProgram);
+            checkError();
+            enableBlending(mBatchBlending);
+            GLES20.glUniform4fv(params[INDEX_COLOR].handle, 1, mBatchColor, 0);
+            checkError();
+        } else {
+            params = mBatchParameters;
+            GLES20.glUseProgram(mBatchProgram);
+            checkError();
+            enableBlending(mBatchBlending);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            checkError();
+            GLES20.glBindTexture(texture.getTarget(), mBatchTextureId);
+            checkError();
+            GLES20.glUniform1i(params[INDEX_TEXTURE_SAMPLER].handle, 0);
+            checkError();
+            GLES20.glUniform1f(params[INDEX_ALPHA].handle, mBatchAlpha);
+            checkError();
+        }
+        GLES20.glUniformMatrix4fv(params[INDEX_MATRIX].handle, 1, false, mProjectionMatrix, 0);
+        checkError();
+
+        FloatBuffer vertices = mBatchVertexBuffer;
+        vertices.clear();
+        vertices.put(mBatchVertices, 0, quadCount * BATCH_QUAD_SIZE);
+        int positionHandle = params[INDEX_POSITION].handle;
+        vertices.position(0);
+        GLES20.glVertexAttribPointer(positionHandle, BATCH_POSITION_SIZE, GLES20.GL_FLOAT, false,
+                BATCH_VERTEX_STRIDE, vertices);
+        checkError();
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        checkError();
+        int texCoordHandle = -1;
+        if (texture != null) {
+            texCoordHandle = params[INDEX_TEXTURE_COORD].handle;
+            vertices.position(BATCH_POSITION_SIZE);
+            GLES20.glVertexAttribPointer(texCoordHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
+                    false, BATCH_VERTEX_STRIDE, vertices);
+            checkError();
+            GLES20.glEnableVertexAttribArray(texCoordHandle);
+            checkError();
+        }
+
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, quadCount * BATCH_QUAD_INDICES,
+                GLES20.GL_UNSIGNED_SHORT, mBatchIndexBuffer);
+        checkError();
+
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        checkError();
+        if (texture != null) {
+            GLES20.glDisableVertexAttribArray(texCoordHandle);
+            checkError();
+        }
+        mCountBatch++;
+    }
+
     @Override
     public void drawMesh(BasicTexture texture, int x, int y, int xyBuffer, int uvBuffer,
             int indexBuffer, int indexCount) {
@@ -802,6 +1027,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void deleteRecycledResources() {
+        flush();
         synchronized (mUnboundTextures) {
             IntArray ids = mUnboundTextures;
             if (mUnboundTextures.size() > 0) {
@@ -819,12 +1045,13 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void dumpStatisticsAndClear() {
-        String line = String.format("MESH:%d, TEX_RECT:%d, FILL_RECT:%d, LINE:%d", mCountDrawMesh,
-                mCountTextureRect, mCountFillRect, mCountDrawLine);
+        String line = String.format("MESH:%d, TEX_RECT:%d, FILL_RECT:%d, LINE:%d, BATCH:%d",
+                mCountDrawMesh, mCountTextureRect, mCountFillRect, mCountDrawLine, mCountBatch);
         mCountDrawMesh = 0;
         mCountTextureRect = 0;
         mCountFillRect = 0;
         mCountDrawLine = 0;
+        mCountBatch = 0;
         Log.d(TAG, line);
     }
 
@@ -849,6 +1076,7 @@ public class GLES20Canvas implements GLCanvas {
     }
 
     private void setRenderTarget(BasicTexture oldTexture, RawTexture texture) {
+        flush();
         if (oldTexture == null && texture != null) {
             GLES20.glGenFramebuffers(1, mFrameBuffer, 0);
             checkError();
@@ -902,6 +1130,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void setTextureParameters(BasicTexture texture) {
+        flush();
         int target = texture.getTarget();
         GLES20.glBindTexture(target, texture.getId());
         checkError();
@@ -913,6 +1142,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void initializeTextureSize(BasicTexture texture, int format, int type) {
+        flush();
         int target = texture.getTarget();
         GLES20.glBindTexture(target, texture.getId());
         checkError();
@@ -923,15 +1153,30 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void initializeTexture(BasicTexture texture, Bitmap bitmap) {
+        flush();
         int target = texture.getTarget();
         GLES20.glBindTexture(target, texture.getId());
         checkError();
         GLUtils.texImage2D(target, 0, bitmap, 0);
     }
 
+    @Override
+    public void initializeCompressedTexture(BasicTexture texture, int internalFormat,
+            Buffer data) {
+        flush();
+        int target = texture.getTarget();
+        GLES20.glBindTexture(target, texture.getId());
+        checkError();
+        GLES20.glCompressedTexImage2D(target, 0, internalFormat,
+                texture.getTextureWidth(), texture.getTextureHeight(), 0,
+                data.remaining(), data);
+        checkError();
+    }
+
     @Override
     public void texSubImage2D(BasicTexture texture, int xOffset, int yOffset, Bitmap bitmap,
             int format, int type) {
+        flush();
         int target = texture.getTarget();
         GLES20.glBindTexture(target, texture.getId());
         checkError();
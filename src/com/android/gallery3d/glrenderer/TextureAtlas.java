@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.glrenderer;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.ui.GLRoot;
+import com.android.gallery3d.util.IntArray;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import javax.microedition.khronos.opengles.GL11;
+
+// TextureAtlas packs small bitmaps of a common maximum size (like the
+// thumbnails or the labels of a grid) into a few large textures, the pages.
+// Each bitmap is given a cell of a page; the cell goes back to the atlas when
+// it is recycled, and is given to the next bitmap.
+//
+// All the cells of a page are drawn with the same texture, so drawing the
+// slots of a grid does not need to bind a texture per slot, and GLES20Canvas
+// draws consecutive cells of a page in a single call.
+//
+// The cells are uploaded one at a time, within the budget given by the
+// UploadScheduler of the GLRoot.
+public class TextureAtlas implements UploadScheduler.Client {
+    @SuppressWarnings("unused")
+    private static final String TAG = "TextureAtlas";
+
+    private static final int BORDER_SIZE = 1;
+    private static final int PAGE_SIZE = 2048;
+    private static final int INIT_CAPACITY = 8;
+
+    private final GLRoot mGlRoot;
+    private final UploadScheduler mScheduler;
+    private final boolean mOpaque;
+    private final Config mConfig;
+
+    private final int mCellWidth;
+    private final int mCellHeight;
+    private final int mColumns;
+    private final int mCellsPerPage;
+    private final int mPageWidth;
+    private final int mPageHeight;
+
+    private final ArrayList<Page> mPages = new ArrayList<Page>();
+    private final IntArray mFreeCells = new IntArray();
+
+    private final ArrayDeque<Cell> mFgCells = new ArrayDeque<Cell>(INIT_CAPACITY);
+    private final ArrayDeque<Cell> mBgCells = new ArrayDeque<Cell>(INIT_CAPACITY);
+
+    // Used on the GL thread only
+    private Bitmap mUploadBitmap;
+    private Canvas mCanvas;
+    private Paint mBitmapPaint;
+
+    static class Page extends BasicTexture {
+        private final boolean mOpaque;
+        private final int mFormat;
+        private final int mType;
+
+        public Page(int width, int height, boolean opaque, int format, int type) {
+            mOpaque = opaque;
+            mFormat = format;
+            mType = type;
+            setSize(width, height);
+        }
+
+        private void prepare(GLCanvas canvas) {
+            mId = canvas.getGLId().generateTexture();
+            canvas.initializeTextureSize(this, mFormat, mType);
+            canvas.setTextureParameters(this);
+            mState = STATE_LOADED;
+            setAssociatedCanvas(canvas);
+        }
+
+        @Override
+        protected boolean onBind(GLCanvas canvas) {
+            if (!isLoaded()) prepare(canvas);
+            return true;
+        }
+
+        @Override
+        protected int getTarget() {
+            return GL11.GL_TEXTURE_2D;
+        }
+
+        @Override
+        public boolean isOpaque() {
+            return mOpaque;
+        }
+
+        @Override
+        public void yield() {
+            // we cannot free the texture because the cells have no backup.
+        }
+    }
+
+    public class Cell implements Texture {
+        private final int mIndex;
+        private final Page mPage;
+        private final int mWidth;
+        private final int mHeight;
+        private final RectF mSrcRect = new RectF();
+        private final RectF mDestRect = new RectF();
+        private Bitmap mBitmap;  // not null until uploaded
+        private boolean mRecycled;
+
+        private Cell(int index, Bitmap bitmap) {
+            mIndex = index;
+            mPage = mPages.get(index / mCellsPerPage);
+            mBitmap = bitmap;
+
+            // Bitmaps larger than a cell are scaled down to fit.
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            float scale = Math.min(1f, Math.min(
+                    (float) mCellWidth / width, (float) mCellHeight / height));
+            mWidth = Math.max(1, Math.round(width * scale));
+            mHeight = Math.max(1, Math.round(height * scale));
+
+            int slot = index % mCellsPerPage;
+            int x = (slot % mColumns) * (mCellWidth + 2 * BORDER_SIZE);
+            int y = (slot / mColumns) * (mCellHeight + 2 * BORDER_SIZE);
+            mSrcRect.set(x + BORDER_SIZE, y + BORDER_SIZE,
+                    x + BORDER_SIZE + mWidth, y + BORDER_SIZE + mHeight);
+        }
+
+        public boolean isReady() {
+            synchronized (TextureAtlas.this) {
+                return mBitmap == null && !mRecycled;
+            }
+        }
+
+        // Gives the cell back to the atlas. Can be called in UI thread.
+        public void recycle() {
+            synchronized (TextureAtlas.this) {
+                if (mRecycled) return;
+                mRecycled = true;
+                mBitmap = null;
+                mFreeCells.add(mIndex);
+            }
+        }
+
+        private void upload(GLCanvas canvas, Bitmap bitmap) {
+            // Draw the bitmap with a border, so the cells next to it do not
+            // bleed in when the texture is filtered. Opaque pages have no
+            // alpha to fade out, so their border repeats the edge pixels:
+            // the bitmap is first drawn stretched over the border, then
+            // drawn in place over it.
+            if (mOpaque) {
+                mCanvas.save();
+                mCanvas.scale((float) (mWidth + 2 * BORDER_SIZE) / bitmap.getWidth(),
+                        (float) (mHeight + 2 * BORDER_SIZE) / bitmap.getHeight());
+                mCanvas.drawBitmap(bitmap, 0, 0, mBitmapPaint);
+                mCanvas.restore();
+            } else {
+                mUploadBitmap.eraseColor(0);
+            }
+            mCanvas.save();
+            mCanvas.translate(BORDER_SIZE, BORDER_SIZE);
+            mCanvas.scale((float) mWidth / bitmap.getWidth(),
+                    (float) mHeight / bitmap.getHeight());
+            mCanvas.drawBitmap(bitmap, 0, 0, mBitmapPaint);
+            mCanvas.restore();
+
+            mPage.onBind(canvas);
+            canvas.texSubImage2D(mPage,
+                    (int) mSrcRect.left - BORDER_SIZE, (int) mSrcRect.top - BORDER_SIZE,
+                    mUploadBitmap, mPage.mFormat, mPage.mType);
+        }
+
+        // Draws a mixed color of this texture and a specified color onto the
+        // a rectangle. The used color is: from * (1 - ratio) + to * ratio.
+        public void drawMixed(GLCanvas canvas, int color, float ratio,
+                int x, int y, int width, int height) {
+            mDestRect.set(x, y, x + width, y + height);
+            canvas.drawMixed(mPage, color, ratio, mSrcRect, mDestRect);
+        }
+
+        @Override
+        public void draw(GLCanvas canvas, int x, int y, int width, int height) {
+            mDestRect.set(x, y, x + width, y + height);
+            canvas.drawTexture(mPage, mSrcRect, mDestRect);
+        }
+
+        @Override
+        public void draw(GLCanvas canvas, int x, int y) {
+            draw(canvas, x, y, mWidth, mHeight);
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public boolean isOpaque() {
+            return mOpaque;
+        }
+    }
+
+    // Creates an atlas for bitmaps of at most cellWidth x cellHeight pixels.
+    public TextureAtlas(GLRoot glRoot, int cellWidth, int cellHeight, boolean opaque) {
+        this(glRoot, cellWidth, cellHeight, opaque, Config.ARGB_8888);
+    }
+
+    // The pages are stored in the given config, which is ARGB_8888 or, for
+    // opaque atlases, RGB_565 (half of the memory).
+    public TextureAtlas(GLRoot glRoot, int cellWidth, int cellHeight,
+            boolean opaque, Config config) {
+        Utils.assertTrue(cellWidth > 0 && cellHeight > 0);
+        Utils.assertTrue(config == Config.ARGB_8888
+                || (opaque && config == Config.RGB_565));
+        mGlRoot = glRoot;
+        mScheduler = glRoot.getUploadScheduler();
+        mOpaque = opaque;
+        mConfig = config;
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+
+        int strideX = cellWidth + 2 * BORDER_SIZE;
+        int strideY = cellHeight + 2 * BORDER_SIZE;
+        mPageWidth = Math.max(PAGE_SIZE, Utils.nextPowerOf2(strideX));
+        mPageHeight = Math.max(PAGE_SIZE, Utils.nextPowerOf2(strideY));
+        mColumns = mPageWidth / strideX;
+        mCellsPerPage = mColumns * (mPageHeight / strideY);
+    }
+
+    // Puts the bitmap in a free cell. The bitmap is kept until the cell is
+    // uploaded, the caller must not recycle it before.
+    public synchronized Cell allocate(Bitmap bitmap) {
+        if (mFreeCells.size() == 0) {
+            int first = mPages.size() * mCellsPerPage;
+            mPages.add(mConfig == Config.RGB_565
+                    ? new Page(mPageWidth, mPageHeight, mOpaque,
+                            GL11.GL_RGB, GL11.GL_UNSIGNED_SHORT_5_6_5)
+                    : new Page(mPageWidth, mPageHeight, mOpaque,
+                            GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE));
+            // Add them backwards, so the cells are used in order.
+            for (int i = first + mCellsPerPage - 1; i >= first; --i) {
+                mFreeCells.add(i);
+            }
+        }
+        return new Cell(mFreeCells.removeLast(), bitmap);
+    }
+
+    // Frees the pages, the cells allocated before are not valid anymore.
+    public void recycle() {
+        clear();
+        synchronized (this) {
+            for (Page page : mPages) {
+                page.recycle();
+            }
+            mPages.clear();
+            mFreeCells.clear();
+            // Used by uploadNext() on the GL thread.
+            mUploadBitmap = null;
+            mCanvas = null;
+            mBitmapPaint = null;
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            mFgCells.clear();
+            mBgCells.clear();
+        }
+        mScheduler.unschedule(this);
+    }
+
+    // Adds a cell which is on the screen.
+    public void addTexture(Cell cell) {
+        synchronized (this) {
+            if (cell.mBitmap == null) return;
+            mFgCells.addLast(cell);
+        }
+        mScheduler.schedule(this);
+    }
+
+    // Adds a cell which is not on the screen yet.
+    public void addBgTexture(Cell cell) {
+        synchronized (this) {
+            if (cell.mBitmap == null) return;
+            mBgCells.addLast(cell);
+        }
+        mScheduler.schedule(this);
+    }
+
+    @Override
+    public synchronized int uploadNext(GLCanvas canvas, int priority) {
+        ArrayDeque<Cell> deque = priority == UploadScheduler.PRIORITY_FOREGROUND
+                ? mFgCells : mBgCells;
+        while (!deque.isEmpty()) {
+            Cell cell = deque.removeFirst();
+            Bitmap bitmap = cell.mBitmap;
+            if (bitmap == null) continue;
+
+            if (mUploadBitmap == null) {
+                mUploadBitmap = Bitmap.createBitmap(mCellWidth + 2 * BORDER_SIZE,
+                        mCellHeight + 2 * BORDER_SIZE, mConfig);
+                mCanvas = new Canvas(mUploadBitmap);
+                mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            }
+            cell.upload(canvas, bitmap);
+            cell.mBitmap = null;
+            if (priority == UploadScheduler.PRIORITY_FOREGROUND) {
+                mGlRoot.requestRender();
+            }
+            return mUploadBitmap.getByteCount();
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized boolean hasPendingUploads() {
+        return !mFgCells.isEmpty() || !mBgCells.isEmpty();
+    }
+}
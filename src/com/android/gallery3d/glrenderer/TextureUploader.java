@@ -17,89 +17,86 @@
 package com.android.gallery3d.glrenderer;
 
 import com.android.gallery3d.ui.GLRoot;
-import com.android.gallery3d.ui.GLRoot.OnGLIdleListener;
 
 import java.util.ArrayDeque;
 
-public class TextureUploader implements OnGLIdleListener {
+public class TextureUploader implements UploadScheduler.Client {
     private static final int INIT_CAPACITY = 64;
-    private static final int QUOTA_PER_FRAME = 1;
 
     private final ArrayDeque<UploadedTexture> mFgTextures =
             new ArrayDeque<UploadedTexture>(INIT_CAPACITY);
     private final ArrayDeque<UploadedTexture> mBgTextures =
             new ArrayDeque<UploadedTexture>(INIT_CAPACITY);
     private final GLRoot mGLRoot;
-    private volatile boolean mIsQueued = false;
+    private final UploadScheduler mScheduler;
 
     public TextureUploader(GLRoot root) {
         mGLRoot = root;
+        mScheduler = root.getUploadScheduler();
     }
 
-    public synchronized void clear() {
-        while (!mFgTextures.isEmpty()) {
-            mFgTextures.pop().setIsUploading(false);
-        }
-        while (!mBgTextures.isEmpty()) {
-            mBgTextures.pop().setIsUploading(false);
+    public void clear() {
+        synchronized (this) {
+            while (!mFgTextures.isEmpty()) {
+                mFgTextures.pop().setIsUploading(false);
+            }
+            while (!mBgTextures.isEmpty()) {
+                mBgTextures.pop().setIsUploading(false);
+            }
         }
+        mScheduler.unschedule(this);
     }
 
-    // caller should hold synchronized on "this"
-    private void queueSelfIfNeed() {
-        if (mIsQueued) return;
-        mIsQueued = true;
-        mGLRoot.addOnGLIdleListener(this);
-    }
-
-    public synchronized void addBgTexture(UploadedTexture t) {
-        if (t.isContentValid()) return;
-        mBgTextures.addLast(t);
-        t.setIsUploading(true);
-        queueSelfIfNeed();
+    public void addBgTexture(UploadedTexture t) {
+        synchronized (this) {
+            if (t.isContentValid()) return;
+            mBgTextures.addLast(t);
+            t.setIsUploading(true);
+        }
+        mScheduler.schedule(this);
     }
 
-    public synchronized void addFgTexture(UploadedTexture t) {
-        if (t.isContentValid()) return;
-        mFgTextures.addLast(t);
-        t.setIsUploading(true);
-        queueSelfIfNeed();
+    public void addFgTexture(UploadedTexture t) {
+        synchronized (this) {
+            if (t.isContentValid()) return;
+            mFgTextures.addLast(t);
+            t.setIsUploading(true);
+        }
+        mScheduler.schedule(this);
     }
 
-    private int upload(GLCanvas canvas, ArrayDeque<UploadedTexture> deque,
-            int uploadQuota, boolean isBackground) {
-        while (uploadQuota > 0) {
-            UploadedTexture t;
-            synchronized (this) {
-                if (deque.isEmpty()) break;
+    @Override
+    public int uploadNext(GLCanvas canvas, int priority) {
+        boolean isBackground = priority == UploadScheduler.PRIORITY_BACKGROUND;
+        ArrayDeque<UploadedTexture> deque = isBackground ? mBgTextures : mFgTextures;
+        UploadedTexture t;
+        synchronized (this) {
+            while (true) {
+                if (deque.isEmpty()) return 0;
                 t = deque.removeFirst();
                 t.setIsUploading(false);
-                if (t.isContentValid()) continue;
-
-                // this has to be protected by the synchronized block
-                // to prevent the inner bitmap get recycled
-                t.updateContent(canvas);
+                if (!t.isContentValid()) break;
             }
 
-            // It will took some more time for a texture to be drawn for
-            // the first time.
-            // Thus, when scrolling, if a new column appears on screen,
-            // it may cause a UI jank even these textures are uploaded.
-            if (isBackground) t.draw(canvas, 0, 0);
-            --uploadQuota;
+            // this has to be protected by the synchronized block
+            // to prevent the inner bitmap get recycled
+            t.updateContent(canvas);
         }
-        return uploadQuota;
+
+        // It will took some more time for a texture to be drawn for
+        // the first time.
+        // Thus, when scrolling, if a new column appears on screen,
+        // it may cause a UI jank even these textures are uploaded.
+        if (isBackground) {
+            t.draw(canvas, 0, 0);
+        } else {
+            mGLRoot.requestRender();
+        }
+        return Math.max(1, t.getTextureWidth() * t.getTextureHeight() * 4);
     }
 
     @Override
-    public boolean onGLIdle(GLCanvas canvas, boolean renderRequested) {
-        int uploadQuota = QUOTA_PER_FRAME;
-        uploadQuota = upload(canvas, mFgTextures, uploadQuota, false);
-        if (uploadQuota < QUOTA_PER_FRAME) mGLRoot.requestRender();
-        upload(canvas, mBgTextures, uploadQuota, true);
-        synchronized (this) {
-            mIsQueued = !mFgTextures.isEmpty() || !mBgTextures.isEmpty();
-            return mIsQueued;
-        }
+    public synchronized boolean hasPendingUploads() {
+        return !mFgTextures.isEmpty() || !mBgTextures.isEmpty();
     }
 }
@@ -24,10 +24,8 @@ import android.graphics.Paint;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.RectF;
-import android.os.SystemClock;
 
 import com.android.gallery3d.ui.GLRoot;
-import com.android.gallery3d.ui.GLRoot.OnGLIdleListener;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
@@ -42,10 +40,6 @@ public class TiledTexture implements Texture {
     private static final int TILE_SIZE = CONTENT_SIZE + 2 * BORDER_SIZE;
     private static final int INIT_CAPACITY = 8;
 
-    // We are targeting at 60fps, so we have 16ms for each frame.
-    // In this 16ms, we use about 4~8 ms to upload tiles.
-    private static final long UPLOAD_TILE_LIMIT = 4; // ms
-
     private static Tile sFreeTileHead = null;
     private static final Object sFreeTileLock = new Object();
 
@@ -63,49 +57,71 @@ public class TiledTexture implements Texture {
     private final RectF mSrcRect = new RectF();
     private final RectF mDestRect = new RectF();
 
-    public static class Uploader implements OnGLIdleListener {
-        private final ArrayDeque<TiledTexture> mTextures =
+    // Uploads the tiles of the textures, one tile at a time, within the
+    // budget given by the UploadScheduler of the GLRoot.
+    public static class Uploader implements UploadScheduler.Client {
+        private final ArrayDeque<TiledTexture> mFgTextures =
+                new ArrayDeque<TiledTexture>(INIT_CAPACITY);
+        private final ArrayDeque<TiledTexture> mBgTextures =
                 new ArrayDeque<TiledTexture>(INIT_CAPACITY);
 
         private final GLRoot mGlRoot;
-        private boolean mIsQueued = false;
+        private final UploadScheduler mScheduler;
 
         public Uploader(GLRoot glRoot) {
             mGlRoot = glRoot;
+            mScheduler = glRoot.getUploadScheduler();
         }
 
-        public synchronized void clear() {
-            mTextures.clear();
+        public void clear() {
+            synchronized (this) {
+                mFgTextures.clear();
+                mBgTextures.clear();
+            }
+            mScheduler.unschedule(this);
         }
 
-        public synchronized void addTexture(TiledTexture t) {
-            if (t.isReady()) return;
-            mTextures.addLast(t);
+        // Adds a texture which is on the screen.
+        public void addTexture(TiledTexture t) {
+            synchronized (this) {
+                if (t.isReady()) return;
+                mFgTextures.addLast(t);
+            }
+            mScheduler.schedule(this);
+        }
 
-            if (mIsQueued) return;
-            mIsQueued = true;
-            mGlRoot.addOnGLIdleListener(this);
+        // Adds a texture which is not on the screen yet.
+        public void addBgTexture(TiledTexture t) {
+            synchronized (this) {
+                if (t.isReady()) return;
+                mBgTextures.addLast(t);
+            }
+            mScheduler.schedule(this);
         }
 
         @Override
-        public boolean onGLIdle(GLCanvas canvas, boolean renderRequested) {
-            ArrayDeque<TiledTexture> deque = mTextures;
-            synchronized (this) {
-                long now = SystemClock.uptimeMillis();
-                long dueTime = now + UPLOAD_TILE_LIMIT;
-                while (now < dueTime && !deque.isEmpty()) {
-                    TiledTexture t = deque.peekFirst();
-                    if (t.uploadNextTile(canvas)) {
-                        deque.removeFirst();
-                        mGlRoot.requestRender();
-                    }
-                    now = SystemClock.uptimeMillis();
+        public synchronized int uploadNext(GLCanvas canvas, int priority) {
+            ArrayDeque<TiledTexture> deque =
+                    priority == UploadScheduler.PRIORITY_FOREGROUND
+                    ? mFgTextures : mBgTextures;
+            while (!deque.isEmpty()) {
+                TiledTexture t = deque.peekFirst();
+                if (t.isReady()) {
+                    deque.removeFirst();
+                    continue;
                 }
-                mIsQueued = !mTextures.isEmpty();
-
-                // return true to keep this listener in the queue
-                return mIsQueued;
+                if (t.uploadNextTile(canvas)) {
+                    deque.removeFirst();
+                    mGlRoot.requestRender();
+                }
+                return TILE_SIZE * TILE_SIZE * 4;
             }
+            return 0;
+        }
+
+        @Override
+        public synchronized boolean hasPendingUploads() {
+            return !mFgTextures.isEmpty() || !mBgTextures.isEmpty();
         }
     }
 
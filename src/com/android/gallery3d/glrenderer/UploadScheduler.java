@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.glrenderer;
+
+import com.android.gallery3d.ui.GLRoot;
+import com.android.gallery3d.ui.GLRoot.OnGLIdleListener;
+
+import java.util.ArrayList;
+
+// UploadScheduler runs the texture uploads of all the uploaders of a GLRoot
+// from a single OnGLIdleListener.
+//
+// Each time the GL thread is idle, it spends a time budget derived from the
+// last frames: the part of the frame period not used for drawing. Foreground
+// uploads (textures on screen) go first; background uploads only use what
+// remains. The cost of an upload is measured per byte, so that an upload
+// which is not expected to fit in the remaining budget is left for the next
+// frame.
+public class UploadScheduler implements OnGLIdleListener {
+    public static final int PRIORITY_FOREGROUND = 0;
+    public static final int PRIORITY_BACKGROUND = 1;
+    private static final int PRIORITY_COUNT = 2;
+
+    private static final long MS = 1000000; // ns
+
+    private static final long DEFAULT_FRAME_PERIOD = 16667 * 1000; // ns
+    private static final long MIN_FRAME_PERIOD = 4 * MS;
+    private static final long MAX_FRAME_PERIOD = 34 * MS;
+    // Frames further apart than this are not part of an animation.
+    private static final long MAX_FRAME_INTERVAL = 50 * MS;
+    // We always allow some uploads, even when drawing takes the whole frame.
+    private static final long MIN_BUDGET = 1 * MS;
+    private static final float SMOOTHING = 0.1f;
+
+    // Until measured, assume uploading 1MB takes 2ms.
+    private static final float DEFAULT_COST_PER_BYTE = 2f * MS / (1 << 20);
+
+    public interface Client {
+        // Uploads the next pending texture of the given priority. Returns the
+        // number of bytes uploaded, or 0 if there is nothing to upload at that
+        // priority.
+        public int uploadNext(GLCanvas canvas, int priority);
+
+        public boolean hasPendingUploads();
+    }
+
+    private final GLRoot mGLRoot;
+    private final ArrayList<Client> mClients = new ArrayList<Client>();
+    private boolean mIsQueued = false;
+    private int mScheduleCount = 0;
+
+    // Accessed on the GL thread only
+    private long mLastFrameStart = 0;
+    private float mFramePeriod = DEFAULT_FRAME_PERIOD;
+    private long mLastDrawTime = 0;
+    private float mCostPerByte = DEFAULT_COST_PER_BYTE;
+    private final int[] mLastUploadSize = new int[PRIORITY_COUNT];
+
+    public UploadScheduler(GLRoot root) {
+        mGLRoot = root;
+    }
+
+    // Makes the client get called until it has no pending uploads.
+    public void schedule(Client client) {
+        synchronized (mClients) {
+            if (!mClients.contains(client)) mClients.add(client);
+            ++mScheduleCount;
+            if (mIsQueued) return;
+            mIsQueued = true;
+        }
+        mGLRoot.addOnGLIdleListener(this);
+    }
+
+    public void unschedule(Client client) {
+        synchronized (mClients) {
+            mClients.remove(client);
+        }
+    }
+
+    // Called by the GLRoot after each frame, with the start and end time of
+    // the frame drawing (System.nanoTime()).
+    public void onFrameDrawn(long start, long end) {
+        if (mLastFrameStart != 0) {
+            long interval = start - mLastFrameStart;
+            if (interval < MAX_FRAME_INTERVAL) {
+                mFramePeriod += SMOOTHING * (interval - mFramePeriod);
+                mFramePeriod = Math.max(MIN_FRAME_PERIOD,
+                        Math.min(MAX_FRAME_PERIOD, mFramePeriod));
+            }
+        }
+        mLastFrameStart = start;
+        mLastDrawTime = end - start;
+    }
+
+    private long getBudget(boolean renderRequested) {
+        long period = (long) mFramePeriod;
+        if (!renderRequested) return period / 2;
+        long budget = period - mLastDrawTime - period / 4;
+        return Math.max(MIN_BUDGET, Math.min(budget, period / 2));
+    }
+
+    @Override
+    public boolean onGLIdle(GLCanvas canvas, boolean renderRequested) {
+        Client[] clients;
+        int scheduleCount;
+        synchronized (mClients) {
+            clients = mClients.toArray(new Client[mClients.size()]);
+            scheduleCount = mScheduleCount;
+        }
+
+        long budget = getBudget(renderRequested);
+        long start = System.nanoTime();
+        long elapsed = 0;
+        boolean uploaded = false;
+
+        loop: for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            for (Client client : clients) {
+                while (true) {
+                    long expected = (long) (mCostPerByte * mLastUploadSize[priority]);
+                    // Make sure a foreground texture gets uploaded on each call.
+                    if (elapsed + expected > budget
+                            && (uploaded || priority != PRIORITY_FOREGROUND)) {
+                        break loop;
+                    }
+                    long t0 = System.nanoTime();
+                    int bytes = client.uploadNext(canvas, priority);
+                    if (bytes == 0) break;
+                    long t1 = System.nanoTime();
+                    mCostPerByte += SMOOTHING * ((float) (t1 - t0) / bytes - mCostPerByte);
+                    mLastUploadSize[priority] = bytes;
+                    elapsed = t1 - start;
+                    uploaded = true;
+                }
+            }
+        }
+
+        // The clients are not called with mClients locked, as they may call
+        // schedule() with their own lock held.
+        ArrayList<Client> done = new ArrayList<Client>();
+        for (Client client : clients) {
+            if (!client.hasPendingUploads()) done.add(client);
+        }
+        synchronized (mClients) {
+            // If a client was scheduled meanwhile, check again next time.
+            if (scheduleCount == mScheduleCount) mClients.removeAll(done);
+            mIsQueued = !mClients.isEmpty();
+            return mIsQueued;
+        }
+    }
+}
@@ -307,6 +307,17 @@ public class ActionModeHandler implements Callback, PopupList.OnPopupItemClickLi
         return operation;
     }
 
+    // A user preset of the editor can be applied to any number of items, as
+    // long as all of them can be edited.
+    private static boolean canApplyPreset(ArrayList<MediaObject> selected) {
+        for (MediaObject mediaObject : selected) {
+            if ((mediaObject.getSupportedOperations() & MediaObject.SUPPORT_EDIT) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @TargetApi(ApiHelper.VERSION_CODES.JELLY_BEAN)
     private void setNfcBeamPushUris(Uri[] uris) {
         if (mNfcAdapter != null && ApiHelper.HAS_SET_BEAM_PUSH_URIS) {
@@ -404,6 +415,7 @@ public class ActionModeHandler implements Callback, PopupList.OnPopupItemClickLi
                 && (mSelectionManager.getSelectedCount() > MAX_SELECTED_ITEMS_FOR_SHARE_INTENT))
         {
             MenuExecutor.updateMenuOperation(mMenu, MediaObject.SUPPORT_DELETE);
+            MenuExecutor.updateMenuForPresets(mMenu, false);
         }
 
         // Generate sharing intent and update supported operations in the background
@@ -421,11 +433,13 @@ public class ActionModeHandler implements Callback, PopupList.OnPopupItemClickLi
                             if (jc.isCancelled()) return;
                             // Disable all the operations when no item is selected
                             MenuExecutor.updateMenuOperation(mMenu, 0);
+                            MenuExecutor.updateMenuForPresets(mMenu, false);
                         }
                     });
                     return null;
                 }
                 final int operation = computeMenuOptions(selected);
+                final boolean canApplyPreset = canApplyPreset(selected);
                 if (jc.isCancelled()) {
                     return null;
                 }
@@ -459,6 +473,7 @@ public class ActionModeHandler implements Callback, PopupList.OnPopupItemClickLi
                         mMenuTask = null;
                         if (jc.isCancelled()) return;
                         MenuExecutor.updateMenuOperation(mMenu, operation);
+                        MenuExecutor.updateMenuForPresets(mMenu, canApplyPreset);
                         MenuExecutor.updateMenuForPanorama(mMenu,
                                 canSharePanoramas && supportCallback.mAllPanorama360,
                                 canSharePanoramas && supportCallback.mHasPanorama360);
@@ -30,8 +30,7 @@ import com.android.gallery3d.data.MediaSet;
 import com.android.gallery3d.data.Path;
 import com.android.gallery3d.glrenderer.BitmapTexture;
 import com.android.gallery3d.glrenderer.Texture;
-import com.android.gallery3d.glrenderer.TextureUploader;
-import com.android.gallery3d.glrenderer.TiledTexture;
+import com.android.gallery3d.glrenderer.TextureAtlas;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
 import com.android.gallery3d.util.ThreadPool;
@@ -60,10 +59,13 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
     private final SynchronizedHandler mHandler;
     private final ThreadPool mThreadPool;
     private final AlbumLabelMaker mLabelMaker;
+    private final AlbumSetSlotRenderer.LabelSpec mLabelSpec;
     private final String mLoadingText;
+    private final GLRoot mGLRoot;
 
-    private final TiledTexture.Uploader mContentUploader;
-    private final TextureUploader mLabelUploader;
+    private final TextureAtlas mContentAtlas;
+    // Created for the label size, when the slot width is known.
+    private TextureAtlas mLabelAtlas;
 
     private int mActiveRequestCount = 0;
     private boolean mIsActive = false;
@@ -75,8 +77,8 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         public MediaSet album;
         public MediaItem coverItem;
         public Texture content;
-        public BitmapTexture labelTexture;
-        public TiledTexture bitmapTexture;
+        public TextureAtlas.Cell labelTexture;
+        public TextureAtlas.Cell bitmapTexture;
         public Path setPath;
         public String title;
         public int totalCount;
@@ -100,9 +102,12 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         mThreadPool = activity.getThreadPool();
 
         mLabelMaker = new AlbumLabelMaker(activity.getAndroidContext(), labelSpec);
+        mLabelSpec = labelSpec;
         mLoadingText = activity.getAndroidContext().getString(R.string.loading);
-        mContentUploader = new TiledTexture.Uploader(activity.getGLRoot());
-        mLabelUploader = new TextureUploader(activity.getGLRoot());
+        mGLRoot = activity.getGLRoot();
+        int thumbnailSize = MediaItem.getTargetSize(MediaItem.TYPE_MICROTHUMBNAIL);
+        mContentAtlas = new TextureAtlas(mGLRoot, thumbnailSize, thumbnailSize,
+                true, MediaItem.getMicrothumbnailConfig());
 
         mHandler = new SynchronizedHandler(activity.getGLRoot()) {
             @Override
@@ -229,10 +234,11 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
 
     private void freeSlotContent(int slotIndex) {
         AlbumSetEntry entry = mData[slotIndex % mData.length];
-        if (entry.coverLoader != null) entry.coverLoader.recycle();
-        if (entry.labelLoader != null) entry.labelLoader.recycle();
+        // The cells may not be uploaded yet, free them before the bitmaps.
         if (entry.labelTexture != null) entry.labelTexture.recycle();
         if (entry.bitmapTexture != null) entry.bitmapTexture.recycle();
+        if (entry.coverLoader != null) entry.coverLoader.recycle();
+        if (entry.labelLoader != null) entry.labelLoader.recycle();
         mData[slotIndex % mData.length] = null;
     }
 
@@ -261,6 +267,7 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
             entry.totalCount = totalCount;
             entry.sourceType = sourceType;
             if (entry.labelLoader != null) {
+                if (entry.labelTexture != null) entry.labelTexture.recycle();
                 entry.labelLoader.recycle();
                 entry.labelLoader = null;
                 entry.labelTexture = null;
@@ -276,6 +283,7 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
             entry.coverDataVersion = getDataVersion(cover);
             entry.rotation = (cover == null) ? 0 : cover.getRotation();
             if (entry.coverLoader != null) {
+                if (entry.bitmapTexture != null) entry.bitmapTexture.recycle();
                 entry.coverLoader.recycle();
                 entry.coverLoader = null;
                 entry.bitmapTexture = null;
@@ -303,26 +311,26 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         if (index < mContentStart || index >= mContentEnd) return;
         AlbumSetEntry entry = mData[index % mData.length];
         if (entry.bitmapTexture != null) {
-            mContentUploader.addTexture(entry.bitmapTexture);
+            mContentAtlas.addBgTexture(entry.bitmapTexture);
         }
         if (entry.labelTexture != null) {
-            mLabelUploader.addBgTexture(entry.labelTexture);
+            mLabelAtlas.addBgTexture(entry.labelTexture);
         }
     }
 
     private void updateTextureUploadQueue() {
         if (!mIsActive) return;
-        mContentUploader.clear();
-        mLabelUploader.clear();
+        mContentAtlas.clear();
+        if (mLabelAtlas != null) mLabelAtlas.clear();
 
         // Upload foreground texture
         for (int i = mActiveStart, n = mActiveEnd; i < n; ++i) {
             AlbumSetEntry entry = mData[i % mData.length];
             if (entry.bitmapTexture != null) {
-                mContentUploader.addTexture(entry.bitmapTexture);
+                mContentAtlas.addTexture(entry.bitmapTexture);
             }
             if (entry.labelTexture != null) {
-                mLabelUploader.addFgTexture(entry.labelTexture);
+                mLabelAtlas.addTexture(entry.labelTexture);
             }
         }
 
@@ -396,17 +404,15 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
 
     public void pause() {
         mIsActive = false;
-        mLabelUploader.clear();
-        mContentUploader.clear();
-        TiledTexture.freeResources();
         for (int i = mContentStart, n = mContentEnd; i < n; ++i) {
             freeSlotContent(i);
         }
+        mContentAtlas.recycle();
+        if (mLabelAtlas != null) mLabelAtlas.recycle();
     }
 
     public void resume() {
         mIsActive = true;
-        TiledTexture.prepareResources();
         for (int i = mContentStart, n = mContentEnd; i < n; ++i) {
             prepareSlotContent(i);
         }
@@ -443,17 +449,17 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
             if (bitmap == null) return; // error or recycled
 
             AlbumSetEntry entry = mData[mSlotIndex % mData.length];
-            TiledTexture texture = new TiledTexture(bitmap);
+            TextureAtlas.Cell texture = mContentAtlas.allocate(bitmap);
             entry.bitmapTexture = texture;
             entry.content = texture;
 
             if (isActiveSlot(mSlotIndex)) {
-                mContentUploader.addTexture(texture);
+                mContentAtlas.addTexture(texture);
                 --mActiveRequestCount;
                 if (mActiveRequestCount == 0) requestNonactiveImages();
                 if (mListener != null) mListener.onContentChanged();
             } else {
-                mContentUploader.addTexture(texture);
+                mContentAtlas.addBgTexture(texture);
             }
         }
     }
@@ -507,17 +513,16 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
             if (bitmap == null) return; // Error or recycled
 
             AlbumSetEntry entry = mData[mSlotIndex % mData.length];
-            BitmapTexture texture = new BitmapTexture(bitmap);
-            texture.setOpaque(false);
+            TextureAtlas.Cell texture = mLabelAtlas.allocate(bitmap);
             entry.labelTexture = texture;
 
             if (isActiveSlot(mSlotIndex)) {
-                mLabelUploader.addFgTexture(texture);
+                mLabelAtlas.addTexture(texture);
                 --mActiveRequestCount;
                 if (mActiveRequestCount == 0) requestNonactiveImages();
                 if (mListener != null) mListener.onContentChanged();
             } else {
-                mLabelUploader.addBgTexture(texture);
+                mLabelAtlas.addBgTexture(texture);
             }
         }
     }
@@ -529,6 +534,20 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         mLoadingLabel = null;
         mLabelMaker.setLabelWidth(mSlotWidth);
 
+        // The labels of the old width are all dropped, their cells are not
+        // valid once the atlas is recycled.
+        for (int i = mContentStart, n = mContentEnd; i < n; ++i) {
+            AlbumSetEntry entry = mData[i % mData.length];
+            if (entry.labelTexture != null) {
+                entry.labelTexture.recycle();
+                entry.labelTexture = null;
+            }
+        }
+        if (mLabelAtlas != null) mLabelAtlas.recycle();
+        int b = AlbumLabelMaker.getBorderSize();
+        mLabelAtlas = new TextureAtlas(mGLRoot, mSlotWidth + 2 * b,
+                mLabelSpec.labelBackgroundHeight + 2 * b, false);
+
         if (!mIsActive) return;
 
         for (int i = mContentStart, n = mContentEnd; i < n; ++i) {
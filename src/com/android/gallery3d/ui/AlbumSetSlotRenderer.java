@@ -26,14 +26,16 @@ import com.android.gallery3d.glrenderer.FadeInTexture;
 import com.android.gallery3d.glrenderer.GLCanvas;
 import com.android.gallery3d.glrenderer.ResourceTexture;
 import com.android.gallery3d.glrenderer.Texture;
-import com.android.gallery3d.glrenderer.TiledTexture;
-import com.android.gallery3d.glrenderer.UploadedTexture;
+import com.android.gallery3d.glrenderer.TextureAtlas;
 import com.android.gallery3d.ui.AlbumSetSlidingWindow.AlbumSetEntry;
+import com.android.gallery3d.util.GalleryUtils;
 
 public class AlbumSetSlotRenderer extends AbstractSlotRenderer {
     @SuppressWarnings("unused")
     private static final String TAG = "AlbumSetView";
     private static final int CACHE_SIZE = 96;
+    // The thumbnails take half of the memory in the low-memory mode.
+    private static final int LOW_MEMORY_CACHE_SIZE = CACHE_SIZE * 2;
     private final int mPlaceholderColor;
 
     private final ColorTexture mWaitLoadingTexture;
@@ -106,23 +108,18 @@ public class AlbumSetSlotRenderer extends AbstractSlotRenderer {
             mSlotView.setSlotCount(0);
         }
         if (model != null) {
+            int cacheSize = GalleryUtils.isLowMemoryDevice()
+                    ? LOW_MEMORY_CACHE_SIZE : CACHE_SIZE;
             mDataWindow = new AlbumSetSlidingWindow(
-                    mActivity, model, mLabelSpec, CACHE_SIZE);
+                    mActivity, model, mLabelSpec, cacheSize);
             mDataWindow.setListener(new MyCacheListener());
             mSlotView.setSlotCount(mDataWindow.size());
         }
     }
 
-    private static Texture checkLabelTexture(Texture texture) {
-        return ((texture instanceof UploadedTexture)
-                && ((UploadedTexture) texture).isUploading())
-                ? null
-                : texture;
-    }
-
-    private static Texture checkContentTexture(Texture texture) {
-        return ((texture instanceof TiledTexture)
-                && !((TiledTexture) texture).isReady())
+    private static Texture checkTexture(Texture texture) {
+        return ((texture instanceof TextureAtlas.Cell)
+                && !((TextureAtlas.Cell) texture).isReady())
                 ? null
                 : texture;
     }
@@ -169,7 +166,7 @@ public class AlbumSetSlotRenderer extends AbstractSlotRenderer {
             GLCanvas canvas, AlbumSetEntry entry, int width, int height) {
         int renderRequestFlags = 0;
 
-        Texture content = checkContentTexture(entry.content);
+        Texture content = checkTexture(entry.content);
         if (content == null) {
             content = mWaitLoadingTexture;
             entry.isWaitLoadingDisplayed = true;
@@ -189,7 +186,7 @@ public class AlbumSetSlotRenderer extends AbstractSlotRenderer {
 
     protected int renderLabel(
             GLCanvas canvas, AlbumSetEntry entry, int width, int height) {
-        Texture content = checkLabelTexture(entry.labelTexture);
+        Texture content = checkTexture(entry.labelTexture);
         if (content == null) {
             content = mWaitLoadingTexture;
         }
@@ -22,15 +22,19 @@ import android.os.Message;
 import com.android.gallery3d.app.AbstractGalleryActivity;
 import com.android.gallery3d.app.AlbumDataLoader;
 import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.data.CompressedThumbnail;
 import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.MediaObject;
 import com.android.gallery3d.data.MediaObject.PanoramaSupportCallback;
 import com.android.gallery3d.data.Path;
+import com.android.gallery3d.glrenderer.CompressedTexture;
 import com.android.gallery3d.glrenderer.Texture;
-import com.android.gallery3d.glrenderer.TiledTexture;
+import com.android.gallery3d.glrenderer.TextureAtlas;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
+import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.JobLimiter;
+import com.android.gallery3d.util.ThreadPool.Job;
 
 public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
     @SuppressWarnings("unused")
@@ -51,9 +55,10 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
         public int rotation;
         public int mediaType;
         public boolean isWaitDisplayed;
-        public TiledTexture bitmapTexture;
+        public TextureAtlas.Cell bitmapTexture;
+        public CompressedTexture compressedTexture;
         public Texture content;
-        private BitmapLoader contentLoader;
+        private ContentLoader contentLoader;
         private PanoSupportListener mPanoSupportListener;
     }
 
@@ -61,7 +66,7 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
     private final AlbumEntry mData[];
     private final SynchronizedHandler mHandler;
     private final JobLimiter mThreadPool;
-    private final TiledTexture.Uploader mTileUploader;
+    private final TextureAtlas mAtlas;
 
     private int mSize;
 
@@ -99,12 +104,14 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
             @Override
             public void handleMessage(Message message) {
                 Utils.assertTrue(message.what == MSG_UPDATE_ENTRY);
-                ((ThumbnailLoader) message.obj).updateEntry();
+                ((ContentLoader) message.obj).updateEntry();
             }
         };
 
         mThreadPool = new JobLimiter(activity.getThreadPool(), JOB_LIMIT);
-        mTileUploader = new TiledTexture.Uploader(activity.getGLRoot());
+        int thumbnailSize = MediaItem.getTargetSize(MediaItem.TYPE_MICROTHUMBNAIL);
+        mAtlas = new TextureAtlas(activity.getGLRoot(), thumbnailSize, thumbnailSize,
+                true, MediaItem.getMicrothumbnailConfig());
     }
 
     public void setListener(Listener listener) {
@@ -182,20 +189,20 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
         if (index < mContentEnd && index >= mContentStart) {
             AlbumEntry entry = mData[index % mData.length];
             if (entry.bitmapTexture != null) {
-                mTileUploader.addTexture(entry.bitmapTexture);
+                mAtlas.addBgTexture(entry.bitmapTexture);
             }
         }
     }
 
     private void updateTextureUploadQueue() {
         if (!mIsActive) return;
-        mTileUploader.clear();
+        mAtlas.clear();
 
         // add foreground textures
         for (int i = mActiveStart, n = mActiveEnd; i < n; ++i) {
             AlbumEntry entry = mData[i % mData.length];
             if (entry.bitmapTexture != null) {
-                mTileUploader.addTexture(entry.bitmapTexture);
+                mAtlas.addTexture(entry.bitmapTexture);
             }
         }
 
@@ -255,8 +262,10 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
         AlbumEntry data[] = mData;
         int index = slotIndex % data.length;
         AlbumEntry entry = data[index];
-        if (entry.contentLoader != null) entry.contentLoader.recycle();
+        // The cell may not be uploaded yet, free it before the bitmap.
         if (entry.bitmapTexture != null) entry.bitmapTexture.recycle();
+        if (entry.compressedTexture != null) entry.compressedTexture.recycle();
+        if (entry.contentLoader != null) entry.contentLoader.recycle();
         data[index] = null;
     }
 
@@ -269,7 +278,12 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
                 : entry.item.getMediaType();
         entry.path = (item == null) ? null : item.getPath();
         entry.rotation = (item == null) ? 0 : item.getRotation();
-        entry.contentLoader = new ThumbnailLoader(slotIndex, entry.item);
+        Job<CompressedThumbnail> job = (item != null && useCompressedThumbnails())
+                ? item.requestCompressedImage(MediaItem.TYPE_MICROTHUMBNAIL)
+                : null;
+        entry.contentLoader = (job != null)
+                ? new CompressedThumbnailLoader(slotIndex, job)
+                : new ThumbnailLoader(slotIndex, entry.item);
         mData[slotIndex % mData.length] = entry;
     }
 
@@ -285,7 +299,23 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
         }
     }
 
-    private class ThumbnailLoader extends BitmapLoader  {
+    // In the low-memory mode the thumbnails are loaded as ETC1 data when the
+    // GPU supports it. They are cached without the JPEG decode and take a
+    // quarter of the memory of RGB_565, but each of them is a texture of its
+    // own instead of a cell of the atlas. Otherwise they are loaded as bitmaps.
+    private static boolean useCompressedThumbnails() {
+        return GalleryUtils.isLowMemoryDevice() && CompressedTexture.isETC1Supported();
+    }
+
+    private interface ContentLoader {
+        public void startLoad();
+        public void cancelLoad();
+        public void recycle();
+        public boolean isRequestInProgress();
+        public void updateEntry();
+    }
+
+    private class ThumbnailLoader extends BitmapLoader implements ContentLoader {
         private final int mSlotIndex;
         private final MediaItem mItem;
 
@@ -305,20 +335,105 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
             mHandler.obtainMessage(MSG_UPDATE_ENTRY, this).sendToTarget();
         }
 
+        @Override
         public void updateEntry() {
             Bitmap bitmap = getBitmap();
             if (bitmap == null) return; // error or recycled
             AlbumEntry entry = mData[mSlotIndex % mData.length];
-            entry.bitmapTexture = new TiledTexture(bitmap);
+            entry.bitmapTexture = mAtlas.allocate(bitmap);
             entry.content = entry.bitmapTexture;
 
             if (isActiveSlot(mSlotIndex)) {
-                mTileUploader.addTexture(entry.bitmapTexture);
+                mAtlas.addTexture(entry.bitmapTexture);
                 --mActiveRequestCount;
                 if (mActiveRequestCount == 0) requestNonactiveImages();
                 if (mListener != null) mListener.onContentChanged();
             } else {
-                mTileUploader.addTexture(entry.bitmapTexture);
+                mAtlas.addBgTexture(entry.bitmapTexture);
+            }
+        }
+    }
+
+    private class CompressedThumbnailLoader
+            implements ContentLoader, FutureListener<CompressedThumbnail> {
+        private static final int STATE_INIT = 0;
+        private static final int STATE_REQUESTED = 1;
+        private static final int STATE_DONE = 2;
+        private static final int STATE_RECYCLED = 3;
+
+        private final int mSlotIndex;
+        private final Job<CompressedThumbnail> mJob;
+        private int mState = STATE_INIT;
+        // mTask is not null only when a task is on the way
+        private Future<CompressedThumbnail> mTask;
+        private CompressedThumbnail mThumbnail;
+
+        public CompressedThumbnailLoader(int slotIndex, Job<CompressedThumbnail> job) {
+            mSlotIndex = slotIndex;
+            mJob = job;
+        }
+
+        @Override
+        public void onFutureDone(Future<CompressedThumbnail> future) {
+            synchronized (this) {
+                mTask = null;
+                CompressedThumbnail thumbnail = future.get();
+                if (mState == STATE_RECYCLED) return;
+                if (future.isCancelled() && thumbnail == null) {
+                    if (mState == STATE_REQUESTED) mTask = mThreadPool.submit(mJob, this);
+                    return;
+                }
+                mState = STATE_DONE;
+                mThumbnail = thumbnail;
+            }
+            mHandler.obtainMessage(MSG_UPDATE_ENTRY, this).sendToTarget();
+        }
+
+        @Override
+        public synchronized void startLoad() {
+            if (mState == STATE_INIT) {
+                mState = STATE_REQUESTED;
+                if (mTask == null) mTask = mThreadPool.submit(mJob, this);
+            }
+        }
+
+        @Override
+        public synchronized void cancelLoad() {
+            if (mState == STATE_REQUESTED) {
+                mState = STATE_INIT;
+                if (mTask != null) mTask.cancel();
+            }
+        }
+
+        @Override
+        public synchronized void recycle() {
+            mState = STATE_RECYCLED;
+            mThumbnail = null;
+            if (mTask != null) mTask.cancel();
+        }
+
+        @Override
+        public synchronized boolean isRequestInProgress() {
+            return mState == STATE_REQUESTED;
+        }
+
+        @Override
+        public void updateEntry() {
+            CompressedThumbnail thumbnail;
+            synchronized (this) {
+                thumbnail = mThumbnail;
+                mThumbnail = null;
+            }
+            if (thumbnail == null) return; // error or recycled
+            AlbumEntry entry = mData[mSlotIndex % mData.length];
+            entry.compressedTexture = new CompressedTexture(
+                    thumbnail.texture, thumbnail.width, thumbnail.height);
+            entry.content = entry.compressedTexture;
+
+            if (isActiveSlot(mSlotIndex)) {
+                --mActiveRequestCount;
+                if (mActiveRequestCount == 0) requestNonactiveImages();
+                if (mListener != null) mListener.onContentChanged();
             }
         }
     }
@@ -347,7 +462,6 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
 
     public void resume() {
         mIsActive = true;
-        TiledTexture.prepareResources();
         for (int i = mContentStart, n = mContentEnd; i < n; ++i) {
             prepareSlotContent(i);
         }
@@ -356,10 +470,9 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
 
     public void pause() {
         mIsActive = false;
-        mTileUploader.clear();
-        TiledTexture.freeResources();
         for (int i = mContentStart, n = mContentEnd; i < n; ++i) {
             freeSlotContent(i);
         }
+        mAtlas.recycle();
     }
 }
@@ -24,7 +24,8 @@ import com.android.gallery3d.glrenderer.ColorTexture;
 import com.android.gallery3d.glrenderer.FadeInTexture;
 import com.android.gallery3d.glrenderer.GLCanvas;
 import com.android.gallery3d.glrenderer.Texture;
-import com.android.gallery3d.glrenderer.TiledTexture;
+import com.android.gallery3d.glrenderer.TextureAtlas;
+import com.android.gallery3d.util.GalleryUtils;
 
 public class AlbumSlotRenderer extends AbstractSlotRenderer {
     @SuppressWarnings("unused")
@@ -36,6 +37,8 @@ public class AlbumSlotRenderer extends AbstractSlotRenderer {
 
     private final int mPlaceholderColor;
     private static final int CACHE_SIZE = 96;
+    // The thumbnails take half of the memory in the low-memory mode.
+    private static final int LOW_MEMORY_CACHE_SIZE = CACHE_SIZE * 2;
 
     private AlbumSlidingWindow mDataWindow;
     private final AbstractGalleryActivity mActivity;
@@ -87,15 +90,17 @@ public class AlbumSlotRenderer extends AbstractSlotRenderer {
             mDataWindow = null;
         }
         if (model != null) {
-            mDataWindow = new AlbumSlidingWindow(mActivity, model, CACHE_SIZE);
+            int cacheSize = GalleryUtils.isLowMemoryDevice()
+                    ? LOW_MEMORY_CACHE_SIZE : CACHE_SIZE;
+            mDataWindow = new AlbumSlidingWindow(mActivity, model, cacheSize);
             mDataWindow.setListener(new MyDataModelListener());
             mSlotView.setSlotCount(model.size());
         }
     }
 
     private static Texture checkTexture(Texture texture) {
-        return (texture instanceof TiledTexture)
-                && !((TiledTexture) texture).isReady()
+        return (texture instanceof TextureAtlas.Cell)
+                && !((TextureAtlas.Cell) texture).isReady()
                 ? null
                 : texture;
     }
@@ -114,7 +119,9 @@ public class AlbumSlotRenderer extends AbstractSlotRenderer {
             entry.isWaitDisplayed = true;
         } else if (entry.isWaitDisplayed) {
             entry.isWaitDisplayed = false;
-            content = new FadeInTexture(mPlaceholderColor, entry.bitmapTexture);
+            content = (entry.compressedTexture != null)
+                    ? new FadeInTexture(mPlaceholderColor, entry.compressedTexture)
+                    : new FadeInTexture(mPlaceholderColor, entry.bitmapTexture);
             entry.content = content;
         }
         drawContent(canvas, content, width, height, entry.rotation);
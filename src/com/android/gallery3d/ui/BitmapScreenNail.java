@@ -52,6 +52,8 @@ public class BitmapScreenNail implements ScreenNail {
     @Override
     public void recycle() {
         mBitmapTexture.recycle();
+        // The bitmap may be shared with the ScreenNailCache.
+        ScreenNailCache.getInstance().release(mBitmapTexture.getBitmap());
     }
 
     @Override
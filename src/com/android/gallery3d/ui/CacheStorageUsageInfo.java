@@ -20,9 +20,12 @@ import android.content.Context;
 import android.os.StatFs;
 
 import com.android.gallery3d.app.AbstractGalleryActivity;
+import com.android.gallery3d.util.CacheManager;
+import com.android.gallery3d.util.CacheManager.CacheUsage;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
 import java.io.File;
+import java.util.ArrayList;
 
 public class CacheStorageUsageInfo {
     @SuppressWarnings("unused")
@@ -40,6 +43,9 @@ public class CacheStorageUsageInfo {
     // number of bytes used for the cache if all pending downloads (and removals) are completed.
     private long mTargetCacheBytes;
 
+    // the usage and the hit rate of each disk cache sharing the cache budget.
+    private ArrayList<CacheUsage> mCacheUsages = new ArrayList<CacheUsage>();
+
     private AbstractGalleryActivity mActivity;
     private Context mContext;
     private long mUserChangeDelta;
@@ -69,6 +75,11 @@ public class CacheStorageUsageInfo {
         mUsedBytes = blockSize * (totalBlocks - availableBlocks);
         mUsedCacheBytes = mActivity.getDataManager().getTotalUsedCacheSize();
         mTargetCacheBytes = mActivity.getDataManager().getTotalTargetCacheSize();
+        mCacheUsages = CacheManager.getCacheUsages();
+    }
+
+    public ArrayList<CacheUsage> getCacheUsages() {
+        return mCacheUsages;
     }
 
     public long getTotalBytes() {
@@ -21,6 +21,7 @@ import android.graphics.Matrix;
 
 import com.android.gallery3d.anim.CanvasAnimation;
 import com.android.gallery3d.glrenderer.GLCanvas;
+import com.android.gallery3d.glrenderer.UploadScheduler;
 
 public interface GLRoot {
 
@@ -32,6 +33,7 @@ public interface GLRoot {
     }
 
     public void addOnGLIdleListener(OnGLIdleListener listener);
+    public UploadScheduler getUploadScheduler();
     public void registerLaunchedAnimation(CanvasAnimation animation);
     public void requestRenderForced();
     public void requestRender();
@@ -34,9 +34,11 @@ import com.android.gallery3d.anim.CanvasAnimation;
 import com.android.gallery3d.common.ApiHelper;
 import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.glrenderer.BasicTexture;
+import com.android.gallery3d.glrenderer.CompressedTexture;
 import com.android.gallery3d.glrenderer.GLCanvas;
 import com.android.gallery3d.glrenderer.GLES11Canvas;
 import com.android.gallery3d.glrenderer.GLES20Canvas;
+import com.android.gallery3d.glrenderer.UploadScheduler;
 import com.android.gallery3d.glrenderer.UploadedTexture;
 import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.MotionEventHelper;
@@ -97,6 +99,8 @@ public class GLRootView extends GLSurfaceView
     private final ArrayList<CanvasAnimation> mAnimations =
             new ArrayList<CanvasAnimation>();
 
+    private final UploadScheduler mUploadScheduler = new UploadScheduler(this);
+
     private final ArrayDeque<OnGLIdleListener> mIdleListeners =
             new ArrayDeque<OnGLIdleListener>();
 
@@ -153,6 +157,11 @@ public class GLRootView extends GLSurfaceView
         }
     }
 
+    @Override
+    public UploadScheduler getUploadScheduler() {
+        return mUploadScheduler;
+    }
+
     @Override
     public void setContentPane(GLView content) {
         if (mContentView == content) return;
@@ -292,6 +301,7 @@ public class GLRootView extends GLSurfaceView
             mGL = gl;
             mCanvas = ApiHelper.HAS_GLES20_REQUIRED ? new GLES20Canvas() : new GLES11Canvas(gl);
             BasicTexture.invalidateAllTextures();
+            CompressedTexture.checkETC1Support();
         } finally {
             mRenderLock.unlock();
         }
@@ -390,6 +400,7 @@ public class GLRootView extends GLSurfaceView
 
     private void onDrawFrameLocked(GL10 gl) {
         if (DEBUG_FPS) outputFps();
+        long frameStart = System.nanoTime();
 
         // release the unbound textures and deleted buffers.
         mCanvas.deleteRecycledResources();
@@ -414,6 +425,7 @@ public class GLRootView extends GLSurfaceView
             mCanvas.clearBuffer();
         }
         mCanvas.restore();
+        mCanvas.flush();
 
         if (!mAnimations.isEmpty()) {
             long now = AnimationTime.get();
@@ -427,6 +439,8 @@ public class GLRootView extends GLSurfaceView
             requestRender();
         }
 
+        mUploadScheduler.onFrameDrawn(frameStart, System.nanoTime());
+
         synchronized (mIdleListeners) {
             if (!mIdleListeners.isEmpty()) mIdleRunner.enable();
         }
@@ -434,6 +448,7 @@ public class GLRootView extends GLSurfaceView
         if (DEBUG_INVALIDATE) {
             mCanvas.fillRect(10, 10, 5, 5, mInvalidateColor);
             mInvalidateColor = ~mInvalidateColor;
+            mCanvas.flush();
         }
 
         if (DEBUG_DRAWING_STAT) {
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.gallery3d.glrenderer.BitmapTexture;
+import com.android.gallery3d.glrenderer.GLCanvas;
+import com.android.gallery3d.util.GifAction;
+import com.android.gallery3d.util.GifDecoder;
+import com.android.gallery3d.util.GifFrame;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+// GifScreenNail plays an animated GIF in the photo page. It is a
+// TiledScreenNail of the first frame, which is drawn until the frames of the
+// GIF are decoded.
+//
+// The frames are decoded just ahead by a GifDecoder in the streaming mode, on
+// its own thread, and uploaded one after another to the same texture. The
+// playback is timed by AnimationTime in draw(), and a render is requested
+// when the next frame is due, so nothing is drawn between the frames.
+//
+// Only the current photo plays: the GIF is opened when it is drawn as the
+// current photo, and its decoder is stopped when it is not current anymore.
+public class GifScreenNail extends TiledScreenNail implements GifAction {
+    @SuppressWarnings("unused")
+    private static final String TAG = "GifScreenNail";
+
+    // The frames with a shorter delay are shown with the default delay, as
+    // the browsers do.
+    private static final int MIN_DELAY = 20;
+    private static final int DEFAULT_DELAY = 100;
+    // How soon to look again for a frame the decoder has not given yet.
+    private static final int RETRY_DELAY = 16;
+    // Larger GIFs are shown as still images.
+    private static final int MAX_FRAME_SIDE = 2048;
+
+    private final GLRoot mRoot;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final RectF mSourceRect = new RectF();
+    private final Uri mUri;
+    private boolean mCurrent;
+    private GifDecoder mDecoder;
+    private FrameTexture mFrameTexture;
+    private long mNextFrameTime;
+    private volatile boolean mStopped;
+
+    private final Runnable mRenderRequest = new Runnable() {
+        @Override
+        public void run() {
+            mRoot.requestRender();
+        }
+    };
+
+    private static class FrameTexture extends BitmapTexture {
+        public FrameTexture(Bitmap bitmap) {
+            super(bitmap);
+            setOpaque(false);
+        }
+
+        // The frames have the same size, so the texture is updated in place.
+        public void setBitmap(Bitmap bitmap) {
+            mContentBitmap = bitmap;
+            invalidateContent();
+        }
+    }
+
+    // The GIF is read from the uri when it is drawn as the current photo.
+    public GifScreenNail(Bitmap bitmap, Uri uri, GLRoot root) {
+        super(bitmap);
+        mUri = uri;
+        mRoot = root;
+    }
+
+    // Plays the GIF while it is the current photo. The decoder of a GIF
+    // which is not current is stopped, and started again from the first
+    // frame when the GIF is current again.
+    public void setCurrent(boolean current) {
+        if (mCurrent == current) return;
+        mCurrent = current;
+        if (!current) {
+            freeDecoder();
+            mRoot.requestRender();
+        }
+    }
+
+    // Returns false once the GIF is known not to be animated, so the tiles
+    // of the full image can be drawn instead of the ScreenNail.
+    public boolean isPlaying() {
+        return !mStopped;
+    }
+
+    @Override
+    public ScreenNail combine(ScreenNail other) {
+        // The frames are decoded from the old data, use the new ScreenNail.
+        if (other == null) return this;
+        recycle();
+        return other;
+    }
+
+    @Override
+    public void recycle() {
+        super.recycle();
+        stopPlaying();
+    }
+
+    @Override
+    public void draw(GLCanvas canvas, int x, int y, int width, int height) {
+        if (updateFrame()) {
+            mFrameTexture.draw(canvas, x, y, width, height);
+        } else {
+            super.draw(canvas, x, y, width, height);
+        }
+    }
+
+    @Override
+    public void draw(GLCanvas canvas, RectF source, RectF dest) {
+        if (!updateFrame()) {
+            super.draw(canvas, source, dest);
+            return;
+        }
+        float scaleX = (float) mFrameTexture.getWidth() / getWidth();
+        float scaleY = (float) mFrameTexture.getHeight() / getHeight();
+        mSourceRect.set(source.left * scaleX, source.top * scaleY,
+                source.right * scaleX, source.bottom * scaleY);
+        canvas.drawTexture(mFrameTexture, mSourceRect, dest);
+    }
+
+    // Called on the decoder thread when the first frame is decoded or the
+    // decoding fails.
+    @Override
+    public void parseOk(boolean parseStatus, int frameIndex) {
+        if (!parseStatus) mStopped = true;
+        mRoot.requestRender();
+    }
+
+    // Moves to the frame due at the animation time. Returns false if there is
+    // no frame to show.
+    private boolean updateFrame() {
+        if (mStopped || !mCurrent) return false;
+        if (mDecoder == null) {
+            InputStream stream = openStream();
+            if (stream == null) {
+                stopPlaying();
+                return false;
+            }
+            // The decoder closes the stream when it has read it.
+            mDecoder = new GifDecoder(stream, this, true);
+            mDecoder.start();
+            return false;
+        }
+
+        long now = AnimationTime.get();
+        if (mFrameTexture != null && now < mNextFrameTime) return true;
+
+        GifFrame frame = mDecoder.pollNext();
+        if (frame == null) {
+            int status = mDecoder.getStatus();
+            if (status == GifDecoder.STATUS_FORMAT_ERROR
+                    || status == GifDecoder.STATUS_OPEN_ERROR) {
+                stopPlaying();
+                return false;
+            }
+            // Either the first frame is not decoded yet, and parseOk() will
+            // request a render, or the decoder is late.
+            if (mFrameTexture != null) scheduleRender(now + RETRY_DELAY);
+            return mFrameTexture != null;
+        }
+
+        if (mFrameTexture == null) {
+            if (mDecoder.getFrameCount() < 2 || Math.max(mDecoder.mWidth,
+                    mDecoder.mHeight) > MAX_FRAME_SIDE) {
+                stopPlaying();
+                return false;
+            }
+            mFrameTexture = new FrameTexture(frame.mImage);
+        } else {
+            mFrameTexture.setBitmap(frame.mImage);
+        }
+
+        int delay = frame.mDelayInMs < MIN_DELAY ? DEFAULT_DELAY : frame.mDelayInMs;
+        // Keep the pace of the frames, unless we are late by more than a frame
+        // (e.g. the ScreenNail was not drawn for a while).
+        mNextFrameTime = (now - mNextFrameTime > delay)
+                ? now + delay
+                : mNextFrameTime + delay;
+        scheduleRender(mNextFrameTime);
+        return true;
+    }
+
+    private void scheduleRender(long uptimeMillis) {
+        mHandler.removeCallbacks(mRenderRequest);
+        mHandler.postAtTime(mRenderRequest, uptimeMillis);
+    }
+
+    private InputStream openStream() {
+        try {
+            return mRoot.getContext().getContentResolver().openInputStream(mUri);
+        } catch (FileNotFoundException e) {
+            Log.w(TAG, "cannot open " + mUri, e);
+            return null;
+        }
+    }
+
+    private void stopPlaying() {
+        if (mStopped && mDecoder == null) return;
+        mStopped = true;
+        freeDecoder();
+        // Redraw with the still image or the tiles.
+        mRoot.requestRender();
+    }
+
+    private void freeDecoder() {
+        mHandler.removeCallbacks(mRenderRequest);
+        if (mFrameTexture != null) {
+            mFrameTexture.recycle();
+            mFrameTexture = null;
+        }
+        if (mDecoder != null) {
+            mDecoder.free();
+            mDecoder = null;
+        }
+        mNextFrameTime = 0;
+    }
+}
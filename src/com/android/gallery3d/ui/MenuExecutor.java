@@ -24,11 +24,14 @@ import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.content.DialogInterface.OnClickListener;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Message;
 import android.support.v4.print.PrintHelper;
+import android.util.Pair;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.Toast;
 
 import com.android.gallery3d.R;
 import com.android.gallery3d.app.AbstractGalleryActivity;
@@ -38,12 +41,16 @@ import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.MediaObject;
 import com.android.gallery3d.data.Path;
 import com.android.gallery3d.filtershow.crop.CropActivity;
+import com.android.gallery3d.filtershow.data.FilterStackSource;
+import com.android.gallery3d.filtershow.pipeline.ProcessingService;
 import com.android.gallery3d.util.Future;
+import com.android.gallery3d.util.FutureListener;
 import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.ThreadPool.Job;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class MenuExecutor {
     private static final String TAG = "MenuExecutor";
@@ -53,6 +60,10 @@ public class MenuExecutor {
     private static final int MSG_TASK_START = 3;
     private static final int MSG_DO_SHARE = 4;
 
+    // The JPEG quality of the images a user preset is applied to, as for the
+    // images saved by the editor.
+    private static final int PRESET_QUALITY = 90;
+
     public static final int EXECUTION_RESULT_SUCCESS = 1;
     public static final int EXECUTION_RESULT_FAIL = 2;
     public static final int EXECUTION_RESULT_CANCEL = 3;
@@ -197,6 +208,11 @@ public class MenuExecutor {
         setMenuItemVisible(menu, R.id.print, supportPrint);
     }
 
+    // A preset can be applied only when all the selected items can be edited.
+    public static void updateMenuForPresets(Menu menu, boolean canApplyPreset) {
+        setMenuItemVisible(menu, R.id.action_apply_preset, canApplyPreset);
+    }
+
     public static void updateMenuForPanorama(Menu menu, boolean shareAsPanorama360,
             boolean disablePanorama360Options) {
         setMenuItemVisible(menu, R.id.action_share_panorama, shareAsPanorama360);
@@ -250,6 +266,9 @@ public class MenuExecutor {
                 ((Activity) mActivity).startActivity(Intent.createChooser(intent, null));
                 return;
             }
+            case R.id.action_apply_preset:
+                chooseUserPreset();
+                return;
             case R.id.action_setas: {
                 Intent intent = getIntentBySingleSelectedPath(Intent.ACTION_ATTACH_DATA)
                         .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
@@ -277,6 +296,70 @@ public class MenuExecutor {
         startAction(action, title, listener, waitOnStop, showDialog);
     }
 
+    // Reads the presets saved in the editor, and lets the user pick the one to
+    // apply to the selected images.
+    private void chooseUserPreset() {
+        final ArrayList<Path> paths = mSelectionManager.getSelected(true);
+        mActivity.getThreadPool().submit(new Job<List<Pair<String, byte[]>>>() {
+            @Override
+            public List<Pair<String, byte[]>> run(JobContext jc) {
+                FilterStackSource source = new FilterStackSource(mActivity);
+                source.open();
+                try {
+                    return source.getAllStacks();
+                } finally {
+                    source.close();
+                }
+            }
+        }, new FutureListener<List<Pair<String, byte[]>>>() {
+            @Override
+            public void onFutureDone(Future<List<Pair<String, byte[]>>> future) {
+                final List<Pair<String, byte[]>> presets = future.get();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        showUserPresets(presets, paths);
+                    }
+                });
+            }
+        });
+    }
+
+    private void showUserPresets(final List<Pair<String, byte[]>> presets,
+            final ArrayList<Path> paths) {
+        if (presets == null) {
+            Toast.makeText(mActivity, R.string.no_user_presets, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] names = new String[presets.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = presets.get(i).first;
+        }
+        new AlertDialog.Builder(mActivity)
+                .setTitle(R.string.apply_preset)
+                .setItems(names, new OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        applyUserPreset(new String(presets.get(which).second), paths);
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .create().show();
+    }
+
+    // The images are saved as edits of their sources by the ProcessingService,
+    // which shows the progress in a notification.
+    private void applyUserPreset(String presetJson, ArrayList<Path> paths) {
+        DataManager manager = mActivity.getDataManager();
+        ArrayList<Uri> uris = new ArrayList<Uri>(paths.size());
+        for (Path path : paths) {
+            uris.add(manager.getContentUri(path));
+        }
+        mActivity.startService(ProcessingService.getBatchIntent(
+                mActivity, presetJson, uris, PRESET_QUALITY));
+        mSelectionManager.leaveSelectionMode();
+    }
+
     private class ConfirmDialogListener implements OnClickListener, OnCancelListener {
         private final int mActionId;
         private final ProgressListener mListener;
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.content.res.Configuration;
 import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Point;
 import android.graphics.Rect;
 import android.os.Build;
 import android.os.Message;
@@ -601,6 +602,8 @@ public class PhotoView extends GLView {
         private boolean mIsDeletable;
         private int mLoadingState = Model.LOADING_INIT;
         private Size mSize = new Size();
+        private final Point mTileViewCenter = new Point();
+        private final Rect mFinalPosition = new Rect();
 
         @Override
         public void reload() {
@@ -730,6 +733,7 @@ public class PhotoView extends GLView {
 
             // Draw the tile view.
             setTileViewPosition(cx, cy, viewW, viewH, imageScale);
+            updateTileViewPrefetch(filmRatio, viewW, viewH);
             renderChild(canvas, mTileView);
 
             // Draw the play video icon and the message.
@@ -750,7 +754,31 @@ public class PhotoView extends GLView {
         // Set the position of the tile view
         private void setTileViewPosition(float cx, float cy,
                 int viewW, int viewH, float scale) {
-            // Find out the bitmap coordinates of the center of the view
+            Point center = mTileViewCenter;
+            getTileViewCenter(cx, cy, viewW, viewH, scale, center);
+            mTileView.setPosition(center.x, center.y, scale, mRotation);
+        }
+
+        // Let the tile view decode the tiles at the position where the
+        // current fling or zoom animation ends.
+        private void updateTileViewPrefetch(float filmRatio, int viewW, int viewH) {
+            Rect r = mFinalPosition;
+            if (filmRatio != 0f || mPositionController.inOpeningAnimation()
+                    || !mPositionController.getFinalPosition(r)
+                    || r.width() == 0 || r.right <= 0 || r.left >= viewW) {
+                mTileView.cancelPrefetch();
+                return;
+            }
+            float scale = (float) r.width() / mPositionController.getImageWidth();
+            Point center = mTileViewCenter;
+            getTileViewCenter(r.exactCenterX(), r.exactCenterY(),
+                    viewW, viewH, scale, center);
+            mTileView.setPrefetchPosition(center.x, center.y, scale);
+        }
+
+        // Find out the bitmap coordinates of the center of the view
+        private void getTileViewCenter(float cx, float cy,
+                int viewW, int viewH, float scale, Point out) {
             int imageW = mPositionController.getImageWidth();
             int imageH = mPositionController.getImageHeight();
             int centerX = (int) (imageW / 2f + (viewW / 2f - cx) / scale + 0.5f);
@@ -767,7 +795,7 @@ public class PhotoView extends GLView {
                 default:
                     throw new RuntimeException(String.valueOf(mRotation));
             }
-            mTileView.setPosition(x, y, scale, mRotation);
+            out.set(x, y);
         }
     }
 
@@ -921,6 +921,28 @@ class PositionController {
         return mRects.get(index);
     }
 
+    // Gets the position of the focused box at the end of the current
+    // animation. Returns false if the focused box is not animating.
+    public boolean getFinalPosition(Rect r) {
+        Box b = mBoxes.get(0);
+        Platform p = mPlatform;
+        boolean platformMoving = p.mAnimationStartTime != NO_ANIMATION;
+        boolean boxMoving = b.mAnimationStartTime != NO_ANIMATION;
+        if (!platformMoving && !boxMoving) return false;
+
+        int x = (platformMoving ? p.mToX : p.mCurrentX) + mViewW / 2;
+        int y = (boxMoving ? b.mToY : b.mCurrentY)
+                + (platformMoving ? p.mToY : p.mCurrentY) + mViewH / 2;
+        float scale = getTargetScale(b);
+        int w = widthOf(b, scale);
+        int h = heightOf(b, scale);
+        r.left = x - w / 2;
+        r.right = r.left + w;
+        r.top = y - h / 2;
+        r.bottom = r.top + h;
+        return true;
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     //  Box management
     ////////////////////////////////////////////////////////////////////////////
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.ui;
+
+import android.graphics.BitmapRegionDecoder;
+
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.Job;
+
+import java.util.ArrayList;
+
+// A set of BitmapRegionDecoders opened on the same image.
+//
+// A BitmapRegionDecoder can only decode one region at a time, so several tile
+// decoders need several instances. The first instance is the one given by the
+// caller and is not owned by the pool; the others are opened lazily with the
+// given job (when a tile decoder finds all instances busy) and recycled when
+// the pool is closed.
+class RegionDecoderPool {
+    private static final String TAG = "RegionDecoderPool";
+
+    private static final int MAX_DECODERS = 4;
+
+    // We assume each decoder keeps an index of about one byte for every four
+    // pixels, and let the decoders of one image use 1/8 of the heap.
+    private static final int PIXELS_PER_INDEX_BYTE = 4;
+    private static final int HEAP_FRACTION = 8;
+
+    private final BitmapRegionDecoder mPrimary;
+    private final Job<BitmapRegionDecoder> mOpener;
+    private final ArrayList<BitmapRegionDecoder> mIdle =
+            new ArrayList<BitmapRegionDecoder>();
+    private int mMaxCount;
+    private int mCount = 1;
+    private boolean mOpening;
+    private boolean mClosed;
+
+    public RegionDecoderPool(BitmapRegionDecoder primary,
+            Job<BitmapRegionDecoder> opener) {
+        mPrimary = Utils.checkNotNull(primary);
+        mOpener = opener;
+        mIdle.add(primary);
+        mMaxCount = opener == null ? 1 : getMaxCount(
+                primary.getWidth(), primary.getHeight());
+    }
+
+    private static int getMaxCount(int width, int height) {
+        long indexSize = Math.max(1L,
+                (long) width * height / PIXELS_PER_INDEX_BYTE);
+        long budget = Runtime.getRuntime().maxMemory() / HEAP_FRACTION;
+        int cores = Runtime.getRuntime().availableProcessors();
+        return (int) Utils.clamp(budget / indexSize, 1,
+                Math.min(cores, MAX_DECODERS));
+    }
+
+    public BitmapRegionDecoder getPrimary() {
+        return mPrimary;
+    }
+
+    // Returns an idle decoder, opening a new one if all of them are busy and
+    // the limit is not reached yet, or waits for one to be released.
+    // Returns null if the pool is closed.
+    public BitmapRegionDecoder acquire() {
+        synchronized (this) {
+            while (true) {
+                if (mClosed) return null;
+                if (!mIdle.isEmpty()) {
+                    return mIdle.remove(mIdle.size() - 1);
+                }
+                if (!mOpening && mCount < mMaxCount) break;
+                Utils.waitWithoutInterrupt(this);
+            }
+            mOpening = true;
+        }
+
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = mOpener.run(ThreadPool.JOB_CONTEXT_STUB);
+        } catch (Throwable t) {
+            Log.w(TAG, "fail to open region decoder", t);
+        }
+
+        synchronized (this) {
+            mOpening = false;
+            if (decoder == null) {
+                // Do not try again, work with what we have.
+                mMaxCount = mCount;
+                notifyAll();
+            } else if (mClosed) {
+                decoder.recycle();
+                decoder = null;
+            } else {
+                ++mCount;
+            }
+        }
+        // If the opening failed, the caller waits for a busy decoder.
+        return decoder != null ? decoder : acquire();
+    }
+
+    public synchronized void release(BitmapRegionDecoder decoder) {
+        if (mClosed) {
+            if (decoder != mPrimary) decoder.recycle();
+            return;
+        }
+        mIdle.add(decoder);
+        notifyAll();
+    }
+
+    // Recycles the decoders opened by the pool. Decoders still in use are
+    // recycled when they are released.
+    public synchronized void close() {
+        if (mClosed) return;
+        mClosed = true;
+        for (BitmapRegionDecoder decoder : mIdle) {
+            if (decoder != mPrimary) decoder.recycle();
+        }
+        mIdle.clear();
+        notifyAll();
+    }
+}
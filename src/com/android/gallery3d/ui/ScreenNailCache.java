@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.ui;
+
+import android.graphics.Bitmap;
+
+import com.android.gallery3d.data.MediaItem;
+import com.android.gallery3d.data.Path;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
+import com.android.photos.data.GalleryBitmapPool;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// ScreenNailCache keeps the decoded screennail bitmaps, so going from one
+// page to another (the photo page, the filmstrip or the slideshow) does not
+// decode the same images again.
+//
+// The bitmaps are shared: each user holds a reference, which it gives back
+// with release(). A bitmap from the cache must not be modified or recycled.
+// The least recently used bitmaps without references are evicted to the
+// GalleryBitmapPool when the cache goes over its capacity.
+public class ScreenNailCache {
+    @SuppressWarnings("unused")
+    private static final String TAG = "ScreenNailCache";
+
+    private static final int MAX_CAPACITY_BYTES = 32 * 1024 * 1024;
+
+    private static class Key {
+        public final Path path;
+        public final long version;
+        public final int type;
+
+        public Key(Path path, long version, int type) {
+            this.path = path;
+            this.version = version;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return path == k.path && version == k.version && type == k.type;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = path.hashCode();
+            h = 31 * h + (int) (version ^ (version >>> 32));
+            return 31 * h + type;
+        }
+    }
+
+    private static class Entry {
+        public final Key key;
+        public final Bitmap bitmap;
+        public int refCount;
+
+        public Entry(Key key, Bitmap bitmap) {
+            this.key = key;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private static ScreenNailCache sInstance = new ScreenNailCache(
+            (int) Math.min(MAX_CAPACITY_BYTES, Runtime.getRuntime().maxMemory() / 8));
+
+    // In access order: the first entry is the least recently used.
+    private final LinkedHashMap<Key, Entry> mEntries =
+            new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final IdentityHashMap<Bitmap, Entry> mBitmaps =
+            new IdentityHashMap<Bitmap, Entry>();
+    private final int mCapacityBytes;
+    private int mSizeBytes;
+
+    private ScreenNailCache(int capacityBytes) {
+        mCapacityBytes = capacityBytes;
+    }
+
+    public static ScreenNailCache getInstance() {
+        return sInstance;
+    }
+
+    // Returns the cached bitmap of the image, with a reference for the caller,
+    // or null if it is not in the cache.
+    public synchronized Bitmap acquire(Path path, long version, int type) {
+        Entry entry = mEntries.get(new Key(path, version, type));
+        if (entry == null) return null;
+        ++entry.refCount;
+        return entry.bitmap;
+    }
+
+    // Adds the bitmap of the image to the cache, and returns the bitmap the
+    // caller should use instead, with a reference for the caller. It is the
+    // given one unless another one was added for the same image before.
+    public synchronized Bitmap put(Path path, long version, int type, Bitmap bitmap) {
+        Key key = new Key(path, version, type);
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            if (entry.bitmap != bitmap) GalleryBitmapPool.getInstance().put(bitmap);
+            ++entry.refCount;
+            return entry.bitmap;
+        }
+        entry = new Entry(key, bitmap);
+        entry.refCount = 1;
+        mEntries.put(key, entry);
+        mBitmaps.put(bitmap, entry);
+        mSizeBytes += bitmap.getByteCount();
+        trimToSize(mCapacityBytes);
+        return bitmap;
+    }
+
+    // Gives back a reference to a bitmap. Returns false if the bitmap is not
+    // from the cache, the caller still owns it then.
+    public synchronized boolean release(Bitmap bitmap) {
+        if (bitmap == null) return false;
+        Entry entry = mBitmaps.get(bitmap);
+        if (entry == null) return false;
+        if (entry.refCount > 0) --entry.refCount;
+        if (entry.refCount == 0) trimToSize(mCapacityBytes);
+        return true;
+    }
+
+    // Evicts all the bitmaps which are not used.
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private void trimToSize(int sizeBytes) {
+        Iterator<Entry> iter = mEntries.values().iterator();
+        while (mSizeBytes > sizeBytes && iter.hasNext()) {
+            Entry entry = iter.next();
+            if (entry.refCount > 0) continue;
+            iter.remove();
+            mBitmaps.remove(entry.bitmap);
+            mSizeBytes -= entry.bitmap.getByteCount();
+            GalleryBitmapPool.getInstance().put(entry.bitmap);
+        }
+    }
+
+    // Returns a job which gives the image of the item from the cache, or
+    // decodes it and adds it to the cache. The caller gets a reference to the
+    // bitmap, see release().
+    public Job<Bitmap> requestImage(final MediaItem item, final int type) {
+        final Path path = item.getPath();
+        final long version = item.getDataVersion();
+        return new Job<Bitmap>() {
+            @Override
+            public Bitmap run(JobContext jc) {
+                Bitmap bitmap = acquire(path, version, type);
+                if (bitmap != null) return bitmap;
+                bitmap = item.requestImage(type).run(jc);
+                if (bitmap == null) return null;
+                return put(path, version, type, bitmap);
+            }
+        };
+    }
+}
@@ -23,6 +23,7 @@ import com.android.gallery3d.anim.CanvasAnimation;
 import com.android.gallery3d.anim.FloatAnimation;
 import com.android.gallery3d.glrenderer.BitmapTexture;
 import com.android.gallery3d.glrenderer.GLCanvas;
+import com.android.photos.data.GalleryBitmapPool;
 
 import java.util.Random;
 
@@ -37,11 +38,11 @@ public class SlideshowView extends GLView {
     private static final float MOVE_SPEED = SCALE_SPEED;
 
     private int mCurrentRotation;
-    private BitmapTexture mCurrentTexture;
+    private SlideTexture mCurrentTexture;
     private SlideshowAnimation mCurrentAnimation;
 
     private int mPrevRotation;
-    private BitmapTexture mPrevTexture;
+    private SlideTexture mPrevTexture;
     private SlideshowAnimation mPrevAnimation;
 
     private final FloatAnimation mTransitionAnimation =
@@ -49,13 +50,38 @@ public class SlideshowView extends GLView {
 
     private Random mRandom = new Random();
 
+    // The slides of the same size (e.g. the photos of a camera) are uploaded
+    // to the GL texture of the slide going away, instead of a new one.
+    private static class SlideTexture extends BitmapTexture {
+        public SlideTexture(Bitmap bitmap) {
+            super(bitmap);
+        }
+
+        public boolean canReuseFor(Bitmap bitmap) {
+            return mContentBitmap.getWidth() == bitmap.getWidth()
+                    && mContentBitmap.getHeight() == bitmap.getHeight()
+                    && mContentBitmap.getConfig() == bitmap.getConfig();
+        }
+
+        public void setBitmap(Bitmap bitmap) {
+            mContentBitmap = bitmap;
+            invalidateContent();
+        }
+    }
+
     public void next(Bitmap bitmap, int rotation) {
 
         mTransitionAnimation.start();
 
+        SlideTexture texture = null;
         if (mPrevTexture != null) {
-            mPrevTexture.getBitmap().recycle();
-            mPrevTexture.recycle();
+            releaseBitmap(mPrevTexture.getBitmap());
+            if (mPrevTexture.canReuseFor(bitmap)) {
+                texture = mPrevTexture;
+                texture.setBitmap(bitmap);
+            } else {
+                mPrevTexture.recycle();
+            }
         }
 
         mPrevTexture = mCurrentTexture;
@@ -63,7 +89,7 @@ public class SlideshowView extends GLView {
         mPrevRotation = mCurrentRotation;
 
         mCurrentRotation = rotation;
-        mCurrentTexture = new BitmapTexture(bitmap);
+        mCurrentTexture = (texture != null) ? texture : new SlideTexture(bitmap);
         if (((rotation / 90) & 0x01) == 0) {
             mCurrentAnimation = new SlideshowAnimation(
                     mCurrentTexture.getWidth(), mCurrentTexture.getHeight(),
@@ -81,14 +107,24 @@ public class SlideshowView extends GLView {
     public void release() {
         if (mPrevTexture != null) {
             mPrevTexture.recycle();
+            releaseBitmap(mPrevTexture.getBitmap());
             mPrevTexture = null;
         }
         if (mCurrentTexture != null) {
             mCurrentTexture.recycle();
+            releaseBitmap(mCurrentTexture.getBitmap());
             mCurrentTexture = null;
         }
     }
 
+    // The bitmap may be shared with the ScreenNailCache, otherwise it is
+    // given to the pool to be decoded into again.
+    private static void releaseBitmap(Bitmap bitmap) {
+        if (!ScreenNailCache.getInstance().release(bitmap)) {
+            GalleryBitmapPool.getInstance().put(bitmap);
+        }
+    }
+
     @Override
     protected void render(GLCanvas canvas) {
         long animTime = AnimationTime.get();
@@ -31,20 +31,27 @@ import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.data.DecodeUtils;
 import com.android.photos.data.GalleryBitmapPool;
 import com.android.gallery3d.glrenderer.GLCanvas;
+import com.android.gallery3d.glrenderer.UploadScheduler;
 import com.android.gallery3d.glrenderer.UploadedTexture;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.ThreadPool;
 import com.android.gallery3d.util.ThreadPool.CancelListener;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
-import java.util.concurrent.atomic.AtomicBoolean;
-
 public class TileImageView extends GLView {
     public static final int SIZE_UNKNOWN = -1;
 
     @SuppressWarnings("unused")
     private static final String TAG = "TileImageView";
     private static final int UPLOAD_LIMIT = 1;
+    private static final int MAX_TILE_DECODERS = 4;
+    private static final int MAX_PREFETCH_TILES = 16;
+
+    // The decoders loop until the textures are freed, so they have their own
+    // threads and do not hold the workers of the application thread pool.
+    // Only the view of the resumed page has decoders running.
+    private static final ThreadPool sDecoderPool =
+            new ThreadPool(MAX_TILE_DECODERS, MAX_TILE_DECODERS);
 
     // TILE_SIZE must be 2^N
     private static int sTileSize;
@@ -99,10 +106,20 @@ public class TileImageView extends GLView {
 
     private final LongSparseArray<Tile> mActiveTiles = new LongSparseArray<Tile>();
 
-    // The following three queue is guarded by TileImageView.this
+    // Tiles decoded ahead of time for the position at the end of the
+    // current animation. They are kept decoded (but not uploaded) until
+    // layoutTiles() activates them or the prefetch is cancelled.
+    private final LongSparseArray<Tile> mPrefetchTiles = new LongSparseArray<Tile>();
+    private boolean mHasPrefetch;
+    private int mPrefetchCenterX;
+    private int mPrefetchCenterY;
+    private float mPrefetchScale;
+
+    // The following four queue is guarded by TileImageView.this
     private final TileQueue mRecycledQueue = new TileQueue();
     private final TileQueue mUploadQueue = new TileQueue();
     private final TileQueue mDecodeQueue = new TileQueue();
+    private final TileQueue mPrefetchQueue = new TileQueue();
 
     // The width and height of the full-sized bitmap
     protected int mImageWidth = SIZE_UNKNOWN;
@@ -119,8 +136,7 @@ public class TileImageView extends GLView {
 
     private final TileUploader mTileUploader = new TileUploader();
     private boolean mIsTextureFreed;
-    private Future<Void> mTileDecoder;
-    private final ThreadPool mThreadPool;
+    private Future<?>[] mTileDecoders;
     private boolean mBackgroundTileUploaded;
 
     public static interface TileSource {
@@ -152,8 +168,7 @@ public class TileImageView extends GLView {
     }
 
     public TileImageView(GalleryContext context) {
-        mThreadPool = context.getThreadPool();
-        mTileDecoder = mThreadPool.submit(new TileDecoder());
+        startTileDecoders();
         if (sTileSize == 0) {
             if (isHighResolution(context.getAndroidContext())) {
                 sTileSize = 512 ;
@@ -173,6 +188,7 @@ public class TileImageView extends GLView {
     }
 
     public void notifyModelInvalidated() {
+        cancelPrefetch();
         invalidateTiles();
         if (mModel == null) {
             mScreenNail = null;
@@ -264,15 +280,17 @@ public class TileImageView extends GLView {
             }
         }
 
+        boolean prefetchUsed = false;
         for (int i = fromLevel; i < endLevel; ++i) {
             int size = sTileSize << i;
             Rect r = range[i - fromLevel];
             for (int y = r.top, bottom = r.bottom; y < bottom; y += size) {
                 for (int x = r.left, right = r.right; x < right; x += size) {
-                    activateTile(x, y, i);
+                    prefetchUsed |= activateTile(x, y, i);
                 }
             }
         }
+        if (prefetchUsed) updatePrefetchQueue();
         invalidate();
     }
 
@@ -364,13 +382,80 @@ public class TileImageView extends GLView {
         return true;
     }
 
+    // Decodes in advance, at a lower priority than the visible tiles, the
+    // tiles needed at the given position, which is where the current
+    // animation (e.g. a fling or a zoom) is going to end. A new position
+    // cancels the tiles prefetched for the previous one.
+    public void setPrefetchPosition(int centerX, int centerY, float scale) {
+        if (mHasPrefetch && mPrefetchCenterX == centerX
+                && mPrefetchCenterY == centerY && mPrefetchScale == scale) {
+            return;
+        }
+        cancelPrefetch();
+        if (mModel == null || mIsTextureFreed) return;
+
+        int level = Utils.clamp(Utils.floorLog2(1f / scale), 0, mLevelCount);
+        // The screen nail is used at that scale, nothing to decode.
+        if (level == mLevelCount) return;
+
+        mHasPrefetch = true;
+        mPrefetchCenterX = centerX;
+        mPrefetchCenterY = centerY;
+        mPrefetchScale = scale;
+
+        Rect r = new Rect();
+        getRange(r, centerX, centerY, level, scale, mRotation);
+        int size = sTileSize << level;
+        synchronized (this) {
+            for (int y = r.top, bottom = r.bottom; y < bottom; y += size) {
+                for (int x = r.left, right = r.right; x < right; x += size) {
+                    long key = makeTileKey(x, y, level);
+                    if (mActiveTiles.get(key) != null) continue;
+                    if (mPrefetchTiles.size() == MAX_PREFETCH_TILES) break;
+                    Tile tile = obtainTile(x, y, level);
+                    tile.mPrefetch = true;
+                    tile.mTileState = STATE_IN_QUEUE;
+                    mPrefetchTiles.put(key, tile);
+                    mPrefetchQueue.push(tile);
+                }
+            }
+            if (mPrefetchTiles.size() > 0) notifyAll();
+        }
+    }
+
+    public void cancelPrefetch() {
+        if (!mHasPrefetch) return;
+        mHasPrefetch = false;
+        synchronized (this) {
+            // The queue must be emptied before the tiles are pushed
+            // to the recycled queue.
+            mPrefetchQueue.clean();
+            int n = mPrefetchTiles.size();
+            for (int i = 0; i < n; i++) {
+                recycleTile(mPrefetchTiles.valueAt(i));
+            }
+            mPrefetchTiles.clear();
+        }
+    }
+
+    // Rebuilds the prefetch queue after some of its tiles were activated.
+    private synchronized void updatePrefetchQueue() {
+        mPrefetchQueue.clean();
+        int n = mPrefetchTiles.size();
+        for (int i = 0; i < n; i++) {
+            Tile tile = mPrefetchTiles.valueAt(i);
+            if (tile.mTileState == STATE_IN_QUEUE) mPrefetchQueue.push(tile);
+        }
+    }
+
     public void freeTextures() {
+        cancelPrefetch();
         mIsTextureFreed = true;
 
-        if (mTileDecoder != null) {
-            mTileDecoder.cancel();
-            mTileDecoder.get();
-            mTileDecoder = null;
+        if (mTileDecoders != null) {
+            for (Future<?> decoder : mTileDecoders) decoder.cancel();
+            for (Future<?> decoder : mTileDecoders) decoder.get();
+            mTileDecoders = null;
         }
 
         int n = mActiveTiles.size();
@@ -394,9 +479,7 @@ public class TileImageView extends GLView {
     }
 
     public void prepareTextures() {
-        if (mTileDecoder == null) {
-            mTileDecoder = mThreadPool.submit(new TileDecoder());
-        }
+        if (mTileDecoders == null) startTileDecoders();
         if (mIsTextureFreed) {
             layoutTiles(mCenterX, mCenterY, mScale, mRotation);
             mIsTextureFreed = false;
@@ -404,6 +487,17 @@ public class TileImageView extends GLView {
         }
     }
 
+    // Several tiles are decoded at the same time, each decoder needing its
+    // own BitmapRegionDecoder (see TileImageViewAdapter).
+    private void startTileDecoders() {
+        int count = Math.max(1, Math.min(MAX_TILE_DECODERS,
+                Runtime.getRuntime().availableProcessors()));
+        mTileDecoders = new Future<?>[count];
+        for (int i = 0; i < count; i++) {
+            mTileDecoders[i] = sDecoderPool.submit(new TileDecoder());
+        }
+    }
+
     @Override
     protected void render(GLCanvas canvas) {
         mUploadQuota = UPLOAD_LIMIT;
@@ -424,7 +518,8 @@ public class TileImageView extends GLView {
             }
         }
         try {
-            if (level != mLevelCount && !isScreenNailAnimating()) {
+            if (level != mLevelCount && !isScreenNailAnimating()
+                    && !isScreenNailPlaying()) {
                 if (mScreenNail != null) {
                     mScreenNail.noDraw();
                 }
@@ -464,6 +559,12 @@ public class TileImageView extends GLView {
                 && ((TiledScreenNail) mScreenNail).isAnimating();
     }
 
+    // An animated GIF is played on the ScreenNail, not on the tiles.
+    private boolean isScreenNailPlaying() {
+        return (mScreenNail instanceof GifScreenNail)
+                && ((GifScreenNail) mScreenNail).isPlaying();
+    }
+
     private void uploadBackgroundTiles(GLCanvas canvas) {
         mBackgroundTileUploaded = true;
         int n = mActiveTiles.size();
@@ -477,9 +578,7 @@ public class TileImageView extends GLView {
         synchronized (this) {
             mUploadQueue.push(tile);
         }
-        if (mTileUploader.mActive.compareAndSet(false, true)) {
-            getGLRoot().addOnGLIdleListener(mTileUploader);
-        }
+        getGLRoot().getUploadScheduler().schedule(mTileUploader);
     }
 
     synchronized void queueForDecode(Tile tile) {
@@ -510,10 +609,15 @@ public class TileImageView extends GLView {
         }
     }
 
+    private synchronized boolean isPrefetching(Tile tile) {
+        return tile.mPrefetch;
+    }
+
     private synchronized Tile obtainTile(int x, int y, int level) {
         Tile tile = mRecycledQueue.pop();
         if (tile != null) {
             tile.mTileState = STATE_ACTIVATED;
+            tile.mPrefetch = false;
             tile.update(x, y, level);
             return tile;
         }
@@ -533,17 +637,31 @@ public class TileImageView extends GLView {
         mRecycledQueue.push(tile);
     }
 
-    private void activateTile(int x, int y, int level) {
+    // Returns true if the tile was taken from the prefetched tiles.
+    private boolean activateTile(int x, int y, int level) {
         long key = makeTileKey(x, y, level);
         Tile tile = mActiveTiles.get(key);
         if (tile != null) {
             if (tile.mTileState == STATE_IN_QUEUE) {
                 tile.mTileState = STATE_ACTIVATED;
             }
-            return;
+            return false;
+        }
+        tile = mPrefetchTiles.get(key);
+        if (tile != null) {
+            synchronized (this) {
+                mPrefetchTiles.remove(key);
+                tile.mPrefetch = false;
+                if (tile.mTileState == STATE_IN_QUEUE) {
+                    tile.mTileState = STATE_ACTIVATED;
+                }
+            }
+            mActiveTiles.put(key, tile);
+            return true;
         }
         tile = obtainTile(x, y, level);
         mActiveTiles.put(key, tile);
+        return false;
     }
 
     private Tile getTile(int x, int y, int level) {
@@ -557,31 +675,33 @@ public class TileImageView extends GLView {
         return result;
     }
 
-    private class TileUploader implements GLRoot.OnGLIdleListener {
-        AtomicBoolean mActive = new AtomicBoolean(false);
-
+    // The tiles in the upload queue are all visible, they are uploaded as
+    // foreground textures.
+    private class TileUploader implements UploadScheduler.Client {
         @Override
-        public boolean onGLIdle(GLCanvas canvas, boolean renderRequested) {
-            // Skips uploading if there is a pending rendering request.
-            // Returns true to keep uploading in next rendering loop.
-            if (renderRequested) return true;
-            int quota = UPLOAD_LIMIT;
-            Tile tile = null;
-            while (quota > 0) {
+        public int uploadNext(GLCanvas canvas, int priority) {
+            if (priority != UploadScheduler.PRIORITY_FOREGROUND) return 0;
+            while (true) {
+                Tile tile;
                 synchronized (TileImageView.this) {
                     tile = mUploadQueue.pop();
                 }
-                if (tile == null) break;
+                if (tile == null) return 0;
                 if (!tile.isContentValid()) {
                     boolean hasBeenLoaded = tile.isLoaded();
                     Utils.assertTrue(tile.mTileState == STATE_DECODED);
                     tile.updateContent(canvas);
                     if (!hasBeenLoaded) tile.draw(canvas, 0, 0);
-                    --quota;
+                    return sTileSize * sTileSize * 4;
                 }
             }
-            if (tile == null) mActive.set(false);
-            return tile != null;
+        }
+
+        @Override
+        public boolean hasPendingUploads() {
+            synchronized (TileImageView.this) {
+                return !mUploadQueue.isEmpty();
+            }
         }
     }
 
@@ -657,6 +777,8 @@ public class TileImageView extends GLView {
         public Tile mNext;
         public Bitmap mDecodedTile;
         public volatile int mTileState = STATE_ACTIVATED;
+        // Guarded by TileImageView.this
+        public boolean mPrefetch;
 
         public Tile(int x, int y, int level) {
             mX = x;
@@ -749,6 +871,40 @@ public class TileImageView extends GLView {
             return wasEmpty;
         }
 
+        // Removes the tile to decode first: the coarsest level goes first,
+        // as it covers for the finer tiles not decoded yet, then the tile
+        // closest to (centerX, centerY).
+        public Tile popNearest(int centerX, int centerY) {
+            Tile best = null;
+            Tile bestPrev = null;
+            long bestDistance = 0;
+            for (Tile prev = null, tile = mHead; tile != null;
+                    prev = tile, tile = tile.mNext) {
+                int half = (sTileSize << tile.mTileLevel) / 2;
+                long dx = tile.mX + half - centerX;
+                long dy = tile.mY + half - centerY;
+                long distance = dx * dx + dy * dy;
+                if (best == null || tile.mTileLevel > best.mTileLevel
+                        || (tile.mTileLevel == best.mTileLevel
+                        && distance < bestDistance)) {
+                    best = tile;
+                    bestPrev = prev;
+                    bestDistance = distance;
+                }
+            }
+            if (best == null) return null;
+            if (bestPrev == null) {
+                mHead = best.mNext;
+            } else {
+                bestPrev.mNext = best.mNext;
+            }
+            return best;
+        }
+
+        public boolean isEmpty() {
+            return mHead == null;
+        }
+
         public void clean() {
             mHead = null;
         }
@@ -772,13 +928,19 @@ public class TileImageView extends GLView {
             while (!jc.isCancelled()) {
                 Tile tile = null;
                 synchronized(TileImageView.this) {
-                    tile = mDecodeQueue.pop();
+                    tile = mDecodeQueue.popNearest(mCenterX, mCenterY);
+                    if (tile == null) {
+                        tile = mPrefetchQueue.popNearest(
+                                mPrefetchCenterX, mPrefetchCenterY);
+                    }
                     if (tile == null && !jc.isCancelled()) {
                         Utils.waitWithoutInterrupt(TileImageView.this);
                     }
                 }
                 if (tile == null) continue;
-                if (decodeTile(tile)) queueForUpload(tile);
+                if (decodeTile(tile) && !isPrefetching(tile)) {
+                    queueForUpload(tile);
+                }
             }
             return null;
         }
@@ -24,8 +24,11 @@ import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Rect;
 
+import com.android.gallery3d.app.GalleryApp;
 import com.android.gallery3d.common.ApiHelper;
 import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.data.TileCacheService;
+import com.android.gallery3d.util.ThreadPool.Job;
 import com.android.photos.data.GalleryBitmapPool;
 
 public class TileImageViewAdapter implements TileImageView.TileSource {
@@ -33,6 +36,9 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
     protected ScreenNail mScreenNail;
     protected boolean mOwnScreenNail;
     protected BitmapRegionDecoder mRegionDecoder;
+    private RegionDecoderPool mDecoderPool;
+    private GalleryApp mApplication;
+    private String mTileCacheKey;
     protected int mImageWidth;
     protected int mImageHeight;
     protected int mLevelCount;
@@ -45,7 +51,8 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
         mImageWidth = 0;
         mImageHeight = 0;
         mLevelCount = 0;
-        mRegionDecoder = null;
+        mTileCacheKey = null;
+        setDecoderPool(null);
     }
 
     // Caller is responsible to recycle the ScreenNail
@@ -55,17 +62,45 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
         mScreenNail = screenNail;
         mImageWidth = width;
         mImageHeight = height;
+        // The decoder pool is kept (but not used) until the next
+        // setRegionDecoder(), which usually gives the same decoder again.
         mRegionDecoder = null;
+        mTileCacheKey = null;
         mLevelCount = 0;
     }
 
     public synchronized void setRegionDecoder(BitmapRegionDecoder decoder) {
-        mRegionDecoder = Utils.checkNotNull(decoder);
+        setRegionDecoder(decoder, null, null);
+    }
+
+    // The opener is used to open more decoders on the same image, so that
+    // several tiles can be decoded at the same time. The cache key identifies
+    // the image in the tile cache. Both may be null.
+    public synchronized void setRegionDecoder(BitmapRegionDecoder decoder,
+            Job<BitmapRegionDecoder> opener, String cacheKey) {
+        Utils.checkNotNull(decoder);
+        if (mDecoderPool == null || mDecoderPool.getPrimary() != decoder) {
+            setDecoderPool(new RegionDecoderPool(decoder, opener));
+        }
+        mRegionDecoder = decoder;
+        mTileCacheKey = cacheKey;
         mImageWidth = decoder.getWidth();
         mImageHeight = decoder.getHeight();
         mLevelCount = calculateLevelCount();
     }
 
+    // Tiles of images with a cache key are read from and written to the
+    // tile cache of the application.
+    public synchronized void enableTileCache(GalleryApp application) {
+        mApplication = application;
+    }
+
+    private void setDecoderPool(RegionDecoderPool pool) {
+        if (mDecoderPool != null) mDecoderPool.close();
+        mDecoderPool = pool;
+        mRegionDecoder = pool == null ? null : pool.getPrimary();
+    }
+
     private int calculateLevelCount() {
         return Math.max(0, Utils.ceilLog2(
                 (float) mImageWidth / mScreenNail.getWidth()));
@@ -82,23 +117,53 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
     //
     // As a result, we should decode region (50-6, 50-6, 250+6, 250+6) or
     // (44, 44, 256, 256) from the original photo and down sample it to 106.
-    @TargetApi(ApiHelper.VERSION_CODES.HONEYCOMB)
     @Override
     public Bitmap getTile(int level, int x, int y, int tileSize) {
-        if (!ApiHelper.HAS_REUSING_BITMAP_IN_BITMAP_REGION_DECODER) {
-            return getTileWithoutReusingBitmap(level, x, y, tileSize);
+        GalleryApp application;
+        String cacheKey;
+        synchronized (this) {
+            if (mRegionDecoder == null) return null;
+            application = mApplication;
+            cacheKey = TileCacheService.isCacheable(level) ? mTileCacheKey : null;
+        }
+        // This may block on file I/O the first time, we are on a decoder thread.
+        TileCacheService tileCache = (application != null && cacheKey != null)
+                ? application.getTileCacheService() : null;
+
+        if (tileCache != null) {
+            GalleryBitmapPool bitmapPool = GalleryBitmapPool.getInstance();
+            Bitmap reuse = bitmapPool.get(tileSize, tileSize);
+            Bitmap bitmap = tileCache.getTile(cacheKey, level, x, y, reuse);
+            if (reuse != null && reuse != bitmap) bitmapPool.put(reuse);
+            if (bitmap != null) return bitmap;
         }
 
+        Bitmap bitmap = ApiHelper.HAS_REUSING_BITMAP_IN_BITMAP_REGION_DECODER
+                ? decodeTile(level, x, y, tileSize)
+                : getTileWithoutReusingBitmap(level, x, y, tileSize);
+
+        if (bitmap != null && tileCache != null) {
+            synchronized (this) {
+                // Do not store the tile if the image changed meanwhile.
+                if (!cacheKey.equals(mTileCacheKey)) return bitmap;
+            }
+            tileCache.putTile(cacheKey, level, x, y, bitmap);
+        }
+        return bitmap;
+    }
+
+    @TargetApi(ApiHelper.VERSION_CODES.HONEYCOMB)
+    private Bitmap decodeTile(int level, int x, int y, int tileSize) {
         int t = tileSize << level;
 
         Rect wantRegion = new Rect(x, y, x + t, y + t);
 
         boolean needClear;
-        BitmapRegionDecoder regionDecoder = null;
+        RegionDecoderPool pool;
 
         synchronized (this) {
-            regionDecoder = mRegionDecoder;
-            if (regionDecoder == null) return null;
+            pool = mDecoderPool;
+            if (mRegionDecoder == null || pool == null) return null;
 
             // We need to clear a reused bitmap, if wantRegion is not fully
             // within the image.
@@ -119,12 +184,12 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
         options.inSampleSize =  (1 << level);
         options.inBitmap = bitmap;
 
+        BitmapRegionDecoder regionDecoder = pool.acquire();
         try {
-            // In CropImage, we may call the decodeRegion() concurrently.
-            synchronized (regionDecoder) {
-                bitmap = regionDecoder.decodeRegion(wantRegion, options);
-            }
+            bitmap = regionDecoder == null
+                    ? null : regionDecoder.decodeRegion(wantRegion, options);
         } finally {
+            if (regionDecoder != null) pool.release(regionDecoder);
             if (options.inBitmap != bitmap && options.inBitmap != null) {
                 GalleryBitmapPool.getInstance().put(options.inBitmap);
                 options.inBitmap = null;
@@ -142,12 +207,12 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
         int t = tileSize << level;
         Rect wantRegion = new Rect(x, y, x + t, y + t);
 
-        BitmapRegionDecoder regionDecoder;
+        RegionDecoderPool pool;
         Rect overlapRegion;
 
         synchronized (this) {
-            regionDecoder = mRegionDecoder;
-            if (regionDecoder == null) return null;
+            pool = mDecoderPool;
+            if (mRegionDecoder == null || pool == null) return null;
             overlapRegion = new Rect(0, 0, mImageWidth, mImageHeight);
             Utils.assertTrue(overlapRegion.intersect(wantRegion));
         }
@@ -158,9 +223,12 @@ public class TileImageViewAdapter implements TileImageView.TileSource {
         options.inSampleSize =  (1 << level);
         Bitmap bitmap = null;
 
-        // In CropImage, we may call the decodeRegion() concurrently.
-        synchronized (regionDecoder) {
+        BitmapRegionDecoder regionDecoder = pool.acquire();
+        if (regionDecoder == null) return null;
+        try {
             bitmap = regionDecoder.decodeRegion(overlapRegion, options);
+        } finally {
+            pool.release(regionDecoder);
         }
 
         if (bitmap == null) {
@@ -89,7 +89,8 @@ public class TiledScreenNail implements ScreenNail {
             return this;
         }
 
-        if (!(other instanceof TiledScreenNail)) {
+        // A GifScreenNail plays its own frames, so it is used as it is.
+        if (!(other instanceof TiledScreenNail) || other instanceof GifScreenNail) {
             recycle();
             return other;
         }
@@ -100,7 +101,7 @@ public class TiledScreenNail implements ScreenNail {
         mWidth = newer.mWidth;
         mHeight = newer.mHeight;
         if (newer.mTexture != null) {
-            if (mBitmap != null) GalleryBitmapPool.getInstance().put(mBitmap);
+            if (mBitmap != null) freeBitmap(mBitmap);
             if (mTexture != null) mTexture.recycle();
             mBitmap = newer.mBitmap;
             mTexture = newer.mTexture;
@@ -138,11 +139,18 @@ public class TiledScreenNail implements ScreenNail {
             mTexture = null;
         }
         if (mBitmap != null) {
-            GalleryBitmapPool.getInstance().put(mBitmap);
+            freeBitmap(mBitmap);
             mBitmap = null;
         }
     }
 
+    // The bitmap may be shared with the ScreenNailCache.
+    private static void freeBitmap(Bitmap bitmap) {
+        if (!ScreenNailCache.getInstance().release(bitmap)) {
+            GalleryBitmapPool.getInstance().put(bitmap);
+        }
+    }
+
     public static void disableDrawPlaceholder() {
         mDrawPlaceholder = false;
     }
@@ -18,21 +18,147 @@ package com.android.gallery3d.util;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.StatFs;
 import android.preference.PreferenceManager;
 
 import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 
+// CacheManager opens the disk caches by their names, and divides a disk budget
+// among them.
+//
+// Each cache is registered with its default capacity. Together the caches may
+// take the sum of the default capacities, or a part of the storage if that is
+// less. From time to time the budget is divided again: each cache keeps a
+// minimum, and the rest goes to the caches by the hits per byte they had since
+// the last time, but not over their default capacities. The capacities move
+// half the way to the new shares each time, and are kept in the preferences.
 public class CacheManager {
     private static final String TAG = "CacheManager";
     private static final String KEY_CACHE_UP_TO_DATE = "cache-up-to-date";
+    private static final String KEY_CACHE_CAPACITY_PREFIX = "cache-capacity-";
+
+    // The caches may take at most 1/STORAGE_FRACTION of the storage.
+    private static final int STORAGE_FRACTION = 20;
+    // Each cache keeps 1/MIN_CAPACITY_FRACTION of its default capacity.
+    private static final int MIN_CAPACITY_FRACTION = 4;
+    // The budget is not divided again before this many lookups.
+    private static final int MIN_LOOKUPS = 100;
+
     private static HashMap<String, BlobCache> sCacheMap =
             new HashMap<String, BlobCache>();
+    // Guarded by sCacheMap.
+    private static ArrayList<Budget> sBudgets = new ArrayList<Budget>();
+    // Held while the budget is divided, which reads the sizes of the files
+    // and may flip the regions of the caches, so sCacheMap is not held then.
+    private static final Object sRebalanceLock = new Object();
     private static boolean sOldCheckDone = false;
 
+    // A cache which shares the disk budget.
+    public interface BudgetedCache {
+        // The bytes the cache takes on the disk.
+        public long getUsedBytes();
+
+        // The lookups since the cache is opened, and the ones which are found.
+        public long getLookupCount();
+        public long getHitCount();
+
+        // Sets the bytes the cache may take on the disk. The cache may take
+        // more for a while, until it removes its old entries.
+        public void setCapacity(long capacity);
+    }
+
+    // The usage of a cache, since the cache is opened.
+    public static class CacheUsage {
+        public final String name;
+        public final long usedBytes;
+        public final long capacity;
+        public final long lookupCount;
+        public final long hitCount;
+
+        public CacheUsage(String name, long usedBytes, long capacity,
+                long lookupCount, long hitCount) {
+            this.name = name;
+            this.usedBytes = usedBytes;
+            this.capacity = capacity;
+            this.lookupCount = lookupCount;
+            this.hitCount = hitCount;
+        }
+
+        public float getHitRate() {
+            return lookupCount == 0 ? 0f : (float) hitCount / lookupCount;
+        }
+    }
+
+    private static class Budget {
+        public final String name;
+        public final BudgetedCache cache;
+        public final long defaultCapacity;
+        public volatile long capacity;
+        // The counts of the cache when the budget was last divided. Guarded
+        // by sRebalanceLock.
+        public long lookupCount;
+        public long hitCount;
+
+        public Budget(String name, BudgetedCache cache, long defaultCapacity) {
+            this.name = name;
+            this.cache = cache;
+            this.defaultCapacity = defaultCapacity;
+        }
+
+        public long getMinCapacity() {
+            return defaultCapacity / MIN_CAPACITY_FRACTION;
+        }
+    }
+
+    // The BlobCaches have two regions, each of them takes half the capacity.
+    private static class BlobCacheBudget implements BudgetedCache {
+        private final BlobCache mCache;
+        private final String mPath;
+
+        public BlobCacheBudget(BlobCache cache, String path) {
+            mCache = cache;
+            mPath = path;
+        }
+
+        @Override
+        public long getUsedBytes() {
+            return new File(mPath + ".idx").length() + new File(mPath + ".0").length()
+                    + new File(mPath + ".1").length();
+        }
+
+        @Override
+        public long getLookupCount() {
+            synchronized (mCache) {
+                return mCache.getLookupCount();
+            }
+        }
+
+        @Override
+        public long getHitCount() {
+            synchronized (mCache) {
+                return mCache.getHitCount();
+            }
+        }
+
+        @Override
+        public void setCapacity(long capacity) {
+            synchronized (mCache) {
+                try {
+                    mCache.setCapacity((int) Math.min(capacity / 2, Integer.MAX_VALUE));
+                } catch (IOException e) {
+                    Log.w(TAG, "cannot set the capacity of " + mPath, e);
+                }
+            }
+        }
+    }
+
     // Return null when we cannot instantiate a BlobCache, e.g.:
     // there is no SD card found.
     // This can only be called from data thread.
@@ -51,6 +177,8 @@ public class CacheManager {
                     cache = new BlobCache(path, maxEntries, maxBytes, false,
                             version);
                     sCacheMap.put(filename, cache);
+                    register(context, filename, new BlobCacheBudget(cache, path),
+                            2L * maxBytes);
                 } catch (IOException e) {
                     Log.e(TAG, "Cannot instantiate cache!", e);
                 }
@@ -59,6 +187,152 @@ public class CacheManager {
         }
     }
 
+    // Adds a cache to the ones sharing the budget. The cache is given the
+    // capacity it had the last time, if it is less than the default one.
+    public static void register(Context context, String name,
+            BudgetedCache cache, long defaultCapacity) {
+        SharedPreferences pref = PreferenceManager
+                .getDefaultSharedPreferences(context);
+        Budget budget = new Budget(name, cache, defaultCapacity);
+        budget.capacity = defaultCapacity;
+        try {
+            budget.capacity = pref.getLong(
+                    KEY_CACHE_CAPACITY_PREFIX + name, defaultCapacity);
+        } catch (Throwable t) {
+            // ignore.
+        }
+        budget.capacity = Math.max(budget.getMinCapacity(),
+                Math.min(budget.capacity, defaultCapacity));
+        if (budget.capacity < defaultCapacity) cache.setCapacity(budget.capacity);
+        budget.lookupCount = cache.getLookupCount();
+        budget.hitCount = cache.getHitCount();
+        synchronized (sCacheMap) {
+            sBudgets.add(budget);
+        }
+    }
+
+    // Returns the usage of the caches sharing the budget.
+    public static ArrayList<CacheUsage> getCacheUsages() {
+        ArrayList<Budget> budgets = getBudgets();
+        ArrayList<CacheUsage> usages = new ArrayList<CacheUsage>(budgets.size());
+        for (Budget budget : budgets) {
+            BudgetedCache cache = budget.cache;
+            usages.add(new CacheUsage(budget.name, cache.getUsedBytes(),
+                    budget.capacity, cache.getLookupCount(), cache.getHitCount()));
+        }
+        return usages;
+    }
+
+    private static ArrayList<Budget> getBudgets() {
+        synchronized (sCacheMap) {
+            return new ArrayList<Budget>(sBudgets);
+        }
+    }
+
+    // Returns a job which divides the budget among the caches again, if they
+    // have been used enough since the last time.
+    public static Job<Void> requestRebalance(Context context) {
+        final Context appContext = context.getApplicationContext();
+        return new Job<Void>() {
+            @Override
+            public Void run(JobContext jc) {
+                rebalance(appContext);
+                return null;
+            }
+        };
+    }
+
+    private static void rebalance(Context context) {
+        synchronized (sRebalanceLock) {
+            ArrayList<Budget> budgets = getBudgets();
+            int n = budgets.size();
+            long lookups = 0;
+            for (Budget budget : budgets) {
+                lookups += budget.cache.getLookupCount() - budget.lookupCount;
+            }
+            if (lookups < MIN_LOOKUPS) return;
+
+            // The hits per byte of each cache. A cache is counted as taking at
+            // least its minimum, so a nearly empty cache does not get it all.
+            long[] targets = new long[n];
+            double[] values = new double[n];
+            long rest = getQuota(context, budgets);
+            for (int i = 0; i < n; ++i) {
+                Budget budget = budgets.get(i);
+                targets[i] = budget.getMinCapacity();
+                rest -= targets[i];
+                long hits = budget.cache.getHitCount() - budget.hitCount;
+                values[i] = (double) hits
+                        / Math.max(budget.cache.getUsedBytes(), targets[i] + 1);
+            }
+
+            // Give the rest by the values, and again what is left over the
+            // default capacities, until all is given or all the caches are full.
+            boolean[] full = new boolean[n];
+            while (rest > 0) {
+                double totalValue = 0;
+                long totalDefault = 0;
+                for (int i = 0; i < n; ++i) {
+                    if (full[i]) continue;
+                    totalValue += values[i];
+                    totalDefault += budgets.get(i).defaultCapacity;
+                }
+                if (totalDefault == 0) break;
+                long given = 0;
+                for (int i = 0; i < n; ++i) {
+                    if (full[i]) continue;
+                    Budget budget = budgets.get(i);
+                    // Without hits, by the default capacities.
+                    long share = (long) (totalValue > 0
+                            ? rest * values[i] / totalValue
+                            : (double) rest * budget.defaultCapacity / totalDefault);
+                    long room = budget.defaultCapacity - targets[i];
+                    if (share >= room) {
+                        share = room;
+                        full[i] = true;
+                    }
+                    targets[i] += share;
+                    given += share;
+                }
+                if (given == 0) break;
+                rest -= given;
+            }
+
+            SharedPreferences.Editor editor = PreferenceManager
+                    .getDefaultSharedPreferences(context).edit();
+            for (int i = 0; i < n; ++i) {
+                Budget budget = budgets.get(i);
+                long capacity = (budget.capacity + targets[i]) / 2;
+                if (capacity != budget.capacity) {
+                    budget.capacity = capacity;
+                    budget.cache.setCapacity(capacity);
+                    editor.putLong(KEY_CACHE_CAPACITY_PREFIX + budget.name, capacity);
+                }
+                budget.lookupCount = budget.cache.getLookupCount();
+                budget.hitCount = budget.cache.getHitCount();
+            }
+            editor.commit();
+        }
+    }
+
+    // The sum of the default capacities, or the part of the storage the
+    // caches may take if it is less.
+    private static long getQuota(Context context, ArrayList<Budget> budgets) {
+        long quota = 0;
+        for (Budget budget : budgets) {
+            quota += budget.defaultCapacity;
+        }
+        File cacheDir = context.getExternalCacheDir();
+        if (cacheDir == null) return quota;
+        try {
+            StatFs stat = new StatFs(cacheDir.getAbsolutePath());
+            long totalBytes = (long) stat.getBlockSize() * stat.getBlockCount();
+            return Math.min(quota, totalBytes / STORAGE_FRACTION);
+        } catch (IllegalArgumentException e) {
+            return quota;
+        }
+    }
+
     // Removes the old files if the data is wiped.
     private static void removeOldFilesIfNecessary(Context context) {
         SharedPreferences pref = PreferenceManager
@@ -78,5 +352,6 @@ public class CacheManager {
         BlobCache.deleteFiles(prefix + "imgcache");
         BlobCache.deleteFiles(prefix + "rev_geocoding");
         BlobCache.deleteFiles(prefix + "bookmark");
+        BlobCache.deleteFiles(prefix + "tilecache");
     }
 }
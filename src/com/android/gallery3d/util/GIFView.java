@@ -88,7 +88,7 @@ public class GIFView extends ImageView implements GifAction {
 
     private void startDecode(InputStream is) {
         freeGifDecoder();
-        mGifDecoder = new GifDecoder(is, this);
+        mGifDecoder = new GifDecoder(is, this, true);
         mGifDecoder.start();
     }
 
@@ -178,6 +178,9 @@ public class GIFView extends ImageView implements GifAction {
                     return;
                 }
                 GifFrame frame = mGifDecoder.next();
+                if (frame == null) {
+                    return;
+                }
                 mCurrentImage = frame.mImage;
 
                 Message msg = mRedrawHandler.obtainMessage();
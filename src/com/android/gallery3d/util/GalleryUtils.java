@@ -17,6 +17,7 @@
 package com.android.gallery3d.util;
 
 import android.annotation.TargetApi;
+import android.app.ActivityManager;
 import android.content.ActivityNotFoundException;
 import android.content.ComponentName;
 import android.content.Context;
@@ -25,6 +26,7 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.ConditionVariable;
@@ -72,9 +74,14 @@ public class GalleryUtils {
     private static final String KEY_CAMERA_UPDATE = "camera-update";
     private static final String KEY_HAS_CAMERA = "has-camera";
 
+    // Devices with a heap of at most this many megabytes use the low-memory
+    // mode.
+    private static final int LOW_MEMORY_CLASS = 64;
+
     private static float sPixelDensity = -1f;
     private static boolean sCameraAvailableInitialized = false;
     private static boolean sCameraAvailable;
+    private static boolean sLowMemory;
 
     public static void initialize(Context context) {
         DisplayMetrics metrics = new DisplayMetrics();
@@ -86,6 +93,18 @@ public class GalleryUtils {
         TiledScreenNail.setPlaceholderColor(r.getColor(
                 R.color.bitmap_screennail_placeholder));
         initializeThumbnailSizes(metrics, r);
+
+        ActivityManager am = (ActivityManager)
+                context.getSystemService(Context.ACTIVITY_SERVICE);
+        sLowMemory = am.getMemoryClass() <= LOW_MEMORY_CLASS;
+        MediaItem.setMicrothumbnailConfig(sLowMemory
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
+    }
+
+    // In the low-memory mode, the micro thumbnails are decoded and uploaded
+    // as RGB_565, so the album grids can keep twice as many of them.
+    public static boolean isLowMemoryDevice() {
+        return sLowMemory;
     }
 
     private static void initializeThumbnailSizes(DisplayMetrics metrics, Resources r) {
@@ -5,7 +5,10 @@ import android.graphics.Bitmap.Config;
 import android.util.Log;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 public class GifDecoder extends Thread {
 
@@ -68,18 +71,55 @@ public class GifDecoder extends Thread {
 
     private byte[] mGifData = null;
 
+    // In the streaming mode, the frames are not all decoded up front. The
+    // decoder keeps the encoded data and decodes the frames in order, just
+    // ahead of next(), into a ring of STREAM_FRAMES reused frames. The
+    // frames are drawn over one canvas (mCanvasPixels); mRestorePixels keeps
+    // the canvas for the frames disposed to the previous image. The last
+    // STREAM_HELD_FRAMES frames returned by next() may still be drawn and
+    // are not reused yet.
+    private static final int STREAM_FRAMES = 4;
+    private static final int STREAM_HELD_FRAMES = 2;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final boolean mStreaming;
+    private boolean mScanOnly;
+    private boolean mFrameReady;
+    private boolean mEndOfStream;
+    private int mFrameDelay;
+    private int mFrameDispose;
+    private int[] mCanvasPixels;
+    private int[] mRestorePixels;
+    private GifFrame[] mRing;
+    private int mReadIndex;     // the next frame to return in the ring
+    private int mReadyCount;    // the decoded frames not returned yet
+    private int mReturnedCount; // the frames returned by next()
+    private boolean mStopped;
+
     public GifDecoder(byte[] data, GifAction act) {
+        this(data, act, false);
+    }
+
+    public GifDecoder(byte[] data, GifAction act, boolean streaming) {
         mGifData = data;
         mGifAction = act;
+        mStreaming = streaming;
     }
 
     public GifDecoder(InputStream is, GifAction act) {
+        this(is, act, false);
+    }
+
+    public GifDecoder(InputStream is, GifAction act, boolean streaming) {
         mIS = is;
         mGifAction = act;
+        mStreaming = streaming;
     }
 
     public void run() {
-        if (mIS != null) {
+        if (mStreaming) {
+            readStreaming();
+        } else if (mIS != null) {
             readStream();
         } else if (mGifData != null) {
             readByte();
@@ -87,6 +127,14 @@ public class GifDecoder extends Thread {
     }
 
     public void free() {
+        if (mStreaming) {
+            // The decoding thread frees the frames when it stops.
+            synchronized (this) {
+                mStopped = true;
+                notifyAll();
+            }
+            return;
+        }
         freeFrame();
         freeIS();
         freeImage();
@@ -128,6 +176,12 @@ public class GifDecoder extends Thread {
     }
 
     public Bitmap getImage() {
+        if (mStreaming) {
+            synchronized (this) {
+                if (mCurrentFrame != null) return mCurrentFrame.mImage;
+                return (mReadyCount > 0) ? mRing[mReadIndex].mImage : null;
+            }
+        }
         return getFrameImage(0);
     }
 
@@ -168,7 +222,13 @@ public class GifDecoder extends Thread {
             }
         }
 
-        // copy each source line to the appropriate place in the destination
+        drawImageData(dest);
+        mImage = Bitmap.createBitmap(dest, mWidth, mHeight, Config.ARGB_4444);
+    }
+
+    // Copies each source line of the current image to the appropriate place
+    // in the destination.
+    private void drawImageData(int[] dest) {
         int pass = 1;
         int inc = 8;
         int iline = 0;
@@ -213,7 +273,29 @@ public class GifDecoder extends Thread {
                 }
             }
         }
-        mImage = Bitmap.createBitmap(dest, mWidth, mHeight, Config.ARGB_4444);
+    }
+
+    // Draws the current image over the canvas of the streaming mode, after
+    // disposing the previous frame.
+    private void composeFrame() {
+        int[] dest = mCanvasPixels;
+        if (mLastDispose == 2) {
+            // fill last image rect area with background color
+            int c = mTransparency ? 0 : mLastBgColor;
+            int right = Math.min(mLrx + mLrw, mWidth);
+            int bottom = Math.min(mLry + mLrh, mHeight);
+            for (int y = mLry; y < bottom; y++) {
+                Arrays.fill(dest, y * mWidth + mLrx, y * mWidth + right, c);
+            }
+        } else if (mLastDispose == 3 && mRestorePixels != null) {
+            // use image before last
+            System.arraycopy(mRestorePixels, 0, dest, 0, dest.length);
+        }
+        if (mDispose == 3) {
+            if (mRestorePixels == null) mRestorePixels = new int[dest.length];
+            System.arraycopy(dest, 0, mRestorePixels, 0, dest.length);
+        }
+        drawImageData(dest);
     }
 
     public Bitmap getFrameImage(int n) {
@@ -263,6 +345,7 @@ public class GifDecoder extends Thread {
     }
 
     public GifFrame next() {
+        if (mStreaming) return nextStreaming();
         if (mIsShow == false) {
             mIsShow = true;
             return mGifFrame;
@@ -281,6 +364,169 @@ public class GifDecoder extends Thread {
         }
     }
 
+    // Returns the next decoded frame, waiting for it if needed. Returns null
+    // if the decoder is freed or has failed.
+    private synchronized GifFrame nextStreaming() {
+        while (mReadyCount == 0 && !mStopped && !err()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return pollNext();
+    }
+
+    // Returns the next decoded frame in the streaming mode, or null if it is
+    // not decoded yet. It does not wait, so it can be called on the GL thread.
+    public synchronized GifFrame pollNext() {
+        if (mReadyCount == 0 || mStopped) return null;
+        mCurrentFrame = mRing[mReadIndex];
+        mReadIndex = (mReadIndex + 1) % STREAM_FRAMES;
+        --mReadyCount;
+        ++mReturnedCount;
+        notifyAll();
+        return mCurrentFrame;
+    }
+
+    // Waits until a frame of the ring can be decoded into, and returns it.
+    // Returns null if the decoder is freed.
+    private synchronized GifFrame waitForFreeFrame() {
+        while (!mStopped && mReadyCount
+                + Math.min(mReturnedCount, STREAM_HELD_FRAMES) >= STREAM_FRAMES) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        if (mStopped) return null;
+        return mRing[(mReadIndex + mReadyCount) % STREAM_FRAMES];
+    }
+
+    private synchronized void publishFrame() {
+        ++mReadyCount;
+        notifyAll();
+    }
+
+    private boolean readAllData() {
+        if (mGifData != null) return true;
+        if (mIS == null) return false;
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int n;
+            while ((n = mIS.read(buffer)) > 0) {
+                bos.write(buffer, 0, n);
+            }
+            mGifData = bos.toByteArray();
+            return true;
+        } catch (IOException e) {
+            Log.e("GifDecoder", "fail to read data", e);
+            return false;
+        } finally {
+            freeIS();
+        }
+    }
+
+    private void rewind() {
+        mIS = new ByteArrayInputStream(mGifData);
+        mStatus = STATUS_PARSING;
+        mGct = null;
+        mLct = null;
+        mDispose = 0;
+        mLastDispose = 0;
+        mTransparency = false;
+        mDelay = 0;
+        mEndOfStream = false;
+        readHeader();
+    }
+
+    // Decodes the next frame over the canvas. Returns false at the end of
+    // the data or on errors.
+    private boolean readFrame() {
+        mFrameReady = false;
+        readContents();
+        return mFrameReady;
+    }
+
+    private void readStreaming() {
+        if (!readAllData()) {
+            mStatus = STATUS_OPEN_ERROR;
+            mGifAction.parseOk(false, -1);
+            return;
+        }
+
+        // Count the frames without decoding them.
+        mFrameCount = 0;
+        mScanOnly = true;
+        rewind();
+        if (!err()) readContents();
+        mScanOnly = false;
+        if (err() || mFrameCount == 0) {
+            mStatus = STATUS_FORMAT_ERROR;
+            mGifAction.parseOk(false, -1);
+            return;
+        }
+
+        try {
+            mCanvasPixels = new int[mWidth * mHeight];
+            mRing = new GifFrame[STREAM_FRAMES];
+            for (int i = 0; i < STREAM_FRAMES; i++) {
+                mRing[i] = new GifFrame(null, 0, 0);
+            }
+
+            boolean started = false;
+            rewind();
+            while (!err()) {
+                GifFrame frame = waitForFreeFrame();
+                if (frame == null) break;
+                if (!readFrame()) {
+                    if (err() || !mEndOfStream) break;
+                    // Play it again from the start.
+                    Arrays.fill(mCanvasPixels, 0);
+                    rewind();
+                    continue;
+                }
+                if (frame.mImage == null) {
+                    frame.mImage = Bitmap.createBitmap(mWidth, mHeight, Config.ARGB_4444);
+                }
+                frame.mImage.setPixels(mCanvasPixels, 0, mWidth, 0, 0, mWidth, mHeight);
+                frame.mDelayInMs = mFrameDelay;
+                frame.mDispose = mFrameDispose;
+                publishFrame();
+                if (!started) {
+                    started = true;
+                    mGifAction.parseOk(true, -1);
+                }
+            }
+            if (!started) mGifAction.parseOk(false, -1);
+        } catch (OutOfMemoryError e) {
+            Log.e("GifDecoder", ">>> log  : " + e.toString());
+            synchronized (this) {
+                mStatus = STATUS_FORMAT_ERROR;
+                notifyAll();
+            }
+        } finally {
+            boolean freed;
+            synchronized (this) {
+                freed = mStopped;
+                mStopped = true;
+                notifyAll();
+            }
+            // The frames returned by next() may still be in use until free()
+            // is called.
+            if (freed && mRing != null) {
+                for (GifFrame frame : mRing) {
+                    if (frame != null && frame.mImage != null) frame.mImage.recycle();
+                }
+            }
+            mCanvasPixels = null;
+            mRestorePixels = null;
+            mGifData = null;
+        }
+    }
+
     private int readByte() {
         mIS = new ByteArrayInputStream(mGifData);
         mGifData = null;
@@ -497,7 +743,7 @@ public class GifDecoder extends Thread {
     private void readContents() {
         // read GIF file content blocks
         boolean done = false;
-        while (!(done || err())) {
+        while (!(done || err() || mFrameReady)) {
             int code = read();
             switch (code) {
                 case 0x2C: // image separator
@@ -527,6 +773,7 @@ public class GifDecoder extends Thread {
                     break;
                 case 0x3b: // terminator
                     done = true;
+                    mEndOfStream = true;
                     break;
                 case 0x00: // bad byte, but keep going and see what happens
                     break;
@@ -596,6 +843,32 @@ public class GifDecoder extends Thread {
         if (err()) {
             return;
         }
+        if (mScanOnly) {
+            read(); // LZW minimum code size
+            skip(); // image data
+            if (mTransparency) {
+                mAct[mTransIndex] = save;
+            }
+            mFrameCount++;
+            resetFrame();
+            return;
+        }
+        if (mStreaming) {
+            decodeImageData();
+            skip();
+            if (err()) {
+                return;
+            }
+            composeFrame();
+            if (mTransparency) {
+                mAct[mTransIndex] = save;
+            }
+            mFrameDelay = mDelay;
+            mFrameDispose = mDispose;
+            resetFrame();
+            mFrameReady = true;
+            return;
+        }
         try {
             decodeImageData(); // decode pixel data
             skip();
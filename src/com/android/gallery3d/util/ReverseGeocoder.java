@@ -86,6 +86,50 @@ public class ReverseGeocoder {
     }
 
     public String computeAddress(SetLatLong set) {
+        return computeAddress(set, getCurrentAddress());
+    }
+
+    /**
+     * Computes the names of the sets in one pass. The current location is
+     * looked up once for all the sets, instead of once per set.
+     *
+     * @return the names, in the order of the sets. A name is null if the
+     *         places of its set cannot be found.
+     */
+    public String[] computeAddresses(List<SetLatLong> sets) {
+        Address currentAddress = getCurrentAddress();
+        String[] names = new String[sets.size()];
+        for (int i = 0, n = sets.size(); i < n; ++i) {
+            names[i] = computeAddress(sets.get(i), currentAddress);
+        }
+        return names;
+    }
+
+    // Returns the address of the current location, we decide the granularity
+    // of the names based on this.
+    private Address getCurrentAddress() {
+        LocationManager locationManager =
+                (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
+        Location location = null;
+        List<String> providers = locationManager.getAllProviders();
+        for (int i = 0; i < providers.size(); ++i) {
+            String provider = providers.get(i);
+            location = (provider != null) ? locationManager.getLastKnownLocation(provider) : null;
+            if (location != null)
+                break;
+        }
+        if (location == null) return null;
+        Address currentAddress = lookupAddress(
+                location.getLatitude(), location.getLongitude(), true);
+        if (currentAddress == null) {
+            currentAddress = sCurrentAddress;
+        } else {
+            sCurrentAddress = currentAddress;
+        }
+        return currentAddress;
+    }
+
+    private String computeAddress(SetLatLong set, Address currentAddress) {
         // The overall min and max latitudes and longitudes of the set.
         double setMinLatitude = set.mMinLatLatitude;
         double setMinLongitude = set.mMinLatLongitude;
@@ -108,34 +152,13 @@ public class ReverseGeocoder {
             return null;
         }
 
-        // Get current location, we decide the granularity of the string based
-        // on this.
-        LocationManager locationManager =
-                (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
-        Location location = null;
-        List<String> providers = locationManager.getAllProviders();
-        for (int i = 0; i < providers.size(); ++i) {
-            String provider = providers.get(i);
-            location = (provider != null) ? locationManager.getLastKnownLocation(provider) : null;
-            if (location != null)
-                break;
-        }
         String currentCity = "";
         String currentAdminArea = "";
         String currentCountry = Locale.getDefault().getCountry();
-        if (location != null) {
-            Address currentAddress = lookupAddress(
-                    location.getLatitude(), location.getLongitude(), true);
-            if (currentAddress == null) {
-                currentAddress = sCurrentAddress;
-            } else {
-                sCurrentAddress = currentAddress;
-            }
-            if (currentAddress != null && currentAddress.getCountryCode() != null) {
-                currentCity = checkNull(currentAddress.getLocality());
-                currentCountry = checkNull(currentAddress.getCountryCode());
-                currentAdminArea = checkNull(currentAddress.getAdminArea());
-            }
+        if (currentAddress != null && currentAddress.getCountryCode() != null) {
+            currentCity = checkNull(currentAddress.getLocality());
+            currentCountry = checkNull(currentAddress.getCountryCode());
+            currentAdminArea = checkNull(currentAddress.getAdminArea());
         }
 
         String closestCommonLocation = null;
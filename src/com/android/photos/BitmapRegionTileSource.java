@@ -28,9 +28,12 @@ import android.os.Build;
 import android.os.Build.VERSION_CODES;
 import android.util.Log;
 
+import com.android.gallery3d.app.GalleryApp;
 import com.android.gallery3d.common.BitmapUtils;
+import com.android.gallery3d.data.TileCacheService;
 import com.android.gallery3d.glrenderer.BasicTexture;
 import com.android.gallery3d.glrenderer.BitmapTexture;
+import com.android.photos.data.GalleryBitmapPool;
 import com.android.photos.views.TiledImageRenderer;
 
 import java.io.IOException;
@@ -57,6 +60,8 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
     int mTileSize;
     private BasicTexture mPreview;
     private final int mRotation;
+    private GalleryApp mApplication;
+    private String mCacheKey;
 
     // For use only by getTile
     private Rect mWantRegion = new Rect();
@@ -67,6 +72,10 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
     public BitmapRegionTileSource(Context context, String path, int previewSize, int rotation) {
         mTileSize = TiledImageRenderer.suggestedTileSize(context);
         mRotation = rotation;
+        if (context.getApplicationContext() instanceof GalleryApp) {
+            mApplication = (GalleryApp) context.getApplicationContext();
+            mCacheKey = TileCacheService.getImageKey(path);
+        }
         try {
             mDecoder = BitmapRegionDecoder.newInstance(path, true);
             mWidth = mDecoder.getWidth();
@@ -123,6 +132,27 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
 
     @Override
     public Bitmap getTile(int level, int x, int y, Bitmap bitmap) {
+        TileCacheService tileCache = null;
+        if (mCacheKey != null && TileCacheService.isCacheable(level)) {
+            tileCache = mApplication.getTileCacheService();
+            Bitmap cached = tileCache.getTile(mCacheKey, level, x, y, bitmap);
+            if (cached != null) {
+                // The tile was decoded into a new bitmap, the given one is
+                // not used.
+                if (bitmap != null && bitmap != cached) {
+                    GalleryBitmapPool.getInstance().put(bitmap);
+                }
+                return cached;
+            }
+        }
+        bitmap = decodeTile(level, x, y, bitmap);
+        if (tileCache != null && bitmap != null) {
+            tileCache.putTile(mCacheKey, level, x, y, bitmap);
+        }
+        return bitmap;
+    }
+
+    private Bitmap decodeTile(int level, int x, int y, Bitmap bitmap) {
         int tileSize = getTileSize();
         if (!REUSE_BITMAP) {
             return getTileWithoutReusingBitmap(level, x, y, tileSize);
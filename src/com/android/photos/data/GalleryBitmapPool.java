@@ -30,6 +30,9 @@ import com.android.photos.data.SparseArrayBitmapPool.Node;
 public class GalleryBitmapPool {
 
     private static final int CAPACITY_BYTES = 20971520;
+    // The RGB_565 bitmaps are only used for the opaque thumbnails of the
+    // low-memory mode, they get a smaller share of their own.
+    private static final int CAPACITY_BYTES_RGB_565 = CAPACITY_BYTES / 2;
 
     // We found that Gallery uses bitmaps that are either square (for example,
     // tiles of large images or square thumbnails), match one of the common
@@ -46,34 +49,54 @@ public class GalleryBitmapPool {
     private static final int POOL_INDEX_SQUARE = 0;
     private static final int POOL_INDEX_PHOTO = 1;
     private static final int POOL_INDEX_MISC = 2;
+    private static final int POOL_COUNT = 3;
 
     private static final Point[] COMMON_PHOTO_ASPECT_RATIOS =
         { new Point(4, 3), new Point(3, 2), new Point(16, 9) };
 
     private int mCapacityBytes;
     private SparseArrayBitmapPool [] mPools;
+    // The same buckets for the RGB_565 bitmaps, they cannot be reused
+    // for an ARGB_8888 decode.
+    private SparseArrayBitmapPool [] mRgb565Pools;
     private Pool<Node> mSharedNodePool = new SynchronizedPool<Node>(128);
 
-    private GalleryBitmapPool(int capacityBytes) {
-        mPools = new SparseArrayBitmapPool[3];
-        mPools[POOL_INDEX_SQUARE] = new SparseArrayBitmapPool(capacityBytes / 3, mSharedNodePool);
-        mPools[POOL_INDEX_PHOTO] = new SparseArrayBitmapPool(capacityBytes / 3, mSharedNodePool);
-        mPools[POOL_INDEX_MISC] = new SparseArrayBitmapPool(capacityBytes / 3, mSharedNodePool);
-        mCapacityBytes = capacityBytes;
+    private GalleryBitmapPool(int capacityBytes, int rgb565CapacityBytes) {
+        mPools = createPools(capacityBytes);
+        mRgb565Pools = createPools(rgb565CapacityBytes);
+        mCapacityBytes = capacityBytes + rgb565CapacityBytes;
     }
 
-    private static GalleryBitmapPool sInstance = new GalleryBitmapPool(CAPACITY_BYTES);
+    private SparseArrayBitmapPool[] createPools(int capacityBytes) {
+        SparseArrayBitmapPool[] pools = new SparseArrayBitmapPool[POOL_COUNT];
+        pools[POOL_INDEX_SQUARE] = new SparseArrayBitmapPool(capacityBytes / 3, mSharedNodePool);
+        pools[POOL_INDEX_PHOTO] = new SparseArrayBitmapPool(capacityBytes / 3, mSharedNodePool);
+        pools[POOL_INDEX_MISC] = new SparseArrayBitmapPool(capacityBytes / 3, mSharedNodePool);
+        return pools;
+    }
+
+    private static GalleryBitmapPool sInstance =
+            new GalleryBitmapPool(CAPACITY_BYTES, CAPACITY_BYTES_RGB_565);
 
     public static GalleryBitmapPool getInstance() {
         return sInstance;
     }
 
-    private SparseArrayBitmapPool getPoolForDimensions(int width, int height) {
+    private SparseArrayBitmapPool getPoolForDimensions(int width, int height,
+            Bitmap.Config config) {
+        SparseArrayBitmapPool[] pools;
+        if (config == Bitmap.Config.ARGB_8888) {
+            pools = mPools;
+        } else if (config == Bitmap.Config.RGB_565) {
+            pools = mRgb565Pools;
+        } else {
+            return null;
+        }
         int index = getPoolIndexForDimensions(width, height);
         if (index == POOL_INDEX_NONE) {
             return null;
         } else {
-            return mPools[index];
+            return pools[index];
         }
     }
 
@@ -118,14 +141,26 @@ public class GalleryBitmapPool {
         for (SparseArrayBitmapPool p : mPools) {
             total += p.getSize();
         }
+        for (SparseArrayBitmapPool p : mRgb565Pools) {
+            total += p.getSize();
+        }
         return total;
     }
 
     /**
-     * @return Bitmap from the pool with the desired height/width or null if none available.
+     * @return ARGB_8888 Bitmap from the pool with the desired height/width or null if none
+     * available.
      */
     public Bitmap get(int width, int height) {
-        SparseArrayBitmapPool pool = getPoolForDimensions(width, height);
+        return get(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @return Bitmap from the pool with the desired height/width/config or null if none
+     * available.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        SparseArrayBitmapPool pool = getPoolForDimensions(width, height, config);
         if (pool == null) {
             return null;
         } else {
@@ -138,10 +173,12 @@ public class GalleryBitmapPool {
      * @return Whether the bitmap was added to the pool.
      */
     public boolean put(Bitmap b) {
-        if (b == null || b.getConfig() != Bitmap.Config.ARGB_8888) {
+        if (b == null || (b.getConfig() != Bitmap.Config.ARGB_8888
+                && b.getConfig() != Bitmap.Config.RGB_565)) {
             return false;
         }
-        SparseArrayBitmapPool pool = getPoolForDimensions(b.getWidth(), b.getHeight());
+        SparseArrayBitmapPool pool = getPoolForDimensions(
+                b.getWidth(), b.getHeight(), b.getConfig());
         if (pool == null) {
             b.recycle();
             return false;
@@ -157,5 +194,8 @@ public class GalleryBitmapPool {
         for (SparseArrayBitmapPool p : mPools) {
             p.clear();
         }
+        for (SparseArrayBitmapPool p : mRgb565Pools) {
+            p.clear();
+        }
     }
 }
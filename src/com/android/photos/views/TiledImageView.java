@@ -306,6 +306,7 @@ public class TiledImageView extends FrameLayout {
                         mRenderer.scale);
             }
             boolean complete = mRenderer.image.draw(mCanvas);
+            mCanvas.flush();
             if (complete && readyCallback != null) {
                 synchronized (mLock) {
                     // Make sure we don't trample on a newly set callback/source